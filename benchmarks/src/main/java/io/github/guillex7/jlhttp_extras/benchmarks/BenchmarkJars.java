@@ -0,0 +1,110 @@
+package io.github.guillex7.jlhttp_extras.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+/**
+ * The {@code BenchmarkJars} class generates the jar files served by the
+ * benchmarks, with a configurable number of resources under "static/".
+ */
+public final class BenchmarkJars {
+    /**
+     * The name of the jar entry of the large resource created by
+     * {@link #createJar(Path, int, int, int, int)}.
+     */
+    public static final String LARGE_RESOURCE_NAME = "static/bundles/vendor.js";
+
+    private static final String[] EXTENSIONS = { ".js", ".css", ".html", ".svg", ".png", ".json" };
+
+    private BenchmarkJars() {
+    }
+
+    /**
+     * Creates a jar file with the given number of text-like resources, spread
+     * over nested directories as in typical web application bundles, all of
+     * them compressed with deflate.
+     *
+     * @param path          the path of the jar file to create
+     * @param resourceCount the number of resources
+     * @param resourceSize  the size of each resource, in bytes
+     * @return the path of the jar file
+     * @throws IOException if the jar file cannot be written
+     */
+    public static Path createJar(Path path, int resourceCount, int resourceSize) throws IOException {
+        return createJar(path, resourceCount, resourceSize, ZipEntry.DEFLATED, 0);
+    }
+
+    /**
+     * Creates a jar file with the given number of text-like resources, spread
+     * over nested directories as in typical web application bundles, and
+     * optionally a large resource named {@link #LARGE_RESOURCE_NAME}.
+     *
+     * @param path              the path of the jar file to create
+     * @param resourceCount     the number of resources
+     * @param resourceSize      the size of each resource, in bytes
+     * @param method            the compression method of the entries, either
+     *                          {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param largeResourceSize the size of the large resource, in bytes, or 0
+     *                          to leave it out
+     * @return the path of the jar file
+     * @throws IOException if the jar file cannot be written
+     */
+    public static Path createJar(Path path, int resourceCount, int resourceSize, int method, int largeResourceSize)
+            throws IOException {
+        final Random random = new Random(resourceCount);
+        final byte[] contents = new byte[resourceSize];
+        try (OutputStream file = Files.newOutputStream(path); JarOutputStream out = new JarOutputStream(file)) {
+            for (int i = 0; i < resourceCount; i++) {
+                fill(contents, random);
+                writeEntry(out, getResourceName(i), contents, method);
+            }
+            if (largeResourceSize > 0) {
+                final byte[] largeContents = new byte[largeResourceSize];
+                fill(largeContents, random);
+                writeEntry(out, LARGE_RESOURCE_NAME, largeContents, method);
+            }
+        }
+        return path;
+    }
+
+    private static void fill(byte[] contents, Random random) {
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) ('a' + random.nextInt(8));
+        }
+    }
+
+    private static void writeEntry(JarOutputStream out, String name, byte[] contents, int method)
+            throws IOException {
+        final JarEntry entry = new JarEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            final CRC32 crc = new CRC32();
+            crc.update(contents);
+            entry.setSize(contents.length);
+            entry.setCompressedSize(contents.length);
+            entry.setCrc(crc.getValue());
+        }
+        out.putNextEntry(entry);
+        out.write(contents);
+        out.closeEntry();
+    }
+
+    /**
+     * Returns the name of the jar entry of a resource created by
+     * {@link #createJar(Path, int, int)}.
+     *
+     * @param i the index of the resource
+     * @return the name of the resource
+     */
+    public static String getResourceName(int i) {
+        return "static/modules/m" + (i % 97) + "/chunks/c" + (i % 13) + "/asset-" + i
+                + EXTENSIONS[i % EXTENSIONS.length];
+    }
+}
@@ -0,0 +1,81 @@
+package io.github.guillex7.jlhttp_extras.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import net.freeutils.httpserver.HTTPServer;
+import net.freeutils.httpserver.HTTPServer.ContextHandler;
+import net.freeutils.httpserver.HTTPServer.Request;
+import net.freeutils.httpserver.HTTPServer.Response;
+
+/**
+ * The {@code BenchmarkRequests} class creates the requests and responses
+ * passed to context handlers by the benchmarks, as jlhttp does for each
+ * transaction, without any socket involved. Response bodies are discarded.
+ */
+public final class BenchmarkRequests {
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private final HTTPServer server = new HTTPServer(0);
+
+    /**
+     * Creates a new {@code BenchmarkRequests} whose requests are routed to the
+     * given handler. The server is never started.
+     *
+     * @param contextPath the context path of the handler, e.g. "/static/{*}"
+     * @param handler     the handler
+     */
+    public BenchmarkRequests(String contextPath, ContextHandler handler) {
+        this.server.getVirtualHost(null).addContext(contextPath, handler);
+    }
+
+    /**
+     * Serializes a request with the given extra headers.
+     *
+     * @param method  the request method
+     * @param uri     the request URI
+     * @param headers the extra header lines, without line terminators
+     * @return the serialized request
+     */
+    public static byte[] request(String method, String uri, String... headers) {
+        final StringBuilder request = new StringBuilder(method).append(' ').append(uri)
+                .append(" HTTP/1.1\r\nHost: localhost\r\n");
+        for (String header : headers) {
+            request.append(header).append("\r\n");
+        }
+        return request.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Parses a serialized request.
+     *
+     * @param request the serialized request
+     * @return the request
+     * @throws IOException if the request is invalid
+     */
+    public Request parse(byte[] request) throws IOException {
+        return this.server.new Request(new ByteArrayInputStream(request), null);
+    }
+
+    /**
+     * Creates the response to a request, whose body is discarded.
+     *
+     * @param request the request
+     * @return the response
+     */
+    public Response respond(Request request) {
+        final Response response = this.server.new Response(DISCARD);
+        response.setClientCapabilities(request);
+        return response;
+    }
+}
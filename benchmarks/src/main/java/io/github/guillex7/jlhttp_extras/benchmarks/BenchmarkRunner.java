@@ -0,0 +1,34 @@
+package io.github.guillex7.jlhttp_extras.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * The {@code BenchmarkRunner} runs the JMH benchmarks with the GC profiler,
+ * so that the bytes allocated per operation are reported along with the
+ * times, and writes the results to "jmh-result.json" unless told otherwise.
+ * <p>
+ * Usage: {@code BenchmarkRunner [JMH options] [benchmark regexps]}
+ */
+public final class BenchmarkRunner {
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        if (commandLineOptions.shouldHelp() || commandLineOptions.shouldList()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        final OptionsBuilder options = new OptionsBuilder();
+        options.parent(commandLineOptions).addProfiler(GCProfiler.class);
+        if (!commandLineOptions.getResult().hasValue()) {
+            options.result("jmh-result.json").resultFormat(ResultFormatType.JSON);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,221 @@
+package io.github.guillex7.jlhttp_extras.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import io.github.guillex7.jlhttp_extras.JarResourceContextHandler;
+import io.github.guillex7.jlhttp_extras.ServerBootstrap;
+import net.freeutils.httpserver.HTTPServer;
+
+/**
+ * The {@code ConnectionCapacity} benchmark opens a number of keep-alive
+ * connections to an {@link HTTPServer} serving a jar file on localhost, sends
+ * one request on each and leaves them idle, and then reports how much memory
+ * and how many threads the open connections take, with either a cached pool
+ * of platform threads or a virtual thread per connection, as set up by
+ * {@link ServerBootstrap} on Java 21 and later.
+ * <p>
+ * The heap of virtual threads holds their stacks while they wait, whereas the
+ * stacks of platform threads are native memory, so both the heap and the
+ * resident set size of the process are reported. The client sockets live in
+ * the same process, and take the same memory in both modes.
+ * <p>
+ * Usage: {@code ConnectionCapacity [name=value...]}, with the options:
+ * <ul>
+ * <li>{@code threads}: "platform" or "virtual" (default platform); the latter
+ * requires Java 21 or later</li>
+ * <li>{@code connections}: the number of connections to open (default
+ * 2000)</li>
+ * </ul>
+ * Opening connections stops at the first failure, such as running out of
+ * native threads or file descriptors, and the number of connections opened is
+ * reported.
+ */
+public final class ConnectionCapacity {
+    private ConnectionCapacity() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            final int equals = arg.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Options must be given as name=value: " + arg);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        final String threads = options.getOrDefault("threads", "platform");
+        final int connections = Integer.parseInt(options.getOrDefault("connections", "2000"));
+        if (!threads.equals("platform") && !threads.equals("virtual")) {
+            throw new IllegalArgumentException("Threads must be platform or virtual: " + threads);
+        }
+        if (threads.equals("virtual") && !ServerBootstrap.isVirtualThreadPerConnection()) {
+            System.err.println("Virtual threads require Java 21 or later");
+            System.exit(1);
+        }
+        // The connection threads of the server would otherwise keep the JVM alive
+        System.exit(run(threads, connections) ? 0 : 1);
+    }
+
+    /**
+     * Opens the connections and reports the memory and threads they take.
+     *
+     * @return true if all the connections were opened
+     */
+    private static boolean run(String threads, int connections) throws Exception {
+        final Path jar = BenchmarkJars.createJar(Files.createTempFile("connection-capacity", ".jar"), 100, 1024);
+        final int port = getFreePort();
+        final ServerBootstrap bootstrap = threads.equals("virtual") ? new ServerBootstrap(port)
+                : new ServerBootstrap(new HTTPServer(port), Executors.newCachedThreadPool());
+        final List<Socket> sockets = new ArrayList<>(connections);
+        final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+        try {
+            // Idle connections must stay open until they are measured
+            bootstrap.getServer().setSocketTimeout(0);
+            bootstrap.getServer().getVirtualHost(null).addContext("/static/{*}", handler);
+            bootstrap.start();
+
+            final byte[] request = BenchmarkRequests.request("GET", "/" + BenchmarkJars.getResourceName(0),
+                    "Connection: keep-alive");
+            sendRequest(port, request).close();
+            final long baseHeap = getUsedHeap();
+            final long baseRss = getResidentSetSize();
+            final int baseThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+            final long start = System.nanoTime();
+            String failure = null;
+            while (sockets.size() < connections) {
+                try {
+                    sockets.add(sendRequest(port, request));
+                } catch (IOException | OutOfMemoryError e) {
+                    failure = e.toString();
+                    break;
+                }
+            }
+            final double seconds = (System.nanoTime() - start) / 1e9;
+            final long heap = getUsedHeap() - baseHeap;
+            final long rss = getResidentSetSize() - baseRss;
+            final int addedThreads = ManagementFactory.getThreadMXBean().getThreadCount() - baseThreads;
+
+            final int opened = sockets.size();
+            System.out.printf(Locale.US, "threads=%s java=%s%n", threads, System.getProperty("java.version"));
+            System.out.printf(Locale.US, "connections: %d of %d opened in %.1f s%s%n", opened, connections, seconds,
+                    failure != null ? ", stopped by " + failure : "");
+            System.out.printf(Locale.US, "platform threads: %d more%n", addedThreads);
+            System.out.printf(Locale.US, "heap: %.1f MiB more, %.1f KiB per connection%n", heap / 1048576.0,
+                    opened > 0 ? heap / 1024.0 / opened : 0);
+            if (baseRss >= 0) {
+                System.out.printf(Locale.US, "rss: %.1f MiB more, %.1f KiB per connection%n", rss / 1048576.0,
+                        opened > 0 ? rss / 1024.0 / opened : 0);
+            }
+            return failure == null;
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+            bootstrap.stop();
+            handler.close();
+            Files.delete(jar);
+        }
+    }
+
+    private static int getFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Opens a connection, sends a request and reads its response, leaving the
+     * connection open.
+     *
+     * @return the socket of the connection
+     */
+    private static Socket sendRequest(int port, byte[] request) throws IOException {
+        final Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress("localhost", port));
+            socket.getOutputStream().write(request);
+            final InputStream in = new BufferedInputStream(socket.getInputStream(), 4096);
+            final String statusLine = readLine(in);
+            if (!statusLine.startsWith("HTTP/1.1 200")) {
+                throw new IOException("Unexpected response: " + statusLine);
+            }
+            long contentLength = 0;
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    contentLength = Long.parseLong(line.substring(15).trim());
+                }
+            }
+            while (contentLength > 0) {
+                if (in.read() < 0) {
+                    throw new EOFException("Unexpected end of response");
+                }
+                contentLength--;
+            }
+            return socket;
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new EOFException("Unexpected end of response");
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * Returns the heap in use after a garbage collection.
+     */
+    private static long getUsedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Returns the resident set size of the process, or -1 if it is unknown
+     * because /proc is not available.
+     */
+    private static long getResidentSetSize() throws IOException {
+        final Path status = Paths.get("/proc/self/status");
+        if (!Files.isReadable(status)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(status, StandardCharsets.UTF_8)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.substring(6).replace("kB", "").trim()) * 1024;
+            }
+        }
+        return -1;
+    }
+}
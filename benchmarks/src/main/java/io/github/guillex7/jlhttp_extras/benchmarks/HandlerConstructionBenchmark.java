@@ -0,0 +1,73 @@
+package io.github.guillex7.jlhttp_extras.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.guillex7.jlhttp_extras.JarResourceContextHandler;
+import io.github.guillex7.jlhttp_extras.JarResourceIndexer;
+
+/**
+ * The {@code HandlerConstructionBenchmark} measures the creation of a
+ * {@link JarResourceContextHandler} for jar files with the given number of
+ * resources, either scanning their entries or loading the index written by
+ * {@link JarResourceIndexer}. Each handler is closed after its iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(3)
+public class HandlerConstructionBenchmark {
+    @Param({ "1000", "50000" })
+    public int resourceCount;
+
+    @Param({ "false", "true" })
+    public boolean indexed;
+
+    private Path jar;
+    private JarResourceContextHandler handler;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.jar = BenchmarkJars.createJar(Files.createTempFile("construction", ".jar"), this.resourceCount, 64);
+        if (this.indexed) {
+            JarResourceIndexer.index(this.jar, "static");
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeHandler() throws IOException {
+        if (this.handler != null) {
+            this.handler.close();
+            this.handler = null;
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(this.jar);
+    }
+
+    @Benchmark
+    public JarResourceContextHandler create() throws IOException {
+        this.handler = new JarResourceContextHandler("static", this.jar.toString());
+        return this.handler;
+    }
+}
@@ -0,0 +1,466 @@
+package io.github.guillex7.jlhttp_extras.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.ZipEntry;
+
+import io.github.guillex7.jlhttp_extras.JarResourceCache;
+import io.github.guillex7.jlhttp_extras.JarResourceContextHandler;
+import io.github.guillex7.jlhttp_extras.TunedServerSocketFactory;
+import net.freeutils.httpserver.HTTPServer;
+
+/**
+ * The {@code LoadTest} starts an {@link HTTPServer} serving a jar file with a
+ * {@link JarResourceContextHandler} on localhost, and drives it with a number
+ * of concurrent clients over real sockets for a while, reporting the
+ * throughput and the latency percentiles of the requests.
+ * <p>
+ * Each client sends its requests one after the other, picking each one from a
+ * weighted mix of small resources, small resources accepting gzip, a large
+ * resource, missing resources and conditional requests answered with 304.
+ * <p>
+ * By default the load is closed-loop: each client sends its next request as
+ * soon as the previous one is answered, so a slow server is sent fewer
+ * requests, and the latencies it would have caused are never measured. With a
+ * target {@code rate}, the load is open-loop instead: the requests of each
+ * client are scheduled at a fixed interval, and the latency of each one is
+ * measured from its scheduled start, so that the time that requests wait for
+ * a client stuck on a slow response is counted, as it would be for
+ * independent users.
+ * <p>
+ * Usage: {@code LoadTest [name=value...]}, with the options:
+ * <ul>
+ * <li>{@code clients}: the number of concurrent clients (default 64)</li>
+ * <li>{@code duration}: the measured time, in seconds (default 30)</li>
+ * <li>{@code warmup}: the time before measuring, in seconds (default 5)</li>
+ * <li>{@code keepAlive}: whether connections are reused (default true)</li>
+ * <li>{@code rate}: the total number of requests per second that the clients
+ * schedule, or 0 for closed-loop load (default 0)</li>
+ * <li>{@code mix}: the weights of the requests, e.g. the default
+ * "small:70,gzip:10,large:2,miss:10,notModified:8"</li>
+ * <li>{@code cache}: "none", "heap" or "offheap" (default none)</li>
+ * <li>{@code resources}, {@code resourceSize}, {@code largeResourceSize},
+ * {@code method}: the generated jar file (defaults 1000, 4096, 1048576 and
+ * DEFLATED)</li>
+ * <li>{@code channelSockets}: whether the server accepts connections through
+ * channels, so that stored resources are sent with sendfile (default
+ * false)</li>
+ * <li>{@code csv}: a file to which a line with the results is appended</li>
+ * </ul>
+ * The exit status is 1 if any request failed, so that it can gate CI jobs.
+ */
+public final class LoadTest {
+    private static final String[] REQUEST_KINDS = { "small", "gzip", "large", "miss", "notModified" };
+    private static final String DEFAULT_MIX = "small:70,gzip:10,large:2,miss:10,notModified:8";
+    private static final String CSV_HEADER = "clients,keepAlive,rate,cache,mix,requests,requestsPerSecond,"
+            + "mebibytesPerSecond,errors,p50Micros,p99Micros,p999Micros\n";
+
+    private final Map<String, String> options;
+    private final int clients;
+    private final boolean keepAlive;
+    /**
+     * The number of requests per second scheduled by all the clients, or 0
+     * for closed-loop load.
+     */
+    private final double rate;
+    private final int resourceCount;
+    private final int[] cumulativeWeights;
+    private final String ifModifiedSince = HTTPServer.formatDate(System.currentTimeMillis());
+    private volatile boolean measuring;
+    private volatile boolean stopped;
+
+    private LoadTest(Map<String, String> options) {
+        this.options = options;
+        this.clients = Integer.parseInt(this.option("clients", "64"));
+        this.keepAlive = Boolean.parseBoolean(this.option("keepAlive", "true"));
+        this.rate = Double.parseDouble(this.option("rate", "0"));
+        if (this.rate < 0) {
+            throw new IllegalArgumentException("Rate cannot be negative");
+        }
+        this.resourceCount = Integer.parseInt(this.option("resources", "1000"));
+        this.cumulativeWeights = parseMix(this.option("mix", DEFAULT_MIX));
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new LinkedHashMap<>();
+        for (String arg : args) {
+            final int equals = arg.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Options must be given as name=value: " + arg);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        // The idle threads of the server would otherwise keep the JVM alive for a while
+        System.exit(new LoadTest(options).run() ? 0 : 1);
+    }
+
+    private String option(String name, String defaultValue) {
+        final String value = this.options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private static int[] parseMix(String mix) {
+        final int[] weights = new int[REQUEST_KINDS.length];
+        for (String part : mix.split(",")) {
+            final String[] kindAndWeight = part.split(":");
+            final int kind = Arrays.asList(REQUEST_KINDS).indexOf(kindAndWeight[0].trim());
+            if (kind < 0 || kindAndWeight.length != 2) {
+                throw new IllegalArgumentException("Invalid request mix: " + mix);
+            }
+            weights[kind] = Integer.parseInt(kindAndWeight[1].trim());
+        }
+        for (int i = 1; i < weights.length; i++) {
+            weights[i] += weights[i - 1];
+        }
+        if (weights[weights.length - 1] <= 0) {
+            throw new IllegalArgumentException("Invalid request mix: " + mix);
+        }
+        return weights;
+    }
+
+    /**
+     * Runs the load test and reports its results.
+     *
+     * @return true if no request failed
+     */
+    private boolean run() throws Exception {
+        final Path jar = BenchmarkJars.createJar(Files.createTempFile("load-test", ".jar"), this.resourceCount,
+                Integer.parseInt(this.option("resourceSize", "4096")),
+                "STORED".equals(this.option("method", "DEFLATED")) ? ZipEntry.STORED : ZipEntry.DEFLATED,
+                Integer.parseInt(this.option("largeResourceSize", "1048576")));
+        final int port = getFreePort();
+        final HTTPServer server = new HTTPServer(port);
+        final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+        try {
+            final String cache = this.option("cache", "none");
+            if (cache.equals("heap")) {
+                handler.setCache(new JarResourceCache(256 * 1024 * 1024, 2 * 1024 * 1024));
+            } else if (cache.equals("offheap")) {
+                handler.setCache(new JarResourceCache(256 * 1024 * 1024, 2 * 1024 * 1024,
+                        JarResourceCache.Storage.OFF_HEAP));
+            }
+            if (Boolean.parseBoolean(this.option("channelSockets", "false"))) {
+                final TunedServerSocketFactory socketFactory = new TunedServerSocketFactory();
+                socketFactory.setChannelSockets(true);
+                server.setServerSocketFactory(socketFactory);
+            }
+            server.getVirtualHost(null).addContext("/static/{*}", handler);
+            server.start();
+
+            final List<Client> clients = new ArrayList<>();
+            // Each client schedules its share of the rate, shifted so that the clients do not send in bursts
+            final long intervalNanos = this.rate > 0 ? (long) (1e9 * this.clients / this.rate) : 0;
+            final long firstStart = System.nanoTime();
+            for (int i = 0; i < this.clients; i++) {
+                final Client client = new Client(port, intervalNanos, firstStart + intervalNanos * i / this.clients);
+                clients.add(client);
+                client.start();
+            }
+
+            Thread.sleep(Long.parseLong(this.option("warmup", "5")) * 1000);
+            this.measuring = true;
+            final long start = System.nanoTime();
+            Thread.sleep(Long.parseLong(this.option("duration", "30")) * 1000);
+            this.measuring = false;
+            final long elapsedNanos = System.nanoTime() - start;
+            this.stopped = true;
+            for (Client client : clients) {
+                client.join();
+            }
+
+            return this.report(clients, elapsedNanos) == 0;
+        } finally {
+            server.stop();
+            handler.close();
+            Files.delete(jar);
+        }
+    }
+
+    /**
+     * Prints the results of the clients, and appends them to the CSV file if
+     * one is given.
+     *
+     * @return the number of failed requests
+     */
+    private long report(List<Client> clients, long elapsedNanos) throws IOException {
+        int count = 0;
+        long errors = 0;
+        long bytes = 0;
+        for (Client client : clients) {
+            count += client.latencyCount;
+            errors += client.errors;
+            bytes += client.bytes;
+        }
+        final long[] latencies = new long[count];
+        int offset = 0;
+        for (Client client : clients) {
+            System.arraycopy(client.latencies, 0, latencies, offset, client.latencyCount);
+            offset += client.latencyCount;
+        }
+        Arrays.sort(latencies);
+
+        final double seconds = elapsedNanos / 1e9;
+        final double throughput = count / seconds;
+        final double megabytesPerSecond = bytes / seconds / (1024 * 1024);
+        System.out.printf(Locale.US, "clients=%d keepAlive=%b rate=%s cache=%s mix=%s%n", this.clients,
+                this.keepAlive, this.rate > 0 ? String.format(Locale.US, "%.0f", this.rate) : "closed-loop",
+                this.option("cache", "none"), this.option("mix", DEFAULT_MIX));
+        System.out.printf(Locale.US, "requests: %d in %.1f s, %.0f req/s, %.1f MiB/s, %d errors%n", count, seconds,
+                throughput, megabytesPerSecond, errors);
+        System.out.printf(Locale.US, "latency (us): p50=%.0f p99=%.0f p999=%.0f max=%.0f%n",
+                percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999),
+                percentile(latencies, 1));
+
+        final String csv = this.options.get("csv");
+        if (csv != null) {
+            final String line = String.format(Locale.US, "%d,%b,%.0f,%s,\"%s\",%d,%.0f,%.1f,%d,%.0f,%.0f,%.0f%n",
+                    this.clients, this.keepAlive, this.rate, this.option("cache", "none"),
+                    this.option("mix", DEFAULT_MIX), count,
+                    throughput, megabytesPerSecond, errors, percentile(latencies, 0.5), percentile(latencies, 0.99),
+                    percentile(latencies, 0.999));
+            final Path csvPath = Paths.get(csv);
+            if (!Files.exists(csvPath)) {
+                Files.write(csvPath, CSV_HEADER.getBytes(StandardCharsets.UTF_8));
+            }
+            Files.write(csvPath, line.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        }
+        return errors;
+    }
+
+    /**
+     * Returns a percentile of sorted latencies, in microseconds.
+     */
+    private static double percentile(long[] sortedLatencies, double fraction) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.min(sortedLatencies.length - 1, Math.ceil(fraction * sortedLatencies.length) - 1);
+        return sortedLatencies[Math.max(index, 0)] / 1e3;
+    }
+
+    private static int getFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Returns the next request to send, picked from the mix.
+     */
+    private byte[] nextRequest() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int pick = random.nextInt(this.cumulativeWeights[this.cumulativeWeights.length - 1]);
+        int kind = 0;
+        while (pick >= this.cumulativeWeights[kind]) {
+            kind++;
+        }
+
+        final String connection = this.keepAlive ? "Connection: keep-alive" : "Connection: close";
+        final String uri = "/" + BenchmarkJars.getResourceName(random.nextInt(this.resourceCount));
+        switch (REQUEST_KINDS[kind]) {
+            case "gzip":
+                return BenchmarkRequests.request("GET", uri, connection, "Accept-Encoding: gzip");
+            case "large":
+                return BenchmarkRequests.request("GET", "/" + BenchmarkJars.LARGE_RESOURCE_NAME, connection);
+            case "miss":
+                return BenchmarkRequests.request("GET", uri + ".missing", connection);
+            case "notModified":
+                return BenchmarkRequests.request("GET", uri, connection, "If-Modified-Since: " + this.ifModifiedSince);
+            default:
+                return BenchmarkRequests.request("GET", uri, connection);
+        }
+    }
+
+    /**
+     * The {@code Client} class is a thread that sends requests one after the
+     * other and records their latencies while measuring, either as soon as it
+     * can or at the times scheduled for open-loop load.
+     */
+    private final class Client extends Thread {
+        private final int port;
+        /**
+         * The time between the scheduled starts of the requests, in
+         * nanoseconds, or 0 for closed-loop load.
+         */
+        private final long intervalNanos;
+        /**
+         * The scheduled start of the next request, in {@link System#nanoTime()}
+         * time.
+         */
+        private long nextStart;
+        private final byte[] discard = new byte[64 * 1024];
+        private long[] latencies = new long[1 << 16];
+        private int latencyCount;
+        private long errors;
+        private long bytes;
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        Client(int port, long intervalNanos, long firstStart) {
+            super("load-test-client");
+            this.port = port;
+            this.intervalNanos = intervalNanos;
+            this.nextStart = firstStart;
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!LoadTest.this.stopped) {
+                final byte[] request = LoadTest.this.nextRequest();
+                final long start;
+                if (this.intervalNanos > 0) {
+                    // Measured from the scheduled start, even if the previous response made this request late
+                    start = this.nextStart;
+                    this.nextStart += this.intervalNanos;
+                    long delay;
+                    while ((delay = start - System.nanoTime()) > 0 && !LoadTest.this.stopped) {
+                        LockSupport.parkNanos(delay);
+                    }
+                } else {
+                    start = System.nanoTime();
+                }
+                try {
+                    if (this.socket == null) {
+                        this.connect();
+                    }
+                    this.out.write(request);
+                    this.out.flush();
+                    final long length = this.readResponse();
+                    if (LoadTest.this.measuring) {
+                        this.record(System.nanoTime() - start, length);
+                    }
+                } catch (IOException e) {
+                    if (LoadTest.this.measuring) {
+                        this.errors++;
+                    }
+                    this.disconnect();
+                }
+            }
+            this.disconnect();
+        }
+
+        private void record(long latency, long length) {
+            if (this.latencyCount == this.latencies.length) {
+                this.latencies = Arrays.copyOf(this.latencies, this.latencies.length * 2);
+            }
+            this.latencies[this.latencyCount++] = latency;
+            this.bytes += length;
+        }
+
+        private void connect() throws IOException {
+            this.socket = new Socket();
+            this.socket.setTcpNoDelay(true);
+            this.socket.connect(new InetSocketAddress("localhost", this.port));
+            this.in = new BufferedInputStream(this.socket.getInputStream(), 16 * 1024);
+            this.out = this.socket.getOutputStream();
+        }
+
+        private void disconnect() {
+            if (this.socket != null) {
+                try {
+                    this.socket.close();
+                } catch (IOException e) {
+                    // Nothing left to do with the socket
+                }
+                this.socket = null;
+            }
+        }
+
+        /**
+         * Reads a response, discarding its body, and closes the connection if
+         * the response does not keep it alive.
+         *
+         * @return the length of the body
+         */
+        private long readResponse() throws IOException {
+            final String statusLine = this.readLine();
+            if (!statusLine.startsWith("HTTP/1.1 ") || statusLine.charAt(9) == '5') {
+                throw new IOException("Unexpected response: " + statusLine);
+            }
+            final boolean bodyless = statusLine.startsWith("HTTP/1.1 304");
+
+            long contentLength = bodyless ? 0 : -1;
+            boolean chunked = false;
+            boolean close = !LoadTest.this.keepAlive;
+            String line;
+            while (!(line = this.readLine()).isEmpty()) {
+                final int colon = line.indexOf(':');
+                final String name = line.substring(0, colon).trim();
+                final String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length") && !bodyless) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    close |= value.equalsIgnoreCase("close");
+                }
+            }
+
+            long length = 0;
+            if (chunked) {
+                long chunkLength;
+                while ((chunkLength = Long.parseLong(this.readLine().split(";")[0].trim(), 16)) > 0) {
+                    this.skip(chunkLength);
+                    this.readLine();
+                    length += chunkLength;
+                }
+                while (!this.readLine().isEmpty()) {
+                    // Trailers are ignored
+                }
+            } else if (contentLength > 0) {
+                this.skip(contentLength);
+                length = contentLength;
+            }
+
+            if (close) {
+                this.disconnect();
+            }
+            return length;
+        }
+
+        private void skip(long length) throws IOException {
+            while (length > 0) {
+                final int count = this.in.read(this.discard, 0, (int) Math.min(this.discard.length, length));
+                if (count < 0) {
+                    throw new EOFException("Unexpected end of response");
+                }
+                length -= count;
+            }
+        }
+
+        private String readLine() throws IOException {
+            final StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = this.in.read()) != '\n') {
+                if (c < 0) {
+                    throw new EOFException("Unexpected end of response");
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+    }
+}
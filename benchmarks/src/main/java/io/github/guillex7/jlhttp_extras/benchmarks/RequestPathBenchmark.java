@@ -0,0 +1,77 @@
+package io.github.guillex7.jlhttp_extras.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.guillex7.jlhttp_extras.JarResourceContextHandler;
+import net.freeutils.httpserver.HTTPServer.Request;
+
+/**
+ * The {@code RequestPathBenchmark} measures serving a small resource with a
+ * {@link JarResourceContextHandler}, which takes the resource path from the
+ * context path, against doing so after parsing the request parameters with
+ * {@link Request#getParams()}, as earlier versions did to read the "*" path
+ * parameter. Run it with {@code -prof gc} to compare the bytes allocated per
+ * request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestPathBenchmark {
+    /**
+     * The query string of the requests, as appended by cache busters and
+     * campaign links.
+     */
+    @Param({ "", "?v=3f9a1c&utm_source=newsletter&utm_medium=email&utm_campaign=launch" })
+    public String query;
+
+    private Path jar;
+    private JarResourceContextHandler handler;
+    private BenchmarkRequests requests;
+    private byte[] request;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.jar = BenchmarkJars.createJar(Files.createTempFile("request-path", ".jar"), 100, 256);
+        this.handler = new JarResourceContextHandler("static", this.jar.toString());
+        this.requests = new BenchmarkRequests("/static/{*}", this.handler);
+        this.request = BenchmarkRequests.request("GET", "/" + BenchmarkJars.getResourceName(42) + this.query);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.handler.close();
+        Files.delete(this.jar);
+    }
+
+    @Benchmark
+    public int serve() throws IOException {
+        final Request request = this.requests.parse(this.request);
+        return this.handler.serve(request, this.requests.respond(request));
+    }
+
+    @Benchmark
+    public int serveAfterParsingParams() throws IOException {
+        final Request request = this.requests.parse(this.request);
+        request.getParams();
+        return this.handler.serve(request, this.requests.respond(request));
+    }
+}
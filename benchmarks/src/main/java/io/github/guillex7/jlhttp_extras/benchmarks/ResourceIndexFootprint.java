@@ -0,0 +1,90 @@
+package io.github.guillex7.jlhttp_extras.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import io.github.guillex7.jlhttp_extras.JarResourceContextHandler;
+
+/**
+ * The {@code ResourceIndexFootprint} benchmark measures the heap retained by a
+ * {@link JarResourceContextHandler} serving a jar file with many resources,
+ * against a {@code HashMap<String, JarEntry>} of the same resources, as used
+ * by earlier versions.
+ * <p>
+ * Usage: {@code ResourceIndexFootprint [resource count]}
+ */
+public final class ResourceIndexFootprint {
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    private ResourceIndexFootprint() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int resourceCount = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        final Path jar = BenchmarkJars.createJar(Files.createTempFile("footprint", ".jar"), resourceCount, 64);
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            // Opened before measuring, so that the central directory kept by the
+            // JDK for the jar file is not accounted for in either case
+            jarFile.size();
+
+            long before = getUsedHeap();
+            Map<String, JarEntry> map = createEntryMap(jarFile, "static/");
+            final long mapBytes = getUsedHeap() - before;
+            System.out.println(map.size() + " resources");
+            map = null;
+
+            before = getUsedHeap();
+            JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+            final long handlerBytes = getUsedHeap() - before;
+            handler.close();
+            handler = null;
+
+            System.out.printf("HashMap<String, JarEntry>:  %,12d bytes (%,d bytes per resource)%n", mapBytes,
+                    mapBytes / resourceCount);
+            System.out.printf("JarResourceContextHandler:  %,12d bytes (%,d bytes per resource)%n", handlerBytes,
+                    handlerBytes / resourceCount);
+        } finally {
+            Files.delete(jar);
+        }
+    }
+
+    /**
+     * Builds the map of jar entries by name used by earlier versions of
+     * {@link JarResourceContextHandler}.
+     */
+    private static Map<String, JarEntry> createEntryMap(JarFile jarFile, String basePath) {
+        final Map<String, JarEntry> entriesByName = new HashMap<>();
+        final Enumeration<JarEntry> entries = jarFile.entries();
+        while (entries.hasMoreElements()) {
+            final JarEntry entry = entries.nextElement();
+            if (!entry.isDirectory() && entry.getName().startsWith(basePath)) {
+                entriesByName.put(entry.getName().substring(basePath.length()), entry);
+            }
+        }
+        return entriesByName;
+    }
+
+    /**
+     * Returns the used heap after collecting garbage until it stabilizes.
+     */
+    private static long getUsedHeap() throws InterruptedException {
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(50);
+            final long current = MEMORY.getHeapMemoryUsage().getUsed();
+            if (current >= used) {
+                return current;
+            }
+            used = current;
+        }
+        return used;
+    }
+}
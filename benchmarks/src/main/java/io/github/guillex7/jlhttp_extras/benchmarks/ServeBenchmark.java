@@ -0,0 +1,134 @@
+package io.github.guillex7.jlhttp_extras.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.github.guillex7.jlhttp_extras.JarResourceCache;
+import io.github.guillex7.jlhttp_extras.JarResourceContextHandler;
+import net.freeutils.httpserver.HTTPServer.Request;
+import net.freeutils.httpserver.HTTPServer.Response;
+
+/**
+ * The {@code ServeBenchmark} measures {@link JarResourceContextHandler#serve}
+ * on its main paths: a small resource, a gzip encoded small resource, a
+ * missing resource, a conditional request answered with 304, a range of a
+ * small resource and a large resource. Jar files are generated with the given
+ * number of resources and compression method, and served with or without a
+ * cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServeBenchmark {
+    private static final int RESOURCE_SIZE = 2048;
+    private static final int LARGE_RESOURCE_SIZE = 4 * 1024 * 1024;
+
+    @Param({ "100", "10000" })
+    public int resourceCount;
+
+    @Param({ "STORED", "DEFLATED" })
+    public String method;
+
+    @Param({ "false", "true" })
+    public boolean cached;
+
+    private Path jar;
+    private JarResourceContextHandler handler;
+    private BenchmarkRequests requests;
+    private byte[] hitRequest;
+    private byte[] gzipRequest;
+    private byte[] missRequest;
+    private byte[] notModifiedRequest;
+    private byte[] rangeRequest;
+    private byte[] largeRequest;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.jar = BenchmarkJars.createJar(Files.createTempFile("serve", ".jar"), this.resourceCount, RESOURCE_SIZE,
+                "STORED".equals(this.method) ? ZipEntry.STORED : ZipEntry.DEFLATED, LARGE_RESOURCE_SIZE);
+        this.handler = new JarResourceContextHandler("static", this.jar.toString());
+        if (this.cached) {
+            this.handler.setCache(new JarResourceCache(64 * 1024 * 1024, 1024 * 1024));
+        }
+        this.requests = new BenchmarkRequests("/static/{*}", this.handler);
+
+        final String uri = "/" + BenchmarkJars.getResourceName(this.resourceCount / 2);
+        this.hitRequest = BenchmarkRequests.request("GET", uri);
+        this.gzipRequest = BenchmarkRequests.request("GET", uri, "Accept-Encoding: gzip");
+        this.missRequest = BenchmarkRequests.request("GET", uri + ".missing");
+        this.notModifiedRequest = BenchmarkRequests.request("GET", uri, "If-None-Match: " + this.getETag(uri));
+        this.rangeRequest = BenchmarkRequests.request("GET", uri, "Range: bytes=1024-1535");
+        this.largeRequest = BenchmarkRequests.request("GET", "/" + BenchmarkJars.LARGE_RESOURCE_NAME);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.handler.close();
+        Files.delete(this.jar);
+    }
+
+    /**
+     * Returns the ETag sent for a resource, as a client that cached it would
+     * send it back.
+     */
+    private String getETag(String uri) throws IOException {
+        final Request request = this.requests.parse(BenchmarkRequests.request("HEAD", uri));
+        final Response response = this.requests.respond(request);
+        this.handler.serve(request, response);
+        return response.getHeaders().get("ETag");
+    }
+
+    private int serve(byte[] serializedRequest) throws IOException {
+        final Request request = this.requests.parse(serializedRequest);
+        return this.handler.serve(request, this.requests.respond(request));
+    }
+
+    @Benchmark
+    public int hit() throws IOException {
+        return this.serve(this.hitRequest);
+    }
+
+    @Benchmark
+    public int hitGzip() throws IOException {
+        return this.serve(this.gzipRequest);
+    }
+
+    @Benchmark
+    public int miss() throws IOException {
+        return this.serve(this.missRequest);
+    }
+
+    @Benchmark
+    public int notModified() throws IOException {
+        return this.serve(this.notModifiedRequest);
+    }
+
+    @Benchmark
+    public int range() throws IOException {
+        return this.serve(this.rangeRequest);
+    }
+
+    @Benchmark
+    public int large() throws IOException {
+        return this.serve(this.largeRequest);
+    }
+}
@@ -0,0 +1,316 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.freeutils.httpserver.HTTPServer.ContextHandler;
+import net.freeutils.httpserver.HTTPServer.Request;
+import net.freeutils.httpserver.HTTPServer.Response;
+
+/**
+ * The {@code AdaptiveConcurrencyLimitHandler} is a {@link ContextHandler}
+ * that limits the number of requests served at once by the handler it wraps,
+ * as {@link ConcurrencyLimitHandler} does, but tunes the limit from the
+ * latency of the requests instead of taking a fixed one.
+ * <p>
+ * The latencies of the requests are recorded in a ring buffer, and every
+ * {@link #WINDOW_SIZE} requests the limit is updated with a gradient
+ * algorithm. The average latency of the window is compared with a baseline,
+ * which follows lower latencies right away and higher ones slowly, so that it
+ * approximates the latency without load. The limit shrinks in proportion when
+ * the latency grows past the tolerated ratio, as requests are then queuing
+ * somewhere downstream, and grows by a few requests otherwise. The limit does
+ * not change while the most requests in flight at once during the window are
+ * fewer than half of it.
+ * <p>
+ * The latency of a request is the time that the wrapped handler takes to
+ * serve it, which includes writing the whole response, so the latency of
+ * large responses to slow clients counts as well. The limit is best suited to
+ * handlers whose latency depends on their own work or backends, rather than
+ * on the network.
+ * <p>
+ * The baseline is first measured at the initial limit, which should be low
+ * enough not to saturate the wrapped handler.
+ * <p>
+ * Requests beyond the limit are answered with a 503 response and a
+ * Retry-After header. Admission and recording are lock-free, and the limit is
+ * updated by the request that completes each window.
+ */
+public class AdaptiveConcurrencyLimitHandler implements ContextHandler {
+    /**
+     * The number of latency samples of each window after which the limit is
+     * updated.
+     */
+    public static final int WINDOW_SIZE = 128;
+
+    /**
+     * The number of windows over which increases of the baseline latency are
+     * smoothed.
+     */
+    private static final int BASELINE_WINDOWS = 1000;
+    /**
+     * The ratio between the latency of a window and the baseline latency
+     * that is tolerated before the limit shrinks.
+     */
+    private static final double TOLERANCE = 1.5;
+    /**
+     * The number of requests that the limit allows to queue downstream
+     * beyond what the latency gradient allows, so that it keeps probing for
+     * more capacity.
+     */
+    private static final int QUEUE_ALLOWANCE = 4;
+    /**
+     * The weight of a new limit estimate in the smoothed limit.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * The wrapped handler.
+     */
+    private final ContextHandler handler;
+    /**
+     * The minimum value of the limit.
+     */
+    private final int minLimit;
+    /**
+     * The maximum value of the limit.
+     */
+    private final int maxLimit;
+    /**
+     * The latencies of the last requests, in nanoseconds, indexed by their
+     * sample number modulo {@link #WINDOW_SIZE}.
+     */
+    private final AtomicLongArray samples = new AtomicLongArray(WINDOW_SIZE);
+    /**
+     * The number of latency samples recorded so far.
+     */
+    private final AtomicLong sampleCount = new AtomicLong();
+    /**
+     * The number of requests being served.
+     */
+    private final AtomicInteger inFlight = new AtomicInteger();
+    /**
+     * The most requests in flight at once since the limit was last updated.
+     */
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    /**
+     * Whether a request is updating the limit.
+     */
+    private final AtomicBoolean updating = new AtomicBoolean();
+    /**
+     * The number of rejected requests.
+     */
+    private final LongAdder rejectedCount = new LongAdder();
+    /**
+     * The maximum number of requests served at once.
+     */
+    private volatile int limit;
+    /**
+     * The unrounded limit, only accessed while updating the limit.
+     */
+    private double estimatedLimit;
+    /**
+     * The baseline latency, in nanoseconds, or 0 until the first window ends.
+     */
+    private volatile long baselineLatencyNanos;
+    /**
+     * The average latency of the last window, in nanoseconds.
+     */
+    private volatile long windowLatencyNanos;
+    /**
+     * The value of the Retry-After header of 503 responses, in seconds.
+     */
+    private volatile int retryAfterSeconds = 1;
+
+    /**
+     * Creates a new {@code AdaptiveConcurrencyLimitHandler} with a limit that
+     * starts at 20 and stays between 1 and 1000.
+     *
+     * @param handler the handler that serves the requests
+     */
+    public AdaptiveConcurrencyLimitHandler(ContextHandler handler) {
+        this(handler, 20, 1, 1000);
+    }
+
+    /**
+     * Creates a new {@code AdaptiveConcurrencyLimitHandler}.
+     *
+     * @param handler      the handler that serves the requests
+     * @param initialLimit the initial limit
+     * @param minLimit     the minimum value of the limit
+     * @param maxLimit     the maximum value of the limit
+     */
+    public AdaptiveConcurrencyLimitHandler(ContextHandler handler, int initialLimit, int minLimit, int maxLimit) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler cannot be null");
+        }
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Limits must be positive, and the minimum not above the maximum");
+        }
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Initial limit must be between the minimum and the maximum");
+        }
+
+        this.handler = handler;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    /**
+     * Sets the value of the Retry-After header of 503 responses, which is 1
+     * second by default.
+     *
+     * @param retryAfterSeconds the delay suggested to clients, in seconds
+     */
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        if (retryAfterSeconds < 0) {
+            throw new IllegalArgumentException("Retry-After cannot be negative");
+        }
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Returns the current maximum number of requests served at once.
+     *
+     * @return the concurrency limit
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * Returns the number of requests being served.
+     *
+     * @return the number of requests in flight
+     */
+    public int getInFlightCount() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Returns the number of requests rejected since the handler was created.
+     *
+     * @return the number of 503 responses
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.sum();
+    }
+
+    /**
+     * Returns the baseline latency that the latency of each window is
+     * compared with.
+     *
+     * @return the baseline latency, in nanoseconds, or 0 if no window has
+     *         ended yet
+     */
+    public long getBaselineLatencyNanos() {
+        return this.baselineLatencyNanos;
+    }
+
+    /**
+     * Returns the average latency of the last window.
+     *
+     * @return the latency, in nanoseconds, or 0 if no window has ended yet
+     */
+    public long getWindowLatencyNanos() {
+        return this.windowLatencyNanos;
+    }
+
+    @Override
+    public int serve(Request request, Response response) throws IOException {
+        if (!this.acquire()) {
+            this.rejectedCount.increment();
+            ConcurrencyLimitHandler.sendServiceUnavailable(response, this.retryAfterSeconds);
+            return 0;
+        }
+
+        final long start = System.nanoTime();
+        final int status;
+        try {
+            status = this.handler.serve(request, response);
+        } finally {
+            this.inFlight.decrementAndGet();
+        }
+        this.record(System.nanoTime() - start);
+        return status;
+    }
+
+    /**
+     * Counts a request in flight if the limit allows it.
+     *
+     * @return true if the request can be served
+     */
+    private boolean acquire() {
+        while (true) {
+            final int current = this.inFlight.get();
+            if (current >= this.limit) {
+                return false;
+            }
+            if (this.inFlight.compareAndSet(current, current + 1)) {
+                if (current + 1 > this.peakInFlight.get()) {
+                    this.peakInFlight.accumulateAndGet(current + 1, Math::max);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Records the latency of a request, and updates the limit if the request
+     * completes a window. Samples of a window that are still being written
+     * when it ends may be taken from the previous window, which only adds a
+     * little noise to the average.
+     *
+     * @param latencyNanos the latency, in nanoseconds
+     */
+    private void record(long latencyNanos) {
+        final long sample = this.sampleCount.getAndIncrement();
+        this.samples.set((int) (sample % WINDOW_SIZE), latencyNanos);
+        if ((sample + 1) % WINDOW_SIZE == 0 && this.updating.compareAndSet(false, true)) {
+            try {
+                this.updateLimit();
+            } finally {
+                this.updating.set(false);
+            }
+        }
+    }
+
+    /**
+     * Updates the limit from the average latency of the last window.
+     */
+    private void updateLimit() {
+        long total = 0;
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            total += this.samples.get(i);
+        }
+        final long windowLatency = Math.max(1, total / WINDOW_SIZE);
+        this.windowLatencyNanos = windowLatency;
+
+        long baselineLatency = this.baselineLatencyNanos;
+        if (baselineLatency == 0 || windowLatency < baselineLatency) {
+            baselineLatency = windowLatency;
+        } else {
+            // Slowly follow lasting increases, such as a slower backend, so that the limit does not stay at its minimum
+            baselineLatency += Math.max(1, (windowLatency - baselineLatency) / BASELINE_WINDOWS);
+        }
+        this.baselineLatencyNanos = baselineLatency;
+
+        // The peak of the window, as the requests in flight right now may be fewer after a burst
+        final int peakInFlight = this.peakInFlight.getAndSet(this.inFlight.get());
+        if (peakInFlight < this.estimatedLimit / 2) {
+            // The limit is not what keeps the latency low, so there is nothing to learn from it
+            return;
+        }
+        final double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * baselineLatency / windowLatency));
+        final double newLimit = this.estimatedLimit * gradient + QUEUE_ALLOWANCE;
+        final double smoothedLimit = this.estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        this.estimatedLimit = Math.max(this.minLimit, Math.min(this.maxLimit, smoothedLimit));
+        this.limit = (int) this.estimatedLimit;
+    }
+}
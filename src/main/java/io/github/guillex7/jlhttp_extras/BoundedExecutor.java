@@ -0,0 +1,409 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.freeutils.httpserver.HTTPServer;
+
+/**
+ * The {@code BoundedExecutor} runs the connections of an {@link HTTPServer}
+ * with a bounded number of threads and a bounded queue of connections waiting
+ * for a thread, instead of the unbounded cached pool used by jlhttp, which
+ * creates a thread for every connection of a burst.
+ * <p>
+ * Connections that find all the threads busy and the queue full are rejected
+ * according to the {@link RejectionPolicy}, and connections handed over after
+ * the executor is shut down are closed. Rejections never throw, as an
+ * exception would stop jlhttp from accepting connections. The 503 responses
+ * are sent, and the rejected connections closed, by a separate thread, so
+ * that slow clients do not hold up the thread accepting connections.
+ * <p>
+ * Threads are created on demand and end after being idle for a minute. The
+ * executor must be shut down separately when the server stops, e.g. by
+ * {@link ServerBootstrap#stop()}.
+ */
+public class BoundedExecutor extends AbstractExecutorService {
+    /**
+     * The policy for connections that cannot be queued.
+     */
+    public enum RejectionPolicy {
+        /**
+         * The connection is answered with a 503 response and closed by the
+         * thread of the executor that closes rejected connections, which
+         * drains its request for up to 100 milliseconds, when the server
+         * sockets are created by a {@link TunedServerSocketFactory}. When more
+         * than 1024 rejected connections are waiting for that thread, the
+         * connection is closed right away without a response. Otherwise, the
+         * connection is handled as with {@link #CALLER_RUNS}.
+         */
+        SERVICE_UNAVAILABLE,
+        /**
+         * The connection is handled by the thread that accepted it, so that no
+         * more connections are accepted in the meantime and new ones wait in
+         * the accept backlog.
+         */
+        CALLER_RUNS
+    }
+
+    /**
+     * The number of executors created so far, to name their threads.
+     */
+    private static final AtomicInteger executorCount = new AtomicInteger();
+    /**
+     * The body of 503 responses.
+     */
+    private static final byte[] SERVICE_UNAVAILABLE_BODY = "503 Service Unavailable"
+            .getBytes(StandardCharsets.ISO_8859_1);
+    /**
+     * The maximum number of bytes of the request read from a rejected
+     * connection before closing it, so that the kernel does not reset the
+     * connection, discarding the 503 response, because of unread input.
+     */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+    /**
+     * The maximum time spent reading the request of a rejected connection
+     * before closing it, in milliseconds.
+     */
+    private static final int MAX_DRAIN_MILLIS = 100;
+    /**
+     * The maximum number of rejected connections waiting to be answered and
+     * closed, beyond which they are closed right away.
+     */
+    private static final int MAX_PENDING_REJECTIONS = 1024;
+
+    /**
+     * The threads that run the connections.
+     */
+    private final ThreadPoolExecutor threads;
+    /**
+     * The thread that answers the rejected connections with 503 responses
+     * and closes them.
+     */
+    private final ThreadPoolExecutor rejectedConnectionCloser;
+    /**
+     * The number of rejected connections.
+     */
+    private final LongAdder rejectedCount = new LongAdder();
+    /**
+     * The policy for connections that cannot be queued.
+     */
+    private volatile RejectionPolicy rejectionPolicy = RejectionPolicy.SERVICE_UNAVAILABLE;
+    /**
+     * The value of the Retry-After header of 503 responses, in seconds.
+     */
+    private volatile int retryAfterSeconds = 1;
+
+    /**
+     * Creates a new {@code BoundedExecutor} with the given limits.
+     *
+     * @param maxThreads    the maximum number of threads, which is the maximum
+     *                      number of connections handled at once
+     * @param queueCapacity the maximum number of connections waiting for a
+     *                      thread, which can be 0 to reject connections as
+     *                      soon as all the threads are busy
+     */
+    public BoundedExecutor(int maxThreads, int queueCapacity) {
+        final String threadNamePrefix = "jlhttp-bounded-" + executorCount.incrementAndGet() + "-";
+        this.threads = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                createQueue(maxThreads, queueCapacity), createThreadFactory(threadNamePrefix), new Rejector());
+        this.threads.allowCoreThreadTimeOut(true);
+        this.rejectedConnectionCloser = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING_REJECTIONS), runnable -> {
+                    final Thread thread = new Thread(runnable, threadNamePrefix + "rejected");
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, executor) -> ((RejectedConnection) runnable).abort());
+        this.rejectedConnectionCloser.allowCoreThreadTimeOut(true);
+    }
+
+    private static BlockingQueue<Runnable> createQueue(int maxThreads, int queueCapacity) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("Maximum number of threads must be positive");
+        }
+        if (queueCapacity < 0) {
+            throw new IllegalArgumentException("Queue capacity cannot be negative");
+        }
+        return queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>();
+    }
+
+    private static ThreadFactory createThreadFactory(String threadNamePrefix) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> new Thread(runnable, threadNamePrefix + threadCount.incrementAndGet());
+    }
+
+    /**
+     * Sets the policy for connections that cannot be queued, which is
+     * {@link RejectionPolicy#SERVICE_UNAVAILABLE} by default.
+     *
+     * @param rejectionPolicy the rejection policy
+     */
+    public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+        if (rejectionPolicy == null) {
+            throw new IllegalArgumentException("Rejection policy cannot be null");
+        }
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    /**
+     * Returns the policy for connections that cannot be queued.
+     *
+     * @return the rejection policy
+     */
+    public RejectionPolicy getRejectionPolicy() {
+        return this.rejectionPolicy;
+    }
+
+    /**
+     * Sets the value of the Retry-After header of the 503 responses sent to
+     * rejected connections, which is 1 second by default.
+     *
+     * @param retryAfterSeconds the delay suggested to clients, in seconds
+     */
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        if (retryAfterSeconds < 0) {
+            throw new IllegalArgumentException("Retry-After cannot be negative");
+        }
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Runs the given task, and forgets the socket just accepted by the
+     * calling thread once it is handed over.
+     *
+     * @param command the task
+     */
+    @Override
+    public void execute(Runnable command) {
+        try {
+            this.threads.execute(command);
+        } finally {
+            TunedServerSocketFactory.takeAcceptedSocket();
+        }
+    }
+
+    /**
+     * Stops accepting connections, letting the running and queued ones end,
+     * along with the rejected ones waiting to be answered.
+     */
+    @Override
+    public void shutdown() {
+        this.threads.shutdown();
+        this.rejectedConnectionCloser.shutdown();
+    }
+
+    /**
+     * Stops accepting connections and interrupts the running ones. The
+     * rejected connections waiting to be answered are closed right away.
+     *
+     * @return the connections that were waiting for a thread
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        final List<Runnable> pending = this.threads.shutdownNow();
+        for (Runnable rejected : this.rejectedConnectionCloser.shutdownNow()) {
+            ((RejectedConnection) rejected).abort();
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return this.threads.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return this.threads.isTerminated() && this.rejectedConnectionCloser.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return this.threads.awaitTermination(timeout, unit) && this.rejectedConnectionCloser
+                .awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the number of threads running a connection.
+     *
+     * @return the number of active threads
+     */
+    public int getActiveCount() {
+        return this.threads.getActiveCount();
+    }
+
+    /**
+     * Returns the number of threads, either running a connection or idle.
+     *
+     * @return the number of threads
+     */
+    public int getPoolSize() {
+        return this.threads.getPoolSize();
+    }
+
+    /**
+     * Returns the number of connections waiting for a thread.
+     *
+     * @return the queue depth
+     */
+    public int getQueueDepth() {
+        return this.threads.getQueue().size();
+    }
+
+    /**
+     * Returns the number of connections rejected because all the threads
+     * were busy and the queue was full, whatever the policy they were handled
+     * with.
+     *
+     * @return the number of rejected connections
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.sum();
+    }
+
+    /**
+     * Hands a rejected connection over to the thread that answers them with
+     * a 503 response, or closes it right away if too many are waiting for
+     * that thread.
+     *
+     * @param socket the socket of the connection
+     */
+    private void rejectWithServiceUnavailable(Socket socket) {
+        try {
+            this.rejectedConnectionCloser.execute(new RejectedConnection(socket));
+        } catch (RejectedExecutionException e) {
+            // Shut down in the meantime, as a full queue is handled by the rejection handler
+            closeNow(socket);
+        }
+    }
+
+    /**
+     * Answers a rejected connection with a 503 response and closes it.
+     *
+     * @param socket the socket of the connection
+     */
+    private void sendServiceUnavailable(Socket socket) {
+        final String headers = "HTTP/1.1 503 Service Unavailable\r\n"
+                + "Date: " + HTTPServer.formatDate(System.currentTimeMillis()) + "\r\n"
+                + "Retry-After: " + this.retryAfterSeconds + "\r\n"
+                + "Content-Type: text/plain\r\n"
+                + "Content-Length: " + SERVICE_UNAVAILABLE_BODY.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        final byte[] headerBytes = headers.getBytes(StandardCharsets.ISO_8859_1);
+        final byte[] response = new byte[headerBytes.length + SERVICE_UNAVAILABLE_BODY.length];
+        System.arraycopy(headerBytes, 0, response, 0, headerBytes.length);
+        System.arraycopy(SERVICE_UNAVAILABLE_BODY, 0, response, headerBytes.length, SERVICE_UNAVAILABLE_BODY.length);
+        try {
+            socket.getOutputStream().write(response);
+        } catch (IOException e) {
+            // The client is gone already
+        }
+        close(socket);
+    }
+
+    /**
+     * Closes a connection gracefully, as jlhttp does: its output is shut down
+     * and its input is drained before closing it, so that the client reads
+     * what was sent to it. The input is only drained for a short time, so
+     * that the other rejected connections are not held up.
+     *
+     * @param socket the socket of the connection
+     */
+    private static void close(Socket socket) {
+        try {
+            socket.shutdownOutput();
+            final InputStream in = socket.getInputStream();
+            final byte[] buffer = new byte[4096];
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DRAIN_MILLIS);
+            int drained = 0;
+            while (drained < MAX_DRAIN_BYTES) {
+                final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    break;
+                }
+                socket.setSoTimeout((int) remainingMillis);
+                final int count = in.read(buffer);
+                if (count < 0) {
+                    break;
+                }
+                drained += count;
+            }
+        } catch (IOException e) {
+            // The client is gone or slow, close the connection anyway
+        } finally {
+            closeNow(socket);
+        }
+    }
+
+    /**
+     * Closes a connection without draining its input.
+     *
+     * @param socket the socket of the connection
+     */
+    private static void closeNow(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to do with the socket
+        }
+    }
+
+    /**
+     * The {@code RejectedConnection} class answers a rejected connection with
+     * a 503 response and closes it, in the thread that closes rejected
+     * connections.
+     */
+    private final class RejectedConnection implements Runnable {
+        private final Socket socket;
+
+        private RejectedConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            BoundedExecutor.this.sendServiceUnavailable(this.socket);
+        }
+
+        /**
+         * Closes the connection right away, when it cannot wait to be answered.
+         */
+        private void abort() {
+            closeNow(this.socket);
+        }
+    }
+
+    /**
+     * The {@code Rejector} class handles the connections rejected by the
+     * executor according to its policy.
+     */
+    private final class Rejector implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            BoundedExecutor.this.rejectedCount.increment();
+            final Socket socket = TunedServerSocketFactory.takeAcceptedSocket();
+            if (socket != null && executor.isShutdown()) {
+                closeNow(socket);
+            } else if (socket != null && BoundedExecutor.this.rejectionPolicy == RejectionPolicy.SERVICE_UNAVAILABLE) {
+                BoundedExecutor.this.rejectWithServiceUnavailable(socket);
+            } else {
+                // Without the socket, running the connection is the only way to close it
+                runnable.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * The {@code ByteRanges} class parses the Range header of requests into the
+ * byte ranges to send, which may be several.
+ * <p>
+ * Unlike {@link net.freeutils.httpserver.HTTPServer#parseRange(String, long)},
+ * which merges all the requested ranges into one, ranges are kept apart so
+ * they can be sent as a multipart/byteranges response. Overlapping ranges, and
+ * ranges separated by fewer bytes than a multipart part header takes, are
+ * coalesced, and range sets that remain too fragmented are merged into one.
+ */
+final class ByteRanges {
+    /**
+     * The largest gap between two ranges for them to be coalesced, which is
+     * about the size of the part header that separates them otherwise.
+     */
+    static final int COALESCE_GAP = 80;
+
+    private static final long[][] NO_RANGES = new long[0][];
+
+    private ByteRanges() {
+    }
+
+    /**
+     * Parses the value of a Range header.
+     *
+     * @param header    the Range header value, or null
+     * @param length    the length of the resource
+     * @param maxRanges the maximum number of ranges to return; if more remain
+     *                  after coalescing, a single range spanning all of them
+     *                  is returned
+     * @return the ranges to send, as {start, end} pairs in ascending order, an
+     *         empty array if no range is satisfiable, or null if there is no
+     *         header or it is invalid and must be ignored
+     */
+    static long[][] parse(String header, long length, int maxRanges) {
+        if (header == null || !header.toLowerCase(Locale.US).startsWith("bytes=")) {
+            return null;
+        }
+
+        final String[] specs = header.substring(6).split(",");
+        long[][] ranges = new long[specs.length][];
+        int count = 0;
+        boolean empty = true;
+        try {
+            for (String spec : specs) {
+                spec = spec.trim();
+                if (spec.isEmpty()) {
+                    continue;
+                }
+                empty = false;
+
+                final int dash = spec.indexOf('-');
+                long start;
+                long end;
+                if (dash == 0) {
+                    start = length - parseUnsigned(spec.substring(1));
+                    end = length - 1;
+                    if (start == length) {
+                        continue;
+                    }
+                    start = Math.max(start, 0);
+                } else if (dash == spec.length() - 1) {
+                    start = parseUnsigned(spec.substring(0, dash));
+                    end = length - 1;
+                } else {
+                    start = parseUnsigned(spec.substring(0, dash));
+                    end = parseUnsigned(spec.substring(dash + 1));
+                    if (end < start) {
+                        return null;
+                    }
+                    end = Math.min(end, length - 1);
+                }
+                if (start < length) {
+                    ranges[count++] = new long[] { start, end };
+                }
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+        if (empty) {
+            return null;
+        }
+        if (count == 0) {
+            return NO_RANGES;
+        }
+
+        ranges = coalesce(ranges, count);
+        if (ranges.length > maxRanges) {
+            return new long[][] { { ranges[0][0], ranges[ranges.length - 1][1] } };
+        }
+        return ranges;
+    }
+
+    /**
+     * Sorts ranges and merges those that overlap or are close to each other.
+     */
+    private static long[][] coalesce(long[][] ranges, int count) {
+        Arrays.sort(ranges, 0, count, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+
+        int merged = 0;
+        for (int i = 1; i < count; i++) {
+            final long[] last = ranges[merged];
+            if (ranges[i][0] <= last[1] + 1 + COALESCE_GAP) {
+                last[1] = Math.max(last[1], ranges[i][1]);
+            } else {
+                ranges[++merged] = ranges[i];
+            }
+        }
+        return Arrays.copyOf(ranges, merged + 1);
+    }
+
+    /**
+     * Parses a non-negative decimal number, rejecting signs.
+     */
+    private static long parseUnsigned(String value) {
+        if (value.isEmpty() || value.charAt(0) == '+' || value.charAt(0) == '-') {
+            throw new NumberFormatException("Invalid range value: " + value);
+        }
+        return Long.parseLong(value);
+    }
+}
@@ -0,0 +1,321 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * The {@code CacheControlPolicy} decides the Cache-Control header sent with
+ * each resource served by a {@link JarResourceContextHandler}, according to a
+ * list of rules that match resources by glob, file extension or content type.
+ * The first matching rule wins; resources that match no rule get the default
+ * value, if any.
+ * <p>
+ * Policies are evaluated once per resource when they are set on a handler,
+ * so rules added afterwards only take effect when the policy is set again.
+ * Resources requested through their fingerprinted aliases always get
+ * {@link #IMMUTABLE}, regardless of the policy.
+ */
+public class CacheControlPolicy {
+    /**
+     * The Cache-Control header value of resources whose contents never change,
+     * which lets clients and shared caches keep them for a year without
+     * revalidating them.
+     */
+    public static final String IMMUTABLE = "public, max-age=31536000, immutable";
+
+    /**
+     * Who may store a response, as the first directive of a Cache-Control
+     * header value.
+     */
+    public enum Visibility {
+        /**
+         * Any cache may store the response, including shared ones.
+         */
+        PUBLIC("public"),
+        /**
+         * Only the cache of the client may store the response.
+         */
+        PRIVATE("private"),
+        /**
+         * Caches may store the response, but must revalidate it before every
+         * use.
+         */
+        NO_CACHE("no-cache");
+
+        private final String directive;
+
+        Visibility(String directive) {
+            this.directive = directive;
+        }
+    }
+
+    /**
+     * The rules of the policy, in order.
+     */
+    private final List<Rule> rules = new ArrayList<>();
+    /**
+     * The Cache-Control header value of the resources that match no rule, or
+     * null to send none.
+     */
+    private String defaultValue;
+
+    /**
+     * Returns a public Cache-Control header value with the given directives.
+     *
+     * @param maxAge               the max-age directive, in seconds, or a
+     *                             negative number to leave it out
+     * @param sharedMaxAge         the s-maxage directive, in seconds, or a
+     *                             negative number to leave it out
+     * @param staleWhileRevalidate the stale-while-revalidate directive, in
+     *                             seconds, or a negative number to leave it out
+     * @param immutable            whether to add the immutable directive
+     * @return the header value
+     */
+    public static String directives(long maxAge, long sharedMaxAge, long staleWhileRevalidate, boolean immutable) {
+        return directives(Visibility.PUBLIC, maxAge, sharedMaxAge, staleWhileRevalidate, immutable);
+    }
+
+    /**
+     * Returns a Cache-Control header value with the given visibility and
+     * directives.
+     *
+     * @param visibility           who may store the response
+     * @param maxAge               the max-age directive, in seconds, or a
+     *                             negative number to leave it out
+     * @param sharedMaxAge         the s-maxage directive, in seconds, or a
+     *                             negative number to leave it out
+     * @param staleWhileRevalidate the stale-while-revalidate directive, in
+     *                             seconds, or a negative number to leave it out
+     * @param immutable            whether to add the immutable directive
+     * @return the header value
+     */
+    public static String directives(Visibility visibility, long maxAge, long sharedMaxAge,
+            long staleWhileRevalidate, boolean immutable) {
+        if (visibility == null) {
+            throw new IllegalArgumentException("Visibility cannot be null");
+        }
+        final StringBuilder value = new StringBuilder(visibility.directive);
+        if (maxAge >= 0) {
+            value.append(", max-age=").append(maxAge);
+        }
+        if (sharedMaxAge >= 0) {
+            value.append(", s-maxage=").append(sharedMaxAge);
+        }
+        if (staleWhileRevalidate >= 0) {
+            value.append(", stale-while-revalidate=").append(staleWhileRevalidate);
+        }
+        if (immutable) {
+            value.append(", immutable");
+        }
+        return value.toString();
+    }
+
+    /**
+     * Adds a rule that matches the resources whose names, relative to the base
+     * path of the handler, match a glob. In globs, "*" matches any characters
+     * but "/", "**" matches any characters and "?" matches a single character
+     * but "/", e.g. "assets/**" or "*.html".
+     *
+     * @param glob         the glob
+     * @param cacheControl the Cache-Control header value, or null to send none
+     */
+    public void addGlobRule(String glob, String cacheControl) {
+        this.rules.add(new GlobRule(compileGlob(glob), cacheControl));
+    }
+
+    /**
+     * Adds a rule that matches the resources with a file extension, ignoring
+     * case, e.g. "js" or ".js".
+     *
+     * @param extension    the extension, with or without the leading dot
+     * @param cacheControl the Cache-Control header value, or null to send none
+     */
+    public void addExtensionRule(String extension, String cacheControl) {
+        final String normalized = extension.startsWith(".") ? extension : "." + extension;
+        this.rules.add(new ExtensionRule(normalized.toLowerCase(Locale.US), cacheControl));
+    }
+
+    /**
+     * Adds a rule that matches the resources with a content type, ignoring
+     * case and parameters. The subtype may be "*" to match a whole type, e.g.
+     * "image/*".
+     *
+     * @param contentType  the content type
+     * @param cacheControl the Cache-Control header value, or null to send none
+     */
+    public void addContentTypeRule(String contentType, String cacheControl) {
+        final String normalized = getMediaType(contentType);
+        this.rules.add(normalized.endsWith("/*")
+                ? new ContentTypePrefixRule(normalized.substring(0, normalized.length() - 1), cacheControl)
+                : new ContentTypeRule(normalized, cacheControl));
+    }
+
+    /**
+     * Sets the Cache-Control header value of the resources that match no rule.
+     * There is none by default.
+     *
+     * @param cacheControl the Cache-Control header value, or null to send none
+     */
+    public void setDefault(String cacheControl) {
+        this.defaultValue = cacheControl;
+    }
+
+    /**
+     * Returns the Cache-Control header value of a resource.
+     *
+     * @param name        the name of the resource, relative to the base path
+     * @param contentType the content type of the resource
+     * @return the header value, or null to send none
+     */
+    String getCacheControl(String name, String contentType) {
+        final String mediaType = getMediaType(contentType);
+        final String fileName = name.substring(name.lastIndexOf('/') + 1).toLowerCase(Locale.US);
+        for (Rule rule : this.rules) {
+            if (rule.matches(name, fileName, mediaType)) {
+                return rule.cacheControl;
+            }
+        }
+        return this.defaultValue;
+    }
+
+    /**
+     * Returns the media type of a content type, without its parameters, in
+     * lower case.
+     */
+    private static String getMediaType(String contentType) {
+        final int parametersStart = contentType.indexOf(';');
+        return (parametersStart >= 0 ? contentType.substring(0, parametersStart) : contentType).trim()
+                .toLowerCase(Locale.US);
+    }
+
+    /**
+     * Compiles a glob into a regular expression.
+     */
+    private static Pattern compileGlob(String glob) {
+        final StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            final char c = glob.charAt(i);
+            if (c != '*' && c != '?') {
+                continue;
+            }
+            if (literalStart < i) {
+                regex.append(Pattern.quote(glob.substring(literalStart, i)));
+            }
+            if (c == '?') {
+                regex.append("[^/]");
+            } else if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                i++;
+            } else {
+                regex.append("[^/]*");
+            }
+            literalStart = i + 1;
+        }
+        if (literalStart < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /**
+     * The {@code Rule} class is a rule of a policy, with one subclass per way
+     * of matching resources.
+     */
+    private abstract static class Rule {
+        final String cacheControl;
+
+        Rule(String cacheControl) {
+            this.cacheControl = cacheControl;
+        }
+
+        /**
+         * Returns whether the rule matches a resource.
+         *
+         * @param name      the name of the resource, relative to the base path
+         * @param fileName  the file name of the resource, in lower case
+         * @param mediaType the media type of the resource, in lower case
+         * @return true if the rule matches
+         */
+        abstract boolean matches(String name, String fileName, String mediaType);
+    }
+
+    /**
+     * The {@code GlobRule} class matches resources by a glob on their names.
+     */
+    private static final class GlobRule extends Rule {
+        private final Pattern glob;
+
+        GlobRule(Pattern glob, String cacheControl) {
+            super(cacheControl);
+            this.glob = glob;
+        }
+
+        @Override
+        boolean matches(String name, String fileName, String mediaType) {
+            return this.glob.matcher(name).matches();
+        }
+    }
+
+    /**
+     * The {@code ExtensionRule} class matches resources by the extension of
+     * their file names.
+     */
+    private static final class ExtensionRule extends Rule {
+        /**
+         * The extension, in lower case and with the leading dot.
+         */
+        private final String extension;
+
+        ExtensionRule(String extension, String cacheControl) {
+            super(cacheControl);
+            this.extension = extension;
+        }
+
+        @Override
+        boolean matches(String name, String fileName, String mediaType) {
+            return fileName.length() > this.extension.length() && fileName.endsWith(this.extension);
+        }
+    }
+
+    /**
+     * The {@code ContentTypeRule} class matches resources by their media
+     * type.
+     */
+    private static final class ContentTypeRule extends Rule {
+        private final String mediaType;
+
+        ContentTypeRule(String mediaType, String cacheControl) {
+            super(cacheControl);
+            this.mediaType = mediaType;
+        }
+
+        @Override
+        boolean matches(String name, String fileName, String mediaType) {
+            return mediaType.equals(this.mediaType);
+        }
+    }
+
+    /**
+     * The {@code ContentTypePrefixRule} class matches resources by the type of
+     * their media type, whatever its subtype.
+     */
+    private static final class ContentTypePrefixRule extends Rule {
+        /**
+         * The type, followed by a slash.
+         */
+        private final String prefix;
+
+        ContentTypePrefixRule(String prefix, String cacheControl) {
+            super(cacheControl);
+            this.prefix = prefix;
+        }
+
+        @Override
+        boolean matches(String name, String fileName, String mediaType) {
+            return mediaType.startsWith(this.prefix);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.freeutils.httpserver.HTTPServer;
+import net.freeutils.httpserver.HTTPServer.ContextHandler;
+import net.freeutils.httpserver.HTTPServer.Request;
+import net.freeutils.httpserver.HTTPServer.Response;
+
+/**
+ * The {@code ConcurrencyLimitHandler} is a {@link ContextHandler} that limits
+ * the number of requests served at once by the handler it wraps, answering
+ * the requests beyond the limit with a 503 response and a Retry-After header,
+ * so that a slow handler sheds load instead of taking up every connection
+ * thread of the server.
+ * <p>
+ * Requests can optionally wait a short time for another request to end
+ * before being rejected, to absorb small bursts.
+ * <p>
+ * Each wrapped handler gets its own limit, e.g. a high one for a
+ * {@link JarResourceContextHandler} serving static assets and a low one for a
+ * handler calling slower backends.
+ */
+public class ConcurrencyLimitHandler implements ContextHandler {
+    /**
+     * The body of 503 responses, the same as the one sent by
+     * {@link Response#sendError(int)}, which formats it on every call.
+     */
+    private static final String SERVICE_UNAVAILABLE_TEXT = String.format(
+            "<!DOCTYPE html>%n<html>%n<head><title>503 Service Unavailable</title></head>%n"
+                    + "<body><h1>503 Service Unavailable</h1>%n<p>%s</p>%n</body></html>",
+            HTTPServer.escapeHTML("sorry it didn't work out :("));
+    private static final byte[] SERVICE_UNAVAILABLE_BODY = SERVICE_UNAVAILABLE_TEXT.getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The wrapped handler.
+     */
+    private final ContextHandler handler;
+    /**
+     * The maximum number of requests served at once.
+     */
+    private final int maxConcurrentRequests;
+    /**
+     * The permits to serve a request, one per request that can be served at
+     * once.
+     */
+    private final Semaphore permits;
+    /**
+     * The number of rejected requests.
+     */
+    private final LongAdder rejectedCount = new LongAdder();
+    /**
+     * The maximum time that requests wait for a permit, in nanoseconds, or 0
+     * if they do not wait.
+     */
+    private volatile long queueTimeoutNanos;
+    /**
+     * The value of the Retry-After header of 503 responses, in seconds.
+     */
+    private volatile int retryAfterSeconds = 1;
+
+    /**
+     * Creates a new {@code ConcurrencyLimitHandler}.
+     *
+     * @param handler               the handler that serves the requests
+     * @param maxConcurrentRequests the maximum number of requests served at
+     *                              once
+     */
+    public ConcurrencyLimitHandler(ContextHandler handler, int maxConcurrentRequests) {
+        if (handler == null) {
+            throw new IllegalArgumentException("Handler cannot be null");
+        }
+        if (maxConcurrentRequests <= 0) {
+            throw new IllegalArgumentException("Maximum number of concurrent requests must be positive");
+        }
+
+        this.handler = handler;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.permits = new Semaphore(maxConcurrentRequests);
+    }
+
+    /**
+     * Sets the maximum time that requests wait for another request to end
+     * when the limit is reached, before being rejected. Requests are rejected
+     * right away by default.
+     *
+     * @param timeout the maximum wait time, or 0 to reject right away
+     * @param unit    the unit of the timeout
+     */
+    public void setQueueTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Queue timeout cannot be negative");
+        }
+        this.queueTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets the value of the Retry-After header of 503 responses, which is 1
+     * second by default.
+     *
+     * @param retryAfterSeconds the delay suggested to clients, in seconds
+     */
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        if (retryAfterSeconds < 0) {
+            throw new IllegalArgumentException("Retry-After cannot be negative");
+        }
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Returns the maximum number of requests served at once.
+     *
+     * @return the concurrency limit
+     */
+    public int getMaxConcurrentRequests() {
+        return this.maxConcurrentRequests;
+    }
+
+    /**
+     * Returns the number of requests being served.
+     *
+     * @return the number of requests in flight
+     */
+    public int getInFlightCount() {
+        return this.maxConcurrentRequests - this.permits.availablePermits();
+    }
+
+    /**
+     * Returns the number of requests rejected since the handler was created.
+     *
+     * @return the number of 503 responses
+     */
+    public long getRejectedCount() {
+        return this.rejectedCount.sum();
+    }
+
+    @Override
+    public int serve(Request request, Response response) throws IOException {
+        if (!this.acquirePermit()) {
+            this.rejectedCount.increment();
+            sendServiceUnavailable(response, this.retryAfterSeconds);
+            return 0;
+        }
+        try {
+            return this.handler.serve(request, response);
+        } finally {
+            this.permits.release();
+        }
+    }
+
+    /**
+     * Takes a permit to serve a request, waiting up to the queue timeout for
+     * one if there is none available.
+     *
+     * @return true if the permit was taken
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    private boolean acquirePermit() throws InterruptedIOException {
+        if (this.permits.tryAcquire()) {
+            return true;
+        }
+        final long queueTimeoutNanos = this.queueTimeoutNanos;
+        if (queueTimeoutNanos <= 0) {
+            return false;
+        }
+        try {
+            return this.permits.tryAcquire(queueTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to serve a request");
+        }
+    }
+
+    /**
+     * Sends a 503 response with a Retry-After header and a preformatted body.
+     *
+     * @param response          the response into which the error is written
+     * @param retryAfterSeconds the value of the Retry-After header, in seconds
+     * @throws IOException
+     */
+    static void sendServiceUnavailable(Response response, int retryAfterSeconds) throws IOException {
+        response.getHeaders().add("Retry-After", Integer.toString(retryAfterSeconds));
+        response.sendHeaders(503, SERVICE_UNAVAILABLE_BODY.length, -1, null, "text/html; charset=utf-8", null);
+        final OutputStream out = response.getBody();
+        if (out != null) {
+            out.write(SERVICE_UNAVAILABLE_BODY);
+        }
+    }
+}
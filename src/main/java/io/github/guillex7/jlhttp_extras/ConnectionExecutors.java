@@ -0,0 +1,36 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The {@code ConnectionExecutors} class creates the executors that run the
+ * connections of the servers created by {@link ServerBootstrap}.
+ * <p>
+ * This version, used before Java 21, runs each connection in a platform thread
+ * of a cached pool, as jlhttp does by default. The multi-release jar holds a
+ * Java 21 version that runs each connection in its own virtual thread.
+ */
+final class ConnectionExecutors {
+    private ConnectionExecutors() {
+    }
+
+    /**
+     * Returns whether the executors run each connection in its own virtual
+     * thread.
+     *
+     * @return true if connections run in virtual threads
+     */
+    static boolean isVirtualThreads() {
+        return false;
+    }
+
+    /**
+     * Creates an executor that runs each connection in its own thread.
+     *
+     * @return the executor
+     */
+    static ExecutorService newExecutor() {
+        return Executors.newCachedThreadPool();
+    }
+}
@@ -0,0 +1,478 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * The {@code InflateCheckpoints} class holds the points from which the
+ * deflated contents of a jar entry can be inflated without inflating
+ * everything before them, so that ranges of large compressed entries can be
+ * served cheaply.
+ * <p>
+ * Deflate data cannot be entered at an arbitrary byte: decoding must start at
+ * the beginning of a block, which may lie at any bit, and it needs the last
+ * 32 KiB of output that later matches can refer to. A checkpoint records both,
+ * and is taken at the first block boundary after every given number of bytes
+ * of output. Finding block boundaries requires decoding the whole entry once,
+ * which is done here in Java since {@link Inflater} does not report them.
+ * <p>
+ * Inflation is resumed from a checkpoint with a regular raw {@link Inflater}:
+ * it is first fed a crafted, non-final fixed Huffman block whose length leaves
+ * it at the same bit offset within a byte as the checkpoint, and its output is
+ * discarded; then the saved output is set as its dictionary, and the entry is
+ * fed from the byte holding the checkpoint, with the bits before the
+ * checkpoint replaced by the end of the crafted block.
+ */
+final class InflateCheckpoints {
+    private static final int WINDOW_SIZE = 32768;
+    private static final int MAX_BITS = 15;
+
+    private static final int[] LENGTH_BASES = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51,
+            59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+    private static final int[] LENGTH_EXTRA_BITS = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4,
+            4, 4, 4, 5, 5, 5, 5, 0 };
+    private static final int[] DISTANCE_BASES = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257,
+            385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+    private static final int[] DISTANCE_EXTRA_BITS = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9,
+            9, 10, 10, 11, 11, 12, 12, 13, 13 };
+    private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1,
+            15 };
+
+    /**
+     * The checkpoints, in increasing order of output offset.
+     */
+    private final Checkpoint[] checkpoints;
+
+    private InflateCheckpoints(Checkpoint[] checkpoints) {
+        this.checkpoints = checkpoints;
+    }
+
+    /**
+     * Returns the number of checkpoints.
+     *
+     * @return the number of checkpoints
+     */
+    int size() {
+        return this.checkpoints.length;
+    }
+
+    /**
+     * Returns the last checkpoint at or before the given offset of the
+     * decompressed contents.
+     *
+     * @param offset the offset of the decompressed contents
+     * @return the checkpoint, or null if there is none before the offset
+     */
+    Checkpoint find(long offset) {
+        int low = 0;
+        int high = this.checkpoints.length - 1;
+        Checkpoint found = null;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            if (this.checkpoints[middle].outputOffset <= offset) {
+                found = this.checkpoints[middle];
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * The {@code Checkpoint} class describes a block boundary of a deflate
+     * stream.
+     */
+    static final class Checkpoint {
+        /**
+         * The offset of the block within the compressed contents, in bits.
+         */
+        final long bitOffset;
+        /**
+         * The offset within the decompressed contents of the first byte output
+         * by the block.
+         */
+        final long outputOffset;
+        /**
+         * The last (up to 32 KiB) bytes output before the block.
+         */
+        final byte[] window;
+
+        Checkpoint(long bitOffset, long outputOffset, byte[] window) {
+            this.bitOffset = bitOffset;
+            this.outputOffset = outputOffset;
+            this.window = window;
+        }
+
+        /**
+         * Prepares a fresh raw inflater to inflate from this checkpoint. The
+         * inflater must then be fed the compressed contents starting at byte
+         * {@code bitOffset / 8}, whose first byte must be merged with the
+         * returned bits by {@link #mergeFirstByte(int, int)}.
+         *
+         * @param inflater the inflater, which must not have been fed any input
+         * @return the bits that replace the low bits of the first byte, before
+         *         the checkpoint
+         * @throws ZipException if the inflater rejects the crafted block
+         */
+        int prime(Inflater inflater) throws ZipException {
+            final int bitShift = (int) (this.bitOffset & 7);
+            int firstBits = 0;
+            if (bitShift != 0) {
+                final byte[] prefix = createPrefix(bitShift);
+                inflater.setInput(prefix, 0, prefix.length - 1);
+                final byte[] discarded = new byte[16];
+                try {
+                    while (inflater.inflate(discarded) > 0) {
+                        // The literals of the crafted block are not part of the contents
+                    }
+                } catch (DataFormatException e) {
+                    throw new ZipException("Cannot resume inflation: " + e.getMessage());
+                }
+                firstBits = prefix[prefix.length - 1] & ((1 << bitShift) - 1);
+            }
+            inflater.setDictionary(this.window);
+            return firstBits;
+        }
+
+        /**
+         * Returns the first byte to feed to an inflater primed by
+         * {@link #prime(Inflater)}.
+         *
+         * @param firstByte the byte of the compressed contents holding the
+         *                  checkpoint
+         * @param firstBits the bits returned by {@link #prime(Inflater)}
+         * @return the byte to feed instead
+         */
+        int mergeFirstByte(int firstByte, int firstBits) {
+            final int bitShift = (int) (this.bitOffset & 7);
+            return (firstByte & (0xff << bitShift)) | firstBits;
+        }
+    }
+
+    /**
+     * Creates a non-final fixed Huffman block with no meaningful output whose
+     * length in bits is congruent to the given shift modulo 8. The block has
+     * 10 bits of header and end-of-block code plus 9 bits per literal, so
+     * {@code (shift + 6) % 8} literals are needed. The last 7 bits are the
+     * end-of-block code, so the returned last byte only holds part of it.
+     *
+     * @param bitShift the bit offset within a byte, from 1 to 7
+     * @return the block, packed from the least significant bit
+     */
+    private static byte[] createPrefix(int bitShift) {
+        final int literalCount = (bitShift + 6) % 8;
+        final int bitCount = 10 + 9 * literalCount;
+        final byte[] prefix = new byte[(bitCount + 7) / 8];
+        int bitPosition = 0;
+        // BFINAL = 0, BTYPE = 01 (fixed Huffman codes)
+        bitPosition = writeBits(prefix, bitPosition, 0, 1);
+        bitPosition = writeBits(prefix, bitPosition, 1, 2);
+        for (int i = 0; i < literalCount; i++) {
+            // Literal 144, whose fixed code is 110010000
+            bitPosition = writeHuffmanCode(prefix, bitPosition, 0x190, 9);
+        }
+        // End of block, whose fixed code is 0000000
+        writeHuffmanCode(prefix, bitPosition, 0, 7);
+        return prefix;
+    }
+
+    private static int writeBits(byte[] target, int bitPosition, int value, int count) {
+        for (int i = 0; i < count; i++, bitPosition++) {
+            if (((value >>> i) & 1) != 0) {
+                target[bitPosition >>> 3] |= 1 << (bitPosition & 7);
+            }
+        }
+        return bitPosition;
+    }
+
+    private static int writeHuffmanCode(byte[] target, int bitPosition, int code, int length) {
+        for (int i = length - 1; i >= 0; i--, bitPosition++) {
+            if (((code >>> i) & 1) != 0) {
+                target[bitPosition >>> 3] |= 1 << (bitPosition & 7);
+            }
+        }
+        return bitPosition;
+    }
+
+    /**
+     * Builds the checkpoints of a deflated jar resource by decoding its
+     * compressed contents.
+     *
+     * @param channel  the channel over the jar file
+     * @param resource the resource, which must be deflated at a known offset
+     * @param spacing  the minimum number of decompressed bytes between
+     *                 checkpoints
+     * @return the checkpoints
+     * @throws IOException if the jar file cannot be read or the compressed
+     *                     contents are invalid
+     */
+    static InflateCheckpoints build(FileChannel channel, JarResource resource, int spacing) throws IOException {
+        final BitInput in = new BitInput(channel, resource.getDataOffset(), resource.getCompressedSize());
+        final byte[] window = new byte[WINDOW_SIZE];
+        final int[] literalTable = new int[1 << MAX_BITS];
+        final int[] distanceTable = new int[1 << MAX_BITS];
+        final int[] lengths = new int[320];
+        final List<Checkpoint> checkpoints = new ArrayList<>();
+
+        long output = 0;
+        long nextCheckpoint = spacing;
+        boolean lastBlock;
+        do {
+            if (output >= nextCheckpoint) {
+                checkpoints.add(new Checkpoint(in.getBitPosition(), output, getWindow(window, output)));
+                nextCheckpoint = output + spacing;
+            }
+
+            lastBlock = in.readBits(1) == 1;
+            final int type = in.readBits(2);
+            if (type == 0) {
+                in.alignToByte();
+                final int length = in.readBits(16);
+                if ((in.readBits(16) ^ 0xffff) != length) {
+                    throw new ZipException("Invalid stored block length");
+                }
+                for (int i = 0; i < length; i++) {
+                    window[(int) (output++ & (WINDOW_SIZE - 1))] = (byte) in.readBits(8);
+                }
+                continue;
+            }
+
+            final int literalBits;
+            final int distanceBits;
+            if (type == 1) {
+                Arrays.fill(lengths, 0, 144, 8);
+                Arrays.fill(lengths, 144, 256, 9);
+                Arrays.fill(lengths, 256, 280, 7);
+                Arrays.fill(lengths, 280, 288, 8);
+                literalBits = buildTable(lengths, 0, 288, literalTable);
+                Arrays.fill(lengths, 0, 30, 5);
+                distanceBits = buildTable(lengths, 0, 30, distanceTable);
+            } else if (type == 2) {
+                final int literalCount = in.readBits(5) + 257;
+                final int distanceCount = in.readBits(5) + 1;
+                final int codeLengthCount = in.readBits(4) + 4;
+                Arrays.fill(lengths, 0, 19, 0);
+                for (int i = 0; i < codeLengthCount; i++) {
+                    lengths[CODE_LENGTH_ORDER[i]] = in.readBits(3);
+                }
+                final int codeLengthBits = buildTable(lengths, 0, 19, literalTable);
+
+                int i = 0;
+                while (i < literalCount + distanceCount) {
+                    final int symbol = decode(in, literalTable, codeLengthBits);
+                    if (symbol < 16) {
+                        lengths[i++] = symbol;
+                        continue;
+                    }
+
+                    final int previous;
+                    final int repeat;
+                    if (symbol == 16) {
+                        if (i == 0) {
+                            throw new ZipException("Invalid code lengths");
+                        }
+                        previous = lengths[i - 1];
+                        repeat = 3 + in.readBits(2);
+                    } else if (symbol == 17) {
+                        previous = 0;
+                        repeat = 3 + in.readBits(3);
+                    } else {
+                        previous = 0;
+                        repeat = 11 + in.readBits(7);
+                    }
+                    if (i + repeat > literalCount + distanceCount) {
+                        throw new ZipException("Invalid code lengths");
+                    }
+                    Arrays.fill(lengths, i, i + repeat, previous);
+                    i += repeat;
+                }
+                literalBits = buildTable(lengths, 0, literalCount, literalTable);
+                distanceBits = buildTable(lengths, literalCount, distanceCount, distanceTable);
+            } else {
+                throw new ZipException("Invalid block type");
+            }
+
+            while (true) {
+                final int symbol = decode(in, literalTable, literalBits);
+                if (symbol < 256) {
+                    window[(int) (output++ & (WINDOW_SIZE - 1))] = (byte) symbol;
+                    continue;
+                }
+                if (symbol == 256) {
+                    break;
+                }
+                if (symbol - 257 >= LENGTH_BASES.length) {
+                    throw new ZipException("Invalid length code");
+                }
+
+                final int length = LENGTH_BASES[symbol - 257] + in.readBits(LENGTH_EXTRA_BITS[symbol - 257]);
+                final int distanceCode = decode(in, distanceTable, distanceBits);
+                if (distanceCode >= DISTANCE_BASES.length) {
+                    throw new ZipException("Invalid distance code");
+                }
+                final int distance = DISTANCE_BASES[distanceCode] + in.readBits(DISTANCE_EXTRA_BITS[distanceCode]);
+                if (distance > output) {
+                    throw new ZipException("Invalid distance");
+                }
+                for (int i = 0; i < length; i++, output++) {
+                    window[(int) (output & (WINDOW_SIZE - 1))] = window[(int) ((output - distance)
+                            & (WINDOW_SIZE - 1))];
+                }
+            }
+        } while (!lastBlock);
+
+        if (output != resource.getLength()) {
+            throw new ZipException("Invalid deflated size");
+        }
+        return new InflateCheckpoints(checkpoints.toArray(new Checkpoint[0]));
+    }
+
+    /**
+     * Returns a copy of the last (up to 32 KiB) bytes written to a circular
+     * window, in output order.
+     */
+    private static byte[] getWindow(byte[] window, long output) {
+        final int size = (int) Math.min(output, WINDOW_SIZE);
+        final byte[] copy = new byte[size];
+        final int end = (int) (output & (WINDOW_SIZE - 1));
+        if (size <= end) {
+            System.arraycopy(window, end - size, copy, 0, size);
+        } else {
+            System.arraycopy(window, WINDOW_SIZE - (size - end), copy, 0, size - end);
+            System.arraycopy(window, 0, copy, size - end, end);
+        }
+        return copy;
+    }
+
+    /**
+     * Builds the decoding table of a canonical Huffman code, indexed by the
+     * next bits of input in reading order. Each entry holds the symbol shifted
+     * left by 4 bits and the length of its code, or 0 if no code matches.
+     *
+     * @return the number of bits used to index the table
+     */
+    private static int buildTable(int[] lengths, int offset, int count, int[] table) {
+        final int[] lengthCounts = new int[MAX_BITS + 1];
+        int maxBits = 0;
+        for (int i = 0; i < count; i++) {
+            lengthCounts[lengths[offset + i]]++;
+            maxBits = Math.max(maxBits, lengths[offset + i]);
+        }
+        Arrays.fill(table, 0, 1 << maxBits, 0);
+
+        final int[] nextCodes = new int[MAX_BITS + 2];
+        lengthCounts[0] = 0;
+        for (int bits = 1; bits <= MAX_BITS; bits++) {
+            nextCodes[bits + 1] = (nextCodes[bits] + lengthCounts[bits]) << 1;
+        }
+        for (int symbol = 0; symbol < count; symbol++) {
+            final int length = lengths[offset + symbol];
+            if (length == 0) {
+                continue;
+            }
+
+            final int code = nextCodes[length]++;
+            int reversed = Integer.reverse(code) >>> (32 - length);
+            for (; reversed < (1 << maxBits); reversed += 1 << length) {
+                table[reversed] = symbol << 4 | length;
+            }
+        }
+        return maxBits;
+    }
+
+    private static int decode(BitInput in, int[] table, int bits) throws IOException {
+        final int entry = table[in.peekBits(bits)];
+        if (entry == 0) {
+            throw new ZipException("Invalid Huffman code");
+        }
+        in.skipBits(entry & 15);
+        return entry >>> 4;
+    }
+
+    /**
+     * The {@code BitInput} class reads the bits of deflate data from a jar
+     * file, least significant bit first.
+     */
+    private static final class BitInput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private final long totalBits;
+        private long position;
+        private long remaining;
+        private long bits;
+        private int bitCount;
+        private long bitPosition;
+
+        BitInput(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+            this.totalBits = length * 8;
+            this.buffer.limit(0);
+        }
+
+        long getBitPosition() {
+            return this.bitPosition;
+        }
+
+        int peekBits(int count) throws IOException {
+            while (this.bitCount < count) {
+                this.bits |= (long) this.readByte() << this.bitCount;
+                this.bitCount += 8;
+            }
+            return (int) (this.bits & ((1L << count) - 1));
+        }
+
+        void skipBits(int count) throws IOException {
+            this.bits >>>= count;
+            this.bitCount -= count;
+            this.bitPosition += count;
+            if (this.bitPosition > this.totalBits) {
+                throw new EOFException("Unexpected end of deflated entry");
+            }
+        }
+
+        int readBits(int count) throws IOException {
+            final int value = this.peekBits(count);
+            this.skipBits(count);
+            return value;
+        }
+
+        void alignToByte() throws IOException {
+            this.skipBits((int) (-this.bitPosition & 7));
+        }
+
+        /**
+         * Returns the next byte of input, or 0 past the end of the input, so
+         * that codes at the end can be looked up with a full-width peek.
+         */
+        private int readByte() throws IOException {
+            if (!this.buffer.hasRemaining()) {
+                if (this.remaining == 0) {
+                    return 0;
+                }
+                this.buffer.clear();
+                if (this.remaining < this.buffer.capacity()) {
+                    this.buffer.limit((int) this.remaining);
+                }
+                final int count = this.channel.read(this.buffer, this.position);
+                if (count <= 0) {
+                    throw new EOFException("Unexpected end of jar file");
+                }
+                this.position += count;
+                this.remaining -= count;
+                this.buffer.flip();
+            }
+            return this.buffer.get() & 0xff;
+        }
+    }
+}
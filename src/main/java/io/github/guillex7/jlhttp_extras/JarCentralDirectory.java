@@ -0,0 +1,577 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The {@code JarCentralDirectory} class reads the physical layout of the
+ * entries of a jar file from its central directory, which
+ * {@link java.util.jar.JarFile} does not expose, such as the offset of
+ * each entry within the file.
+ * Both regular and ZIP64 archives are supported, as well as archives with
+ * bytes prepended to them, such as executable jar files with a launcher
+ * script, whose recorded offsets are shifted as {@link java.util.zip.ZipFile}
+ * does. All the offsets returned are positions within the file.
+ */
+final class JarCentralDirectory {
+    /**
+     * The compression method of entries stored without compression.
+     */
+    static final int METHOD_STORED = 0;
+    /**
+     * The compression method of entries compressed with deflate.
+     */
+    static final int METHOD_DEFLATED = 8;
+
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE = 56;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE = 20;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+
+    private JarCentralDirectory() {
+    }
+
+    /**
+     * The {@code Location} class holds the position of the central directory
+     * of a jar file, as recorded in its end of central directory records.
+     */
+    static final class Location {
+        /**
+         * The offset of the central directory.
+         */
+        final long offset;
+        /**
+         * The number of bytes prepended to the archive, by which the offsets
+         * recorded in it are shifted.
+         */
+        final long prefixLength;
+        /**
+         * The size of the central directory.
+         */
+        final long size;
+        /**
+         * The number of entries in the central directory.
+         */
+        final long entryCount;
+        /**
+         * Whether the jar file has ZIP64 end of central directory records.
+         */
+        final boolean zip64;
+        /**
+         * The comment of the jar file.
+         */
+        final byte[] comment;
+
+        private Location(long offset, long prefixLength, long size, long entryCount, boolean zip64,
+                byte[] comment) {
+            this.offset = offset;
+            this.prefixLength = prefixLength;
+            this.size = size;
+            this.entryCount = entryCount;
+            this.zip64 = zip64;
+            this.comment = comment;
+        }
+    }
+
+    /**
+     * The {@code Entry} class holds the physical layout of a jar entry, as
+     * recorded in the central directory.
+     */
+    static final class Entry {
+        /**
+         * The full name of the entry.
+         */
+        final String name;
+        /**
+         * The compression method of the entry.
+         */
+        final int method;
+        /**
+         * The CRC-32 of the decompressed contents of the entry.
+         */
+        final int crc;
+        /**
+         * The size of the compressed contents of the entry.
+         */
+        final long compressedSize;
+        /**
+         * The size of the decompressed contents of the entry.
+         */
+        final long size;
+        /**
+         * The offset of the local file header of the entry.
+         */
+        final long localHeaderOffset;
+
+        private Entry(String name, int method, int crc, long compressedSize, long size, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    /**
+     * Reads the central directory of a jar file, returning the layout of the
+     * entries whose names start with the given prefix. Entries whose layout
+     * cannot be read, such as ZIP64 entries without their extra field, are
+     * left out.
+     *
+     * @param channel the channel of the jar file
+     * @param prefix  the prefix of the names of the entries to return
+     * @return the entries by their full names
+     * @throws IOException if the central directory cannot be read or is corrupt
+     */
+    static Map<String, Entry> read(FileChannel channel, String prefix) throws IOException {
+        return read(channel, locate(channel), prefix);
+    }
+
+    /**
+     * Reads the central directory of a jar file at an already known location,
+     * returning the layout of the entries whose names start with the given
+     * prefix, as {@link #read(FileChannel, String)} does.
+     *
+     * @param channel  the channel of the jar file
+     * @param location the location of the central directory
+     * @param prefix   the prefix of the names of the entries to return
+     * @return the entries by their full names
+     * @throws IOException if the central directory cannot be read or is corrupt
+     */
+    static Map<String, Entry> read(FileChannel channel, Location location, String prefix) throws IOException {
+        final ByteBuffer centralDirectory = readCentralDirectory(channel, location);
+        final byte[] prefixBytes = prefix.getBytes(StandardCharsets.UTF_8);
+        final Map<String, Entry> entriesByName = new HashMap<>();
+
+        while (centralDirectory.remaining() >= CENTRAL_DIRECTORY_HEADER_SIZE) {
+            final int position = centralDirectory.position();
+            if (centralDirectory.getInt(position) != CENTRAL_DIRECTORY_HEADER_SIGNATURE) {
+                throw new IOException("Invalid central directory header");
+            }
+
+            final int method = centralDirectory.getShort(position + 10) & 0xffff;
+            final int crc = centralDirectory.getInt(position + 16);
+            long compressedSize = centralDirectory.getInt(position + 20) & ZIP64_MAGIC;
+            long size = centralDirectory.getInt(position + 24) & ZIP64_MAGIC;
+            final int nameLength = centralDirectory.getShort(position + 28) & 0xffff;
+            final int extraLength = centralDirectory.getShort(position + 30) & 0xffff;
+            final int commentLength = centralDirectory.getShort(position + 32) & 0xffff;
+            long localHeaderOffset = centralDirectory.getInt(position + 42) & ZIP64_MAGIC;
+            final int namePosition = position + CENTRAL_DIRECTORY_HEADER_SIZE;
+            final int extraPosition = namePosition + nameLength;
+            final int nextPosition = extraPosition + extraLength + commentLength;
+            if (nextPosition > centralDirectory.limit()) {
+                throw new IOException("Truncated central directory header");
+            }
+
+            if (startsWith(centralDirectory, namePosition, nameLength, prefixBytes)) {
+                final long[] zip64Values = size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC
+                        || localHeaderOffset == ZIP64_MAGIC
+                                ? readZip64Values(centralDirectory, extraPosition, extraLength, size == ZIP64_MAGIC,
+                                        compressedSize == ZIP64_MAGIC, localHeaderOffset == ZIP64_MAGIC)
+                                : null;
+                if (zip64Values != null) {
+                    size = zip64Values[0] >= 0 ? zip64Values[0] : size;
+                    compressedSize = zip64Values[1] >= 0 ? zip64Values[1] : compressedSize;
+                    localHeaderOffset = zip64Values[2] >= 0 ? zip64Values[2] : localHeaderOffset;
+                }
+
+                final byte[] nameBytes = new byte[nameLength];
+                centralDirectory.position(namePosition);
+                centralDirectory.get(nameBytes);
+                final String name = new String(nameBytes, StandardCharsets.UTF_8);
+                if (zip64Values != null || (size != ZIP64_MAGIC && compressedSize != ZIP64_MAGIC
+                        && localHeaderOffset != ZIP64_MAGIC)) {
+                    entriesByName.put(name, new Entry(name, method, crc, compressedSize, size,
+                            localHeaderOffset + location.prefixLength));
+                }
+            }
+
+            centralDirectory.position(nextPosition);
+        }
+
+        return entriesByName;
+    }
+
+    /**
+     * Reads the layout of an entry stored without compression whose contents
+     * end at the given offset from its local file header alone, without
+     * reading the central directory. This finds an entry appended by
+     * {@link #appendStoredEntry}, which ends where the central directory
+     * starts, when the size of its contents is known.
+     *
+     * @param channel the channel of the jar file
+     * @param end     the offset right after the contents of the entry
+     * @param size    the size of the contents of the entry
+     * @param name    the full name of the entry
+     * @return the entry, or null if there is no stored entry with this name
+     *         and size, and without extra field, ending at the given offset
+     * @throws IOException if the jar file cannot be read
+     */
+    static Entry readStoredEntryBefore(FileChannel channel, long end, long size, String name) throws IOException {
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        final long localHeaderOffset = end - size - LOCAL_FILE_HEADER_SIZE - nameBytes.length;
+        if (size < 0 || size >= ZIP64_MAGIC || localHeaderOffset < 0) {
+            return null;
+        }
+
+        final ByteBuffer header = ByteBuffer.allocate(LOCAL_FILE_HEADER_SIZE + nameBytes.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, localHeaderOffset);
+        if (header.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE || (header.getShort(8) & 0xffff) != METHOD_STORED
+                || (header.getInt(18) & ZIP64_MAGIC) != size || (header.getInt(22) & ZIP64_MAGIC) != size
+                || (header.getShort(26) & 0xffff) != nameBytes.length || header.getShort(28) != 0
+                || !startsWith(header, LOCAL_FILE_HEADER_SIZE, nameBytes.length, nameBytes)) {
+            return null;
+        }
+        return new Entry(name, METHOD_STORED, header.getInt(14), size, size, localHeaderOffset);
+    }
+
+    /**
+     * Returns the offset of the contents of an entry, which follow its local
+     * file header.
+     *
+     * @param channel the channel of the jar file
+     * @param entry   the entry
+     * @return the offset of the (possibly compressed) contents of the entry
+     * @throws IOException if the local file header cannot be read or is corrupt
+     */
+    static long readDataOffset(FileChannel channel, Entry entry) throws IOException {
+        return entry.localHeaderOffset + readLocalHeaderLength(channel, entry.localHeaderOffset, entry.name);
+    }
+
+    /**
+     * Returns the length of the local file header of an entry, which its
+     * contents follow.
+     *
+     * @param channel           the channel of the jar file
+     * @param localHeaderOffset the offset of the local file header
+     * @param name              the full name of the entry, for error messages
+     * @return the length of the local file header, with its name and extra
+     *         field
+     * @throws IOException if the local file header cannot be read or is corrupt
+     */
+    static int readLocalHeaderLength(FileChannel channel, long localHeaderOffset, String name) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(LOCAL_FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, localHeaderOffset);
+        if (header.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+            throw new IOException("Invalid local file header for " + name);
+        }
+
+        final int nameLength = header.getShort(26) & 0xffff;
+        final int extraLength = header.getShort(28) & 0xffff;
+        return LOCAL_FILE_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    /**
+     * Returns the offset at which {@link #appendStoredEntry} writes an entry
+     * with the given name. This is where the central directory starts, unless
+     * an entry with the same name is the last one before it, in which case
+     * that entry is overwritten.
+     *
+     * @param channel the channel of the jar file
+     * @param name    the full name of the entry
+     * @return the offset of the local file header of the appended entry
+     * @throws IOException if the central directory cannot be read or is corrupt
+     */
+    static long getAppendOffset(FileChannel channel, String name) throws IOException {
+        final Location location = locate(channel);
+        final Entry existingEntry = read(channel, name).get(name);
+        if (existingEntry != null
+                && readDataOffset(channel, existingEntry) + existingEntry.compressedSize == location.offset) {
+            return existingEntry.localHeaderOffset;
+        }
+        return location.offset;
+    }
+
+    /**
+     * Appends an entry stored without compression to a jar file, after all its
+     * existing entries, and rewrites the central directory after it. Since the
+     * existing entries are not moved, their offsets remain valid. Any existing
+     * entry with the same name is removed from the central directory.
+     *
+     * @param channel  the channel of the jar file, open for reading and writing
+     * @param name     the full name of the entry
+     * @param contents the contents of the entry
+     * @param modified the last modification time of the entry, in milliseconds
+     * @return the offset of the local file header of the appended entry, as
+     *         returned by {@link #getAppendOffset}
+     * @throws IOException if the jar file cannot be read or written
+     */
+    static long appendStoredEntry(FileChannel channel, String name, byte[] contents, long modified)
+            throws IOException {
+        final Location location = locate(channel);
+        final long offset = getAppendOffset(channel, name);
+        final long recordedOffset = offset - location.prefixLength;
+        if (recordedOffset > ZIP64_MAGIC - 1) {
+            throw new IOException("Jar file is too big to append entries to");
+        }
+
+        final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        final CRC32 crc = new CRC32();
+        crc.update(contents, 0, contents.length);
+        final int dosTime = toDosTime(modified);
+
+        // Copy the central directory without the replaced entry
+        final ByteBuffer oldCentralDirectory = readCentralDirectory(channel, location);
+        final ByteBuffer newCentralDirectory = ByteBuffer
+                .allocate(oldCentralDirectory.remaining() + CENTRAL_DIRECTORY_HEADER_SIZE + nameBytes.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        long entryCount = 0;
+        while (oldCentralDirectory.remaining() >= CENTRAL_DIRECTORY_HEADER_SIZE) {
+            final int position = oldCentralDirectory.position();
+            final int nameLength = oldCentralDirectory.getShort(position + 28) & 0xffff;
+            final int length = CENTRAL_DIRECTORY_HEADER_SIZE + nameLength
+                    + (oldCentralDirectory.getShort(position + 30) & 0xffff)
+                    + (oldCentralDirectory.getShort(position + 32) & 0xffff);
+            final boolean replaced = nameLength == nameBytes.length
+                    && startsWith(oldCentralDirectory, position + CENTRAL_DIRECTORY_HEADER_SIZE, nameLength, nameBytes);
+            if (!replaced) {
+                final ByteBuffer header = oldCentralDirectory.duplicate();
+                header.limit(position + length);
+                newCentralDirectory.put(header);
+                entryCount++;
+            }
+            oldCentralDirectory.position(position + length);
+        }
+
+        newCentralDirectory.putInt(CENTRAL_DIRECTORY_HEADER_SIGNATURE).putShort((short) 20).putShort((short) 20)
+                .putShort((short) 0x0800).putShort((short) METHOD_STORED).putInt(dosTime)
+                .putInt((int) crc.getValue()).putInt(contents.length).putInt(contents.length)
+                .putShort((short) nameBytes.length).putShort((short) 0).putShort((short) 0).putShort((short) 0)
+                .putShort((short) 0).putInt(0).putInt((int) recordedOffset).put(nameBytes);
+        entryCount++;
+        newCentralDirectory.flip();
+
+        final ByteBuffer localHeader = ByteBuffer.allocate(LOCAL_FILE_HEADER_SIZE + nameBytes.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        localHeader.putInt(LOCAL_FILE_HEADER_SIGNATURE).putShort((short) 20).putShort((short) 0x0800)
+                .putShort((short) METHOD_STORED).putInt(dosTime).putInt((int) crc.getValue())
+                .putInt(contents.length).putInt(contents.length).putShort((short) nameBytes.length)
+                .putShort((short) 0).put(nameBytes);
+        localHeader.flip();
+
+        // The offsets recorded in the archive do not count the bytes prepended to it
+        final long centralDirectoryOffset = recordedOffset + localHeader.remaining() + contents.length;
+        final long centralDirectorySize = newCentralDirectory.remaining();
+        final boolean zip64 = location.zip64 || entryCount >= 0xffff || centralDirectoryOffset >= ZIP64_MAGIC;
+        final ByteBuffer end = ByteBuffer.allocate(ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE
+                + ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE
+                + END_OF_CENTRAL_DIRECTORY_SIZE + location.comment.length).order(ByteOrder.LITTLE_ENDIAN);
+        if (zip64) {
+            final long zip64EndOffset = centralDirectoryOffset + centralDirectorySize;
+            end.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE).putLong(44).putShort((short) 45)
+                    .putShort((short) 45).putInt(0).putInt(0).putLong(entryCount).putLong(entryCount)
+                    .putLong(centralDirectorySize).putLong(centralDirectoryOffset);
+            end.putInt(ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE).putInt(0).putLong(zip64EndOffset)
+                    .putInt(1);
+        }
+        end.putInt(END_OF_CENTRAL_DIRECTORY_SIGNATURE).putShort((short) 0).putShort((short) 0)
+                .putShort((short) Math.min(entryCount, 0xffff)).putShort((short) Math.min(entryCount, 0xffff))
+                .putInt((int) Math.min(centralDirectorySize, ZIP64_MAGIC))
+                .putInt((int) Math.min(centralDirectoryOffset, ZIP64_MAGIC))
+                .putShort((short) location.comment.length).put(location.comment);
+        end.flip();
+
+        long position = offset;
+        for (ByteBuffer buffer : new ByteBuffer[] { localHeader, ByteBuffer.wrap(contents), newCentralDirectory,
+                end }) {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+        channel.truncate(position);
+        return offset;
+    }
+
+    /**
+     * Converts a time in milliseconds to the MS-DOS date and time format used
+     * by zip headers, in the local time zone.
+     */
+    private static int toDosTime(long time) {
+        final Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        final int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    /**
+     * Reads the whole central directory of a jar file, located through its
+     * (possibly ZIP64) end of central directory record.
+     *
+     * @param channel  the channel of the jar file
+     * @param location the location of the central directory
+     * @return the central directory, positioned at its first header
+     * @throws IOException if the central directory cannot be read
+     */
+    static ByteBuffer readCentralDirectory(FileChannel channel, Location location) throws IOException {
+        final ByteBuffer centralDirectory = ByteBuffer.allocate((int) location.size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, centralDirectory, location.offset);
+        centralDirectory.flip();
+        return centralDirectory;
+    }
+
+    /**
+     * Locates the central directory of a jar file through its (possibly ZIP64)
+     * end of central directory record. As the central directory is followed
+     * by that record, the number of bytes prepended to the archive is the
+     * difference between the actual and the recorded positions of the central
+     * directory, as computed by {@link java.util.zip.ZipFile}.
+     *
+     * @param channel the channel of the jar file
+     * @return the location of the central directory
+     * @throws IOException if the central directory cannot be located
+     */
+    static Location locate(FileChannel channel) throws IOException {
+        final long fileSize = channel.size();
+        final int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE
+                + ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE);
+        final long tailOffset = fileSize - tailSize;
+        final ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, tailOffset);
+
+        int endPosition = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE;
+        while (endPosition >= 0 && tail.getInt(endPosition) != END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+            endPosition--;
+        }
+        if (endPosition < 0) {
+            throw new IOException("End of central directory not found");
+        }
+
+        long entryCount = tail.getShort(endPosition + 10) & 0xffff;
+        long size = tail.getInt(endPosition + 12) & ZIP64_MAGIC;
+        long offset = tail.getInt(endPosition + 16) & ZIP64_MAGIC;
+        final int commentLength = Math.min(tail.getShort(endPosition + 20) & 0xffff,
+                tailSize - endPosition - END_OF_CENTRAL_DIRECTORY_SIZE);
+        final byte[] comment = new byte[commentLength];
+        tail.position(endPosition + END_OF_CENTRAL_DIRECTORY_SIZE);
+        tail.get(comment);
+
+        // The offset of the record that follows the central directory
+        long endOffset = tailOffset + endPosition;
+        boolean zip64 = false;
+        final int locatorPosition = endPosition - ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIZE;
+        if (locatorPosition >= 0
+                && tail.getInt(locatorPosition) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE) {
+            final ByteBuffer zip64End = ByteBuffer.allocate(ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            endOffset = tail.getLong(locatorPosition + 8);
+            if (endOffset < 0 || endOffset > fileSize - ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE
+                    || readZip64End(channel, zip64End, endOffset) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                // The recorded offset does not count prepended bytes, so look right before the locator
+                endOffset = tailOffset + locatorPosition - ZIP64_END_OF_CENTRAL_DIRECTORY_SIZE;
+                if (endOffset < 0
+                        || readZip64End(channel, zip64End, endOffset) != ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    throw new IOException("Invalid ZIP64 end of central directory");
+                }
+            }
+            entryCount = zip64End.getLong(32);
+            size = zip64End.getLong(40);
+            offset = zip64End.getLong(48);
+            zip64 = true;
+        }
+
+        final long prefixLength = endOffset - size - offset;
+        if (size > Integer.MAX_VALUE || size < 0 || offset < 0 || prefixLength < 0) {
+            throw new IOException("Invalid central directory bounds");
+        }
+        return new Location(offset + prefixLength, prefixLength, size, entryCount, zip64, comment);
+    }
+
+    /**
+     * Reads a ZIP64 end of central directory record.
+     *
+     * @return the signature of the record
+     */
+    private static int readZip64End(FileChannel channel, ByteBuffer zip64End, long offset) throws IOException {
+        zip64End.clear();
+        readFully(channel, zip64End, offset);
+        return zip64End.getInt(0);
+    }
+
+    /**
+     * Reads the ZIP64 values of a central directory header from its extra
+     * field. Only the values whose regular field is saturated are present.
+     *
+     * @return the size, compressed size and local header offset, each of them
+     *         negative if not present, or null if there is no ZIP64 extra field
+     */
+    private static long[] readZip64Values(ByteBuffer centralDirectory, int extraPosition, int extraLength,
+            boolean hasSize, boolean hasCompressedSize, boolean hasLocalHeaderOffset) {
+        final long[] values = { -1, -1, -1 };
+        int position = extraPosition;
+        final int extraEnd = extraPosition + extraLength;
+        while (position + 4 <= extraEnd) {
+            final int id = centralDirectory.getShort(position) & 0xffff;
+            final int length = centralDirectory.getShort(position + 2) & 0xffff;
+            if (id == ZIP64_EXTRA_FIELD_ID) {
+                int valuePosition = position + 4;
+                final boolean[] present = { hasSize, hasCompressedSize, hasLocalHeaderOffset };
+                for (int i = 0; i < values.length; i++) {
+                    if (present[i] && valuePosition + 8 <= position + 4 + length) {
+                        values[i] = centralDirectory.getLong(valuePosition);
+                        valuePosition += 8;
+                    }
+                }
+                return values;
+            }
+            position += 4 + length;
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the bytes at the given position start with a prefix.
+     */
+    private static boolean startsWith(ByteBuffer buffer, int position, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(position + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fills a buffer from a channel, starting at the given file position.
+     *
+     * @param channel  the channel to read from
+     * @param buffer   the buffer to fill
+     * @param position the file position of the first byte to read
+     * @throws IOException if the channel ends before the buffer is filled
+     */
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new IOException("Unexpected end of jar file");
+            }
+            position += count;
+        }
+    }
+}
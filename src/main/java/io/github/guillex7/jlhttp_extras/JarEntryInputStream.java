@@ -0,0 +1,233 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * The {@code JarEntryInputStream} class reads the decompressed contents of a
+ * jar entry stored without compression or compressed with deflate, using
+ * positional reads on a channel over the jar file.
+ * <p>
+ * Unlike the streams returned by {@link java.util.jar.JarFile}, these streams
+ * do not share any state with each other, so that concurrent reads of the jar
+ * file do not contend on its handle or on the bookkeeping of inflaters.
+ */
+final class JarEntryInputStream extends InputStream {
+    private final FileChannel channel;
+    private final JarStreamPool pool;
+    /**
+     * The inflater of a deflated entry, or null for a stored entry or after
+     * the stream is closed.
+     */
+    private Inflater inflater;
+    /**
+     * Whether {@link #inflater} was taken from the pool, rather than created
+     * because none was released in time.
+     */
+    private boolean pooledInflater;
+    /**
+     * The pooled buffer holding the compressed bytes being inflated, or null
+     * for a stored entry or after the stream is closed.
+     */
+    private byte[] buffer;
+    /**
+     * The position in the jar file of the next byte to read.
+     */
+    private long position;
+    /**
+     * The number of (possibly compressed) bytes of the entry left to read from
+     * the jar file.
+     */
+    private long remaining;
+    /**
+     * The number of decompressed bytes to discard before the first byte
+     * returned by the stream.
+     */
+    private long skip;
+    /**
+     * The checkpoint from which a deflated entry is inflated, until its first
+     * compressed byte has been fed to the inflater, or null.
+     */
+    private InflateCheckpoints.Checkpoint checkpoint;
+    /**
+     * The bits that replace the low bits of the first compressed byte when
+     * inflating from {@link #checkpoint}.
+     */
+    private int checkpointFirstBits;
+    private boolean closed;
+
+    /**
+     * Creates a new {@code JarEntryInputStream} over the decompressed contents
+     * of a jar resource, starting at the given offset. Stored resources are
+     * read from the offset directly; deflated resources are inflated from the
+     * given checkpoint, or from the beginning, and the bytes before the offset
+     * are discarded.
+     *
+     * @param channel    the channel over the jar file
+     * @param pool       the pool from which the inflater and buffer of a
+     *                   deflated resource are taken, and to which they are
+     *                   returned when the stream is closed; if no pooled
+     *                   inflater is released in time, the stream uses one of
+     *                   its own
+     * @param resource   the resource, which must be stored without compression
+     *                   or deflated at a known offset
+     * @param offset     the offset of the first byte to read
+     * @param checkpoint the checkpoint at or before the offset from which a
+     *                   deflated resource is inflated, or null
+     * @throws IOException if the thread is interrupted while waiting for an
+     *                     inflater, or inflation cannot be resumed from the
+     *                     checkpoint
+     */
+    JarEntryInputStream(FileChannel channel, JarStreamPool pool, JarResource resource, long offset,
+            InflateCheckpoints.Checkpoint checkpoint) throws IOException {
+        this.channel = channel;
+        this.pool = pool;
+        this.position = resource.getDataOffset();
+        this.remaining = resource.getCompressedSize();
+        if (!resource.isDeflated()) {
+            this.position += offset;
+            this.remaining -= offset;
+            return;
+        }
+
+        this.inflater = pool.acquireInflater();
+        this.pooledInflater = this.inflater != null;
+        if (!this.pooledInflater) {
+            this.inflater = new Inflater(true);
+        }
+        this.buffer = pool.acquireBuffer();
+        this.skip = offset;
+        if (checkpoint != null) {
+            try {
+                this.checkpointFirstBits = checkpoint.prime(this.inflater);
+            } catch (IOException | RuntimeException e) {
+                this.close();
+                throw e;
+            }
+            this.checkpoint = checkpoint;
+            this.position += checkpoint.bitOffset >>> 3;
+            this.remaining -= checkpoint.bitOffset >>> 3;
+            this.skip -= checkpoint.outputOffset;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return this.read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        return this.inflater == null ? this.readStored(b, off, len) : this.readDeflated(b, off, len);
+    }
+
+    private int readStored(byte[] b, int off, int len) throws IOException {
+        if (this.remaining == 0) {
+            return -1;
+        }
+
+        final ByteBuffer target = ByteBuffer.wrap(b, off, (int) Math.min(len, this.remaining));
+        final int count = this.channel.read(target, this.position);
+        if (count < 0) {
+            throw new EOFException("Unexpected end of jar file");
+        }
+        this.position += count;
+        this.remaining -= count;
+        return count;
+    }
+
+    private int readDeflated(byte[] b, int off, int len) throws IOException {
+        while (this.skip > 0) {
+            final int count = this.inflate(b, off, (int) Math.min(len, this.skip));
+            if (count < 0) {
+                return -1;
+            }
+            this.skip -= count;
+        }
+        return this.inflate(b, off, len);
+    }
+
+    private int inflate(byte[] b, int off, int len) throws IOException {
+        try {
+            while (true) {
+                final int count = this.inflater.inflate(b, off, len);
+                if (count > 0) {
+                    return count;
+                }
+                if (this.inflater.finished()) {
+                    return -1;
+                }
+                if (this.inflater.needsDictionary()) {
+                    throw new ZipException("Invalid deflate data");
+                }
+                if (this.inflater.needsInput()) {
+                    this.fill();
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid deflate data");
+        }
+    }
+
+    /**
+     * Reads the next compressed bytes of the entry and passes them to the
+     * inflater.
+     */
+    private void fill() throws IOException {
+        if (this.remaining == 0) {
+            throw new EOFException("Unexpected end of deflated entry");
+        }
+
+        final int length = (int) Math.min(this.buffer.length, this.remaining);
+        final int count = this.channel.read(ByteBuffer.wrap(this.buffer, 0, length), this.position);
+        if (count < 0) {
+            throw new EOFException("Unexpected end of jar file");
+        }
+        this.position += count;
+        this.remaining -= count;
+        if (this.checkpoint != null) {
+            this.buffer[0] = (byte) this.checkpoint.mergeFirstByte(this.buffer[0] & 0xff, this.checkpointFirstBits);
+            this.checkpoint = null;
+        }
+        this.inflater.setInput(this.buffer, 0, count);
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (this.closed) {
+            return 0;
+        }
+        return this.inflater == null ? (int) Math.min(this.remaining, Integer.MAX_VALUE) : 0;
+    }
+
+    @Override
+    public void close() {
+        if (!this.closed) {
+            this.closed = true;
+            if (this.inflater != null) {
+                if (this.pooledInflater) {
+                    this.pool.releaseInflater(this.inflater);
+                } else {
+                    this.inflater.end();
+                }
+                this.pool.releaseBuffer(this.buffer);
+                this.inflater = null;
+                this.buffer = null;
+            }
+        }
+    }
+}
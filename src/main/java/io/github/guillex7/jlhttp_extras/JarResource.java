@@ -0,0 +1,270 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.util.jar.JarEntry;
+
+/**
+ * The {@code JarResource} class is a view of a resource served by a
+ * {@link JarResourceContextHandler}. It exposes the attributes of the resource
+ * along with the response metadata derived from them, which is computed once
+ * by the {@link JarResourceIndex} holding the resource instead of on every
+ * request.
+ * <p>
+ * Views are lightweight and created on lookup, so that the index does not need
+ * to keep one object per resource.
+ */
+final class JarResource {
+    private static final String[] NO_ENCODINGS = new String[0];
+
+    /**
+     * The index holding the resource.
+     */
+    private final JarResourceIndex index;
+    /**
+     * The row of the resource whose contents are served.
+     */
+    private final int row;
+    /**
+     * The row of the requested resource, which differs from {@link #row} when
+     * this view represents a precompressed variant of it.
+     */
+    private final int originalRow;
+    /**
+     * The index of the content encoding of the resource in
+     * {@link JarResourceIndex#PRECOMPRESSED_ENCODINGS}, or -1 if the contents
+     * are not encoded.
+     */
+    private final int encodingIndex;
+    /**
+     * Whether the resource was requested through its fingerprinted alias, so
+     * that its contents can never change.
+     */
+    private final boolean immutable;
+
+    /**
+     * Creates a new {@code JarResource} view.
+     *
+     * @param index         the index holding the resource
+     * @param row           the row of the resource whose contents are served
+     * @param originalRow   the row of the requested resource
+     * @param encodingIndex the index of the content encoding, or -1 if the
+     *                      contents are not encoded
+     * @param immutable     whether the resource was requested through its
+     *                      fingerprinted alias
+     */
+    JarResource(JarResourceIndex index, int row, int originalRow, int encodingIndex, boolean immutable) {
+        this.index = index;
+        this.row = row;
+        this.originalRow = originalRow;
+        this.encodingIndex = encodingIndex;
+        this.immutable = immutable;
+    }
+
+    /**
+     * Returns the name of the resource, relative to the base path.
+     *
+     * @return the name of the resource
+     */
+    String getName() {
+        return this.index.getName(this.row);
+    }
+
+    /**
+     * Returns the full name of the jar entry of the resource.
+     *
+     * @return the name of the jar entry
+     */
+    String getEntryName() {
+        return this.index.getEntryName(this.row);
+    }
+
+    /**
+     * Returns the offset of the (possibly compressed) contents of the resource
+     * within the jar file.
+     *
+     * @return the offset of the contents, or -1 if unknown
+     */
+    long getDataOffset() {
+        return this.index.getDataOffset(this.row);
+    }
+
+    /**
+     * Returns the compression method of the jar entry of the resource.
+     *
+     * @return the compression method
+     */
+    int getMethod() {
+        return this.index.getMethod(this.row);
+    }
+
+    /**
+     * Returns whether the resource is stored without compression at a known
+     * offset, so that its contents can be read directly from the jar file.
+     *
+     * @return true if the contents can be read directly
+     */
+    boolean isStored() {
+        return this.getDataOffset() >= 0 && this.getMethod() == JarEntry.STORED
+                && this.getCompressedSize() == this.getLength();
+    }
+
+    /**
+     * Returns whether the resource is compressed with deflate at a known
+     * offset, so that its compressed contents can be read directly from the
+     * jar file.
+     *
+     * @return true if the compressed contents can be read directly
+     */
+    boolean isDeflated() {
+        return this.getDataOffset() >= 0 && this.getMethod() == JarEntry.DEFLATED && this.getCompressedSize() >= 0;
+    }
+
+    /**
+     * Returns the size of the compressed contents of the resource.
+     *
+     * @return the compressed size, in bytes
+     */
+    long getCompressedSize() {
+        return this.index.getCompressedSize(this.row);
+    }
+
+    /**
+     * Returns the CRC-32 of the decompressed contents of the resource.
+     *
+     * @return the CRC-32
+     */
+    int getCrc() {
+        return this.index.getCrc(this.row);
+    }
+
+    /**
+     * Returns the length of the decompressed contents of the resource.
+     *
+     * @return the length, in bytes
+     */
+    long getLength() {
+        return this.index.getLength(this.row);
+    }
+
+    /**
+     * Returns the last modification time of the resource.
+     *
+     * @return the last modification time, in milliseconds
+     */
+    long getLastModified() {
+        return this.index.getLastModified(this.row);
+    }
+
+    /**
+     * Returns the last modification time of the resource, rounded down to
+     * seconds, as required by conditional request evaluation.
+     *
+     * @return the last modification time, in milliseconds
+     */
+    long getLastModifiedInSeconds() {
+        final long lastModified = this.getLastModified();
+        return lastModified - lastModified % 1000;
+    }
+
+    /**
+     * Returns the formatted value of the Last-Modified header.
+     *
+     * @return the Last-Modified header value
+     */
+    String getLastModifiedHeader() {
+        return this.index.getLastModifiedHeader(this.row);
+    }
+
+    /**
+     * Returns the value of the ETag header. The ETag of a precompressed
+     * variant differs from those of both the original resource and the
+     * variant served on its own.
+     *
+     * @return the ETag header value
+     */
+    String getETag() {
+        return this.encodingIndex < 0 ? this.index.getETag(this.row)
+                : this.index.getVariantETag(this.row, this.encodingIndex);
+    }
+
+    /**
+     * Returns the value of the ETag header for the gzip encoded representation
+     * of the resource.
+     *
+     * @return the ETag header value
+     */
+    String getGzipETag() {
+        return this.index.getGzipETag(this.row);
+    }
+
+    /**
+     * Returns the value of the Content-Type header, which is the one of the
+     * original resource for precompressed variants.
+     *
+     * @return the Content-Type header value
+     */
+    String getContentType() {
+        return this.index.getContentType(this.originalRow);
+    }
+
+    /**
+     * Returns whether the resource was requested through its fingerprinted
+     * alias.
+     *
+     * @return true if the resource was requested through its alias
+     */
+    boolean isImmutable() {
+        return this.immutable;
+    }
+
+    /**
+     * Returns the value of the Cache-Control header, which is
+     * {@link CacheControlPolicy#IMMUTABLE} for resources requested through
+     * their fingerprinted aliases, or decided by the policy of the handler
+     * for the original resource otherwise.
+     *
+     * @return the Cache-Control header value, or null if none is sent
+     */
+    String getCacheControl() {
+        return this.immutable ? CacheControlPolicy.IMMUTABLE : this.index.getCacheControl(this.originalRow);
+    }
+
+    /**
+     * Returns the value of the Content-Encoding header.
+     *
+     * @return the Content-Encoding header value, or null if the contents are
+     *         not encoded
+     */
+    String getContentEncoding() {
+        return this.encodingIndex < 0 ? null : JarResourceIndex.PRECOMPRESSED_ENCODINGS[this.encodingIndex];
+    }
+
+    /**
+     * Returns the content encodings of the precompressed variants of the
+     * resource.
+     *
+     * @return the content encodings, which must not be modified
+     */
+    String[] getVariantEncodings() {
+        return this.encodingIndex < 0 ? this.index.getVariantEncodings(this.row) : NO_ENCODINGS;
+    }
+
+    /**
+     * Returns the precompressed variant of the resource with the given content
+     * encoding.
+     *
+     * @param contentEncoding the content encoding
+     * @return the variant, or null if there is none with the content encoding
+     */
+    JarResource getVariant(String contentEncoding) {
+        if (this.encodingIndex >= 0) {
+            return null;
+        }
+        for (int i = 0; i < JarResourceIndex.PRECOMPRESSED_ENCODINGS.length; i++) {
+            if (JarResourceIndex.PRECOMPRESSED_ENCODINGS[i].equals(contentEncoding)) {
+                final int variantRow = this.index.getVariantRow(this.row, i);
+                return variantRow >= 0 ? new JarResource(this.index, variantRow, this.row, i, this.immutable) : null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,566 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * The {@code JarResourceCache} keeps the decompressed contents of jar entries
+ * in memory, so that frequently requested resources can be served without
+ * inflating them again on every request.
+ * The cache is bounded by a total byte budget and by a per-entry size cap,
+ * and evicts the least recently used entries when the budget is exceeded.
+ * Entries are keyed by the resource name used by the owning
+ * {@link JarResourceContextHandler}, so a cache instance must not be shared
+ * between handlers.
+ * <p>
+ * Contents can be stored either in the Java heap or off-heap, in fixed-size
+ * direct {@link ByteBuffer} slabs. Off-heap storage keeps big caches out of
+ * the old generation; slabs are allocated lazily up to the byte budget and
+ * are reused for new entries once the entries holding them are evicted.
+ */
+public class JarResourceCache {
+    /**
+     * The default size of the slabs used by the off-heap storage.
+     */
+    public static final int DEFAULT_SLAB_SIZE = 64 * 1024;
+
+    /**
+     * The size of the chunks used to copy contents from and to the off-heap
+     * slabs.
+     */
+    private static final int COPY_CHUNK_SIZE = 16 * 1024;
+
+    /**
+     * The chunk used by each thread to copy contents from and to the off-heap
+     * slabs.
+     */
+    private static final ThreadLocal<byte[]> COPY_CHUNKS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[COPY_CHUNK_SIZE];
+        }
+    };
+
+    /**
+     * The kind of memory in which the cached contents are stored.
+     */
+    public enum Storage {
+        /**
+         * Contents are stored in byte arrays in the Java heap.
+         */
+        HEAP,
+        /**
+         * Contents are stored in direct byte buffer slabs outside the Java heap.
+         */
+        OFF_HEAP
+    }
+
+    /**
+     * The cached contents by resource name, in least recently used order.
+     */
+    private final LinkedHashMap<String, Contents> contentsByName = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * The off-heap slabs that are allocated but not in use by any contents.
+     */
+    private final ArrayDeque<ByteBuffer> freeSlabs = new ArrayDeque<>();
+    /**
+     * The maximum number of bytes that all cached entries can take together.
+     */
+    private final long maxTotalBytes;
+    /**
+     * The maximum number of bytes that a single cached entry can take.
+     */
+    private final long maxEntryBytes;
+    /**
+     * The kind of memory in which the cached contents are stored.
+     */
+    private final Storage storage;
+    /**
+     * The size of each off-heap slab.
+     */
+    private final int slabSize;
+    /**
+     * The number of bytes held by the cached entries, including the evicted
+     * ones whose storage has not been reclaimed yet.
+     */
+    private long totalBytes;
+    /**
+     * The number of bytes of off-heap slabs allocated so far, either in use or
+     * free.
+     */
+    private long allocatedSlabBytes;
+
+    /**
+     * Creates a new {@code JarResourceCache} with the given limits, that stores
+     * the contents in the Java heap.
+     *
+     * @param maxTotalBytes the maximum number of bytes that all cached entries
+     *                      can take together
+     * @param maxEntryBytes the maximum number of bytes that a single cached entry
+     *                      can take, entries bigger than this are never cached
+     */
+    public JarResourceCache(long maxTotalBytes, long maxEntryBytes) {
+        this(maxTotalBytes, maxEntryBytes, Storage.HEAP);
+    }
+
+    /**
+     * Creates a new {@code JarResourceCache} with the given limits, that stores
+     * the contents in the given kind of memory. Off-heap storage uses slabs of
+     * {@link #DEFAULT_SLAB_SIZE} bytes.
+     *
+     * @param maxTotalBytes the maximum number of bytes that all cached entries
+     *                      can take together
+     * @param maxEntryBytes the maximum number of bytes that a single cached entry
+     *                      can take, entries bigger than this are never cached
+     * @param storage       the kind of memory in which contents are stored
+     */
+    public JarResourceCache(long maxTotalBytes, long maxEntryBytes, Storage storage) {
+        this(maxTotalBytes, maxEntryBytes, storage, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * Creates a new {@code JarResourceCache} with the given limits, that stores
+     * the contents in the given kind of memory.
+     *
+     * @param maxTotalBytes the maximum number of bytes that all cached entries
+     *                      can take together
+     * @param maxEntryBytes the maximum number of bytes that a single cached entry
+     *                      can take, entries bigger than this are never cached
+     * @param storage       the kind of memory in which contents are stored
+     * @param slabSize      the size of each off-heap slab, ignored when storing
+     *                      contents in the Java heap
+     */
+    public JarResourceCache(long maxTotalBytes, long maxEntryBytes, Storage storage, int slabSize) {
+        if (maxTotalBytes < 0 || maxEntryBytes < 0) {
+            throw new IllegalArgumentException("Cache limits must not be negative");
+        }
+        if (slabSize <= 0) {
+            throw new IllegalArgumentException("Slab size must be positive");
+        }
+
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxEntryBytes = Math.min(Math.min(maxEntryBytes, maxTotalBytes), Integer.MAX_VALUE);
+        this.storage = storage;
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * Returns the maximum number of bytes that all cached entries can take
+     * together.
+     *
+     * @return the total byte budget of the cache
+     */
+    public long getMaxTotalBytes() {
+        return this.maxTotalBytes;
+    }
+
+    /**
+     * Returns the maximum number of bytes that a single cached entry can take.
+     *
+     * @return the per-entry size cap of the cache
+     */
+    public long getMaxEntryBytes() {
+        return this.maxEntryBytes;
+    }
+
+    /**
+     * Returns the kind of memory in which the cached contents are stored.
+     *
+     * @return the storage of the cache
+     */
+    public Storage getStorage() {
+        return this.storage;
+    }
+
+    /**
+     * Returns the number of bytes that the cached entries currently take.
+     * For off-heap storage, this is rounded up to whole slabs.
+     *
+     * @return the number of cached bytes
+     */
+    public synchronized long getTotalBytes() {
+        return this.totalBytes;
+    }
+
+    /**
+     * Returns the number of bytes of off-heap slabs allocated so far, either
+     * in use or free. Slabs are never released back to the system while the
+     * cache is alive.
+     *
+     * @return the number of allocated off-heap bytes
+     */
+    public synchronized long getAllocatedSlabBytes() {
+        return this.allocatedSlabBytes;
+    }
+
+    /**
+     * Returns whether an entry of the given size can be cached at all. For
+     * off-heap storage, the entry rounded up to whole slabs must also fit
+     * within the total byte budget, otherwise caching it would evict every
+     * other entry and still fail.
+     *
+     * @param size the size of the entry, in bytes
+     * @return true if the entry fits within the per-entry size cap and the
+     *         total byte budget
+     */
+    public boolean accepts(long size) {
+        if (size < 0 || size > this.maxEntryBytes) {
+            return false;
+        }
+        return this.storage == Storage.HEAP
+                || (size + this.slabSize - 1) / this.slabSize * this.slabSize <= this.maxTotalBytes;
+    }
+
+    /**
+     * Returns the cached contents of the given resource, marking it as the most
+     * recently used one. The returned contents must be
+     * {@link Contents#release() released} once they are no longer used.
+     *
+     * @param name the name of the resource
+     * @return the cached contents, or null if the resource is not cached
+     */
+    public synchronized Contents get(String name) {
+        final Contents contents = this.contentsByName.get(name);
+        if (contents != null) {
+            contents.references++;
+        }
+        return contents;
+    }
+
+    /**
+     * Reads the contents of the given resource from a stream and caches them,
+     * evicting the least recently used entries as needed to respect the total
+     * byte budget. The returned contents must be
+     * {@link Contents#release() released} once they are no longer used.
+     *
+     * @param name the name of the resource
+     * @param in   the stream from which the decompressed contents are read
+     * @param size the size of the decompressed contents
+     * @return the cached contents, or null if they could not be cached because
+     *         they are too big or the storage is exhausted
+     * @throws IOException
+     */
+    public Contents put(String name, InputStream in, long size) throws IOException {
+        if (!this.accepts(size)) {
+            return null;
+        }
+
+        final Contents contents = this.allocate((int) size);
+        if (contents == null) {
+            return null;
+        }
+
+        try {
+            contents.readFrom(in);
+        } catch (IOException e) {
+            synchronized (this) {
+                contents.evicted = true;
+                contents.releaseLocked();
+            }
+            throw e;
+        }
+
+        synchronized (this) {
+            final Contents previousContents = this.contentsByName.put(name, contents);
+            if (previousContents != null) {
+                this.evict(previousContents);
+            }
+
+            // Pinned entries are skipped, as evicting them would not reduce the total until they are released
+            final Iterator<Contents> eldestContents = this.contentsByName.values().iterator();
+            while (this.storage == Storage.HEAP && this.totalBytes > this.maxTotalBytes
+                    && eldestContents.hasNext()) {
+                final Contents eldest = eldestContents.next();
+                if (eldest == contents) {
+                    break;
+                }
+                if (eldest.references == 0) {
+                    eldestContents.remove();
+                    this.evict(eldest);
+                }
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Removes all the cached entries. Off-heap slabs in use by contents that
+     * are still being sent are reclaimed once they are released.
+     */
+    public synchronized void clear() {
+        for (Contents contents : this.contentsByName.values()) {
+            this.evict(contents);
+        }
+        this.contentsByName.clear();
+    }
+
+    /**
+     * Allocates the storage for contents of the given size, evicting the least
+     * recently used entries if the off-heap storage is exhausted. Only entries
+     * that are not pinned are evicted, since the slabs of the pinned ones
+     * cannot be reused until they are released; if evicting all the others
+     * would not free enough slabs, nothing is evicted.
+     * The allocated contents are not yet visible through {@link #get(String)}.
+     *
+     * @param size the size of the contents
+     * @return the allocated contents, or null if there is not enough storage
+     */
+    private synchronized Contents allocate(int size) {
+        if (this.storage == Storage.HEAP) {
+            this.totalBytes += size;
+            return new Contents(new byte[size], null, size);
+        }
+
+        final int slabCount = (size + this.slabSize - 1) / this.slabSize;
+        final long slabBytes = (long) slabCount * this.slabSize;
+        final long unallocatedSlabs = (this.maxTotalBytes - this.allocatedSlabBytes) / this.slabSize;
+        final long missingSlabs = slabCount - this.freeSlabs.size() - unallocatedSlabs;
+        if (missingSlabs > 0) {
+            long reclaimableSlabs = 0;
+            for (Contents cached : this.contentsByName.values()) {
+                if (cached.references == 0) {
+                    reclaimableSlabs += cached.slabs.length;
+                }
+            }
+            if (reclaimableSlabs < missingSlabs) {
+                return null;
+            }
+
+            final Iterator<Contents> eldestContents = this.contentsByName.values().iterator();
+            long reclaimedSlabs = 0;
+            while (reclaimedSlabs < missingSlabs) {
+                final Contents eldest = eldestContents.next();
+                if (eldest.references == 0) {
+                    eldestContents.remove();
+                    this.evict(eldest);
+                    reclaimedSlabs += eldest.slabs.length;
+                }
+            }
+        }
+
+        final ByteBuffer[] slabs = new ByteBuffer[slabCount];
+        for (int i = 0; i < slabCount; i++) {
+            ByteBuffer slab = this.freeSlabs.poll();
+            if (slab == null) {
+                slab = ByteBuffer.allocateDirect(this.slabSize);
+                this.allocatedSlabBytes += this.slabSize;
+            }
+            slabs[i] = slab;
+        }
+        this.totalBytes += slabBytes;
+        return new Contents(null, slabs, size);
+    }
+
+    /**
+     * Marks the given contents as evicted, reclaiming their storage as soon as
+     * they are no longer in use.
+     *
+     * @param contents the evicted contents
+     */
+    private void evict(Contents contents) {
+        contents.evicted = true;
+        if (contents.references == 0) {
+            this.reclaim(contents);
+        }
+    }
+
+    /**
+     * Reclaims the storage of evicted contents that are no longer in use,
+     * returning their off-heap slabs to the free list.
+     *
+     * @param contents the reclaimed contents
+     */
+    private void reclaim(Contents contents) {
+        if (contents.slabs != null) {
+            for (ByteBuffer slab : contents.slabs) {
+                this.freeSlabs.push(slab);
+            }
+            this.totalBytes -= (long) contents.slabs.length * this.slabSize;
+        } else {
+            this.totalBytes -= contents.length;
+        }
+    }
+
+    /**
+     * The {@code Contents} class holds the decompressed contents of a cached
+     * resource, either in a heap byte array or in a sequence of off-heap slabs.
+     * Contents obtained from the cache are pinned until they are released, so
+     * that their slabs are not reused while they are being sent.
+     */
+    public class Contents {
+        /**
+         * The contents, when stored in the Java heap.
+         */
+        private final byte[] bytes;
+        /**
+         * The slabs holding the contents, when stored off-heap.
+         */
+        private final ByteBuffer[] slabs;
+        /**
+         * The length of the contents.
+         */
+        private final int length;
+        /**
+         * The number of users of the contents, guarded by the cache.
+         */
+        private int references = 1;
+        /**
+         * Whether the contents were evicted from the cache, guarded by the
+         * cache.
+         */
+        private boolean evicted;
+
+        /**
+         * Creates new contents backed by the given storage.
+         *
+         * @param bytes  the heap storage, or null if stored off-heap
+         * @param slabs  the off-heap storage, or null if stored in the heap
+         * @param length the length of the contents
+         */
+        private Contents(byte[] bytes, ByteBuffer[] slabs, int length) {
+            this.bytes = bytes;
+            this.slabs = slabs;
+            this.length = length;
+        }
+
+        /**
+         * Returns the length of the contents.
+         *
+         * @return the length of the contents, in bytes
+         */
+        public int getLength() {
+            return this.length;
+        }
+
+        /**
+         * Writes a slice of the contents to the given stream.
+         * Off-heap contents are copied in small chunks, without materializing
+         * the whole slice in the heap.
+         *
+         * @param out    the stream to write the contents to
+         * @param offset the offset of the first byte to write
+         * @param length the number of bytes to write
+         * @throws IOException
+         */
+        public void writeTo(OutputStream out, long offset, long length) throws IOException {
+            if (this.bytes != null) {
+                out.write(this.bytes, (int) offset, (int) length);
+                return;
+            }
+
+            final byte[] chunk = COPY_CHUNKS.get();
+            int slabIndex = (int) (offset / JarResourceCache.this.slabSize);
+            int slabOffset = (int) (offset % JarResourceCache.this.slabSize);
+            long remaining = length;
+            while (remaining > 0) {
+                final ByteBuffer slab = this.slabs[slabIndex].duplicate();
+                slab.position(slabOffset);
+                while (remaining > 0 && slab.hasRemaining()) {
+                    final int count = (int) Math.min(Math.min(chunk.length, slab.remaining()), remaining);
+                    slab.get(chunk, 0, count);
+                    out.write(chunk, 0, count);
+                    remaining -= count;
+                }
+                slabIndex++;
+                slabOffset = 0;
+            }
+        }
+
+        /**
+         * Copies the whole contents into an array.
+         *
+         * @param target       the array to copy the contents to
+         * @param targetOffset the offset in the array of the first byte copied
+         */
+        void copyTo(byte[] target, int targetOffset) {
+            if (this.bytes != null) {
+                System.arraycopy(this.bytes, 0, target, targetOffset, this.length);
+                return;
+            }
+
+            int remaining = this.length;
+            for (ByteBuffer slab : this.slabs) {
+                final ByteBuffer view = slab.duplicate();
+                view.clear();
+                final int count = Math.min(view.remaining(), remaining);
+                view.get(target, targetOffset, count);
+                targetOffset += count;
+                remaining -= count;
+                if (remaining == 0) {
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Releases the contents, allowing their storage to be reclaimed once
+         * they are evicted.
+         */
+        public void release() {
+            synchronized (JarResourceCache.this) {
+                this.releaseLocked();
+            }
+        }
+
+        /**
+         * Releases the contents while holding the cache lock.
+         */
+        private void releaseLocked() {
+            this.references--;
+            if (this.references == 0 && this.evicted) {
+                JarResourceCache.this.reclaim(this);
+            }
+        }
+
+        /**
+         * Fills the contents from the given stream.
+         *
+         * @param in the stream from which the contents are read
+         * @throws IOException
+         */
+        private void readFrom(InputStream in) throws IOException {
+            if (this.bytes != null) {
+                readFully(in, this.bytes, 0, this.length);
+                return;
+            }
+
+            final byte[] chunk = COPY_CHUNKS.get();
+            int remaining = this.length;
+            for (ByteBuffer slab : this.slabs) {
+                final ByteBuffer view = slab.duplicate();
+                view.clear();
+                while (remaining > 0 && view.hasRemaining()) {
+                    final int count = Math.min(Math.min(chunk.length, view.remaining()), remaining);
+                    readFully(in, chunk, 0, count);
+                    view.put(chunk, 0, count);
+                    remaining -= count;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads exactly the given number of bytes from a stream.
+     *
+     * @param in     the stream to read from
+     * @param buffer the buffer into which bytes are read
+     * @param offset the offset in the buffer of the first byte read
+     * @param length the number of bytes to read
+     * @throws IOException if the stream ends before all the bytes are read
+     */
+    private static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            final int count = in.read(buffer, offset, length);
+            if (count < 0) {
+                throw new IOException("unexpected end of stream");
+            }
+            offset += count;
+            length -= count;
+        }
+    }
+}
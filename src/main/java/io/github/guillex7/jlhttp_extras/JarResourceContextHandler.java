@@ -1,15 +1,40 @@
 package io.github.guillex7.jlhttp_extras;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.JarURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
+import java.util.zip.CRC32;
 
 import net.freeutils.httpserver.HTTPServer;
 import net.freeutils.httpserver.HTTPServer.ContextHandler;
@@ -23,21 +48,141 @@ import net.freeutils.httpserver.HTTPServer.Response;
  * (recursively), the context path must end with a wildcard path parameter named
  * "*",
  * e.g. "/path/{*}" (with slash) or "/path{*}" (with or without slash).
+ * <p>
+ * Handlers read the jar file through a channel of their own, which is released
+ * by {@link #close()} once the handler is no longer used.
  */
-public class JarResourceContextHandler implements ContextHandler {
+public class JarResourceContextHandler implements ContextHandler, Closeable {
     /**
-     * The map of jar entries by their names. Names are relative to the base path,
-     * which is the directory in the jar file that this context handler serves.
+     * The gzip header sent before the compressed contents of deflated resources:
+     * deflate method, no flags, no modification time and unknown OS.
      */
-    private final Map<String, JarEntry> jarEntriesByName = new HashMap<>();
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    /**
+     * The number of bytes that the gzip header and trailer add to the compressed
+     * contents.
+     */
+    private static final int GZIP_OVERHEAD = GZIP_HEADER.length + 8;
+    /**
+     * The number of hexadecimal digits of the content hash in fingerprinted
+     * aliases.
+     */
+    private static final int FINGERPRINT_LENGTH = 10;
+    /**
+     * The body of 404 responses, the same as the one sent by
+     * {@link Response#sendError(int)}, which formats it on every call.
+     */
+    private static final String NOT_FOUND_TEXT = String.format(
+            "<!DOCTYPE html>%n<html>%n<head><title>404 Not Found</title></head>%n"
+                    + "<body><h1>404 Not Found</h1>%n<p>%s</p>%n</body></html>",
+            HTTPServer.escapeHTML("sorry it didn't work out :("));
+    /**
+     * The headers that end the responses sent with a single write, after the
+     * Date header, as sent by jlhttp.
+     */
+    private static final byte[] PREPARED_HEADERS_END = getPreparedHeadersEnd();
+    /**
+     * The header added to the responses sent with a single write when the
+     * client asked for the connection to be closed, as jlhttp does.
+     */
+    private static final byte[] CONNECTION_CLOSE_HEADER = "Connection: close\r\n"
+            .getBytes(StandardCharsets.ISO_8859_1);
+    /**
+     * The encoded body of 404 responses.
+     */
+    private static final byte[] NOT_FOUND_BODY = NOT_FOUND_TEXT.getBytes(StandardCharsets.UTF_8);
+    /**
+     * The ETag of 404 responses, derived from their body.
+     */
+    private static final String NOT_FOUND_ETAG = "W/\"" + Integer.toHexString(NOT_FOUND_TEXT.hashCode()) + "\"";
+    /**
+     * The Date header of the current second, shared by all the responses sent
+     * with a single write.
+     */
+    private static volatile DateHeader dateHeader = new DateHeader(0);
+    /**
+     * The index of jar resources by their names. Names are relative to the base
+     * path, which is the directory in the jar file that this context handler
+     * serves.
+     */
+    private JarResourceIndex resourceIndex;
+    /**
+     * Whether the resources were loaded from the resource index written into
+     * the jar file, instead of by scanning its entries.
+     */
+    private final boolean indexed;
     /**
      * The jar file that this context handler serves.
      */
     private JarFile jarFile;
+    /**
+     * The channel used to read the entries stored without compression directly
+     * from the jar file.
+     */
+    private FileChannel jarChannel;
     /**
      * The base path in the jar file that this context handler serves.
      */
     private String basePath;
+    /**
+     * The cache of decompressed resource contents, or null if caching is
+     * disabled.
+     */
+    private volatile JarResourceCache cache;
+    /**
+     * Whether deflated resources are sent gzip encoded to the clients that
+     * accept it.
+     */
+    private volatile boolean gzipPassthrough = true;
+    /**
+     * Whether resources are read with positional reads on {@link #jarChannel}
+     * instead of through {@link #jarFile}.
+     */
+    private volatile boolean positionalReads = true;
+    /**
+     * The pool of inflaters and transfer buffers used to stream resources.
+     */
+    private volatile JarStreamPool streamPool = new JarStreamPool();
+    /**
+     * The minimum number of decompressed bytes between inflate checkpoints, or
+     * 0 if checkpoints are disabled.
+     */
+    private volatile int inflateCheckpointSpacing;
+    /**
+     * The maximum number of ranges sent in a multipart/byteranges response.
+     */
+    private volatile int maxRanges = 16;
+    /**
+     * The inflate checkpoints of the deflated resources, by resource name,
+     * which are built on first use.
+     */
+    private final ConcurrentHashMap<String, FutureTask<InflateCheckpoints>> inflateCheckpoints =
+            new ConcurrentHashMap<>();
+    /**
+     * The fingerprinted aliases of the resources by their names, or null if
+     * fingerprinting is disabled.
+     */
+    private volatile Map<String, String> fingerprintManifest;
+    /**
+     * Whether small responses are sent with a single write of their
+     * pre-serialized headers and cached contents.
+     */
+    private volatile boolean singleWriteResponses = true;
+    /**
+     * The pre-serialized headers of the resources sent with a single write,
+     * by resource name.
+     */
+    private final ConcurrentHashMap<String, PreparedHeaders> preparedHeaders = new ConcurrentHashMap<>();
+    /**
+     * The pre-serialized headers of the resources sent with a single write
+     * when requested through their fingerprinted aliases, by resource name;
+     * kept apart so that they do not replace those of the plain names.
+     */
+    private final ConcurrentHashMap<String, PreparedHeaders> immutablePreparedHeaders = new ConcurrentHashMap<>();
+    /**
+     * The number of requests for resources that do not exist.
+     */
+    private final LongAdder notFoundCount = new LongAdder();
 
     /**
      * Returns the path to the jar file that the given class is running from.
@@ -106,13 +251,406 @@ public class JarResourceContextHandler implements ContextHandler {
         final JarURLConnection jarFileConnection = (JarURLConnection) jarUrl.openConnection();
 
         this.jarFile = jarFileConnection.getJarFile();
-        final Enumeration<JarEntry> entries = jarFile.entries();
+        this.jarChannel = FileChannel.open(Paths.get(pathToJar), StandardOpenOption.READ);
+
+        // The central directory is located once, for both the index and the scan of the entries without it
+        JarCentralDirectory.Location location;
+        try {
+            location = JarCentralDirectory.locate(this.jarChannel);
+        } catch (IOException e) {
+            location = null;
+        }
+
+        JarResourceIndex.Builder builder = new JarResourceIndex.Builder(this.basePath, this.jarChannel);
+        boolean indexLoaded;
+        try {
+            indexLoaded = location != null && this.loadResourceIndex(location, builder);
+        } catch (IOException e) {
+            // A corrupt index is ignored like a stale one, with whatever it added to the builder
+            indexLoaded = false;
+        }
+        if (!indexLoaded) {
+            builder = new JarResourceIndex.Builder(this.basePath, this.jarChannel);
+            this.scanResources(location, builder);
+        }
+        this.indexed = indexLoaded;
+        this.resourceIndex = builder.build(System.currentTimeMillis());
+    }
+
+    /**
+     * Returns whether the resources were loaded from the resource index
+     * written into the jar file by {@link JarResourceIndexer}, instead of by
+     * scanning all its entries because there is no usable index.
+     * 
+     * @return true if the resource index was used
+     */
+    boolean isIndexed() {
+        return this.indexed;
+    }
+
+    /**
+     * Loads the resources from the resource index written into the jar file by
+     * {@link JarResourceIndexer}, if there is one that is still valid and
+     * covers the base path. The index is found from the end of the central
+     * directory, which is not read.
+     * 
+     * @param location the location of the central directory
+     * @param builder  the builder to add the resources to
+     * @return true if the resources were loaded, false if there is no usable
+     *         index
+     * @throws IOException
+     */
+    private boolean loadResourceIndex(JarCentralDirectory.Location location, JarResourceIndex.Builder builder)
+            throws IOException {
+        final JarCentralDirectory.Entry indexLayout = JarResourceIndexer.locateIndex(this.jarChannel, location);
+        if (indexLayout == null || indexLayout.size > Integer.MAX_VALUE) {
+            return false;
+        }
+
+        final byte[] index = new byte[(int) indexLayout.size];
+        JarCentralDirectory.readFully(this.jarChannel, ByteBuffer.wrap(index), location.offset - index.length);
+        final CRC32 crc = new CRC32();
+        crc.update(index, 0, index.length);
+        if ((int) crc.getValue() != indexLayout.crc) {
+            return false;
+        }
+
+        return JarResourceIndexer.readIndex(index, indexLayout.localHeaderOffset, this.basePath, builder);
+    }
+
+    /**
+     * Loads the resources by scanning all the entries of the jar file. The
+     * contents of the entries stored without compression or compressed with
+     * deflate are read from the jar file directly, from the offsets found in
+     * its central directory; the others, and all of them if the central
+     * directory cannot be read, are read through the {@link JarFile}.
+     * 
+     * @param location the location of the central directory, or null if it
+     *                 could not be located
+     * @param builder  the builder to add the resources to
+     * @throws IOException
+     */
+    private void scanResources(JarCentralDirectory.Location location, JarResourceIndex.Builder builder)
+            throws IOException {
+        Map<String, JarCentralDirectory.Entry> layoutsByName;
+        try {
+            layoutsByName = location != null ? JarCentralDirectory.read(this.jarChannel, location, this.basePath)
+                    : Collections.<String, JarCentralDirectory.Entry>emptyMap();
+        } catch (IOException e) {
+            layoutsByName = Collections.emptyMap();
+        }
+
+        final Enumeration<JarEntry> entries = this.jarFile.entries();
         while (entries.hasMoreElements()) {
             final JarEntry entry = entries.nextElement();
             if (!entry.isDirectory() && entry.getName().startsWith(this.basePath)) {
-                this.jarEntriesByName.put(entry.getName().substring(this.basePath.length()), entry);
+                final String name = entry.getName().substring(this.basePath.length());
+                final JarCentralDirectory.Entry layout = layoutsByName.get(entry.getName());
+                final String contentType = HTTPServer.getContentType(entry.getName(), "application/octet-stream");
+                if (layout != null && (layout.method == JarCentralDirectory.METHOD_STORED
+                        || layout.method == JarCentralDirectory.METHOD_DEFLATED)) {
+                    builder.addAtLocalHeader(name, entry.getMethod(), layout.localHeaderOffset,
+                            entry.getCompressedSize(), entry.getSize(), (int) entry.getCrc(),
+                            entry.getLastModifiedTime().toMillis(), contentType);
+                } else {
+                    builder.add(name, entry.getMethod(), -1, entry.getCompressedSize(), entry.getSize(),
+                            (int) entry.getCrc(), entry.getLastModifiedTime().toMillis(), contentType);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets whether resources compressed with deflate in the jar file are sent
+     * gzip encoded to the clients that accept it, by wrapping their compressed
+     * contents in a gzip header and trailer instead of decompressing them.
+     * This is enabled by default.
+     * 
+     * @param gzipPassthrough whether deflated resources are sent gzip encoded
+     */
+    public void setGzipPassthrough(boolean gzipPassthrough) {
+        this.gzipPassthrough = gzipPassthrough;
+    }
+
+    /**
+     * Sets whether resources are read with positional reads directly from the
+     * jar file, each one with its own inflater taken from a pool, instead of
+     * through {@link JarFile}, whose streams contend on a shared file handle
+     * under many concurrent requests. Resources with an unknown offset or
+     * compressed with other methods are always read through {@link JarFile}.
+     * This is enabled by default.
+     * When disabled, nothing is read from the jar file but through
+     * {@link JarFile}: stored resources are copied from their jar entry
+     * instead of being transferred from the jar file, and deflated resources
+     * are inflated instead of being sent gzip encoded as they are.
+     * 
+     * @param positionalReads whether resources are read with positional reads
+     */
+    public void setPositionalReads(boolean positionalReads) {
+        this.positionalReads = positionalReads;
+    }
+
+    /**
+     * Sets whether strong ETags derived from the contents of the resources, as
+     * identified by the CRC-32 and size recorded in the jar file, are sent
+     * instead of weak ETags derived from their last modification times.
+     * Strong ETags stay the same across rebuilds of the jar file for the
+     * resources whose contents do not change, so that the caches of clients
+     * remain valid, and allow If-Range requests to be served with ranges.
+     * Gzip encoded representations of deflated resources still get a weak
+     * ETag, since their bytes depend on how the jar file was built.
+     * This is disabled by default.
+     * 
+     * @param strongETags whether strong ETags are sent
+     */
+    public void setStrongETags(boolean strongETags) {
+        this.resourceIndex.setStrongETags(strongETags);
+    }
+
+    /**
+     * Sets the maximum number of ranges sent in response to a multi-range
+     * request, as parts of a multipart/byteranges response. Requested ranges
+     * that overlap or are close to each other are coalesced first; if more
+     * ranges than the maximum remain, a single range spanning all of them is
+     * sent instead. The default is 16; 1 disables multipart responses.
+     * 
+     * @param maxRanges the maximum number of ranges
+     */
+    public void setMaxRanges(int maxRanges) {
+        if (maxRanges <= 0) {
+            throw new IllegalArgumentException("Maximum number of ranges must be positive");
+        }
+        this.maxRanges = maxRanges;
+    }
+
+    /**
+     * Sets the spacing of the inflate checkpoints of deflated resources, which
+     * let range requests start inflating near the first requested byte
+     * instead of inflating and discarding everything before it.
+     * The checkpoints of a resource are built the first time a range of it is
+     * requested, or in advance by {@link #buildInflateCheckpoints()}, by
+     * decoding its contents once. Each checkpoint keeps 32 KiB of decompressed
+     * data, so spacings of 1 MiB or more are recommended.
+     * Checkpoints are disabled by default and are only built for resources
+     * bigger than the spacing, when positional reads are enabled.
+     * 
+     * @param spacing the minimum number of decompressed bytes between
+     *                checkpoints, or 0 to disable them
+     */
+    public void setInflateCheckpointSpacing(int spacing) {
+        if (spacing < 0) {
+            throw new IllegalArgumentException("Checkpoint spacing must not be negative");
+        }
+        this.inflateCheckpointSpacing = spacing;
+        this.inflateCheckpoints.clear();
+    }
+
+    /**
+     * Builds the inflate checkpoints of all the deflated resources bigger than
+     * the checkpoint spacing, so that no range request has to wait for them.
+     * 
+     * @throws IOException if the contents of a resource are invalid
+     */
+    public void buildInflateCheckpoints() throws IOException {
+        if (this.inflateCheckpointSpacing <= 0) {
+            return;
+        }
+        for (int row = 0; row < this.resourceIndex.size(); row++) {
+            this.getInflateCheckpoints(this.resourceIndex.get(row));
+        }
+    }
+
+    /**
+     * Enables fingerprinted aliases, under which every resource is also served
+     * with a Cache-Control header that lets clients cache it for a year without
+     * revalidating it. The alias of a resource inserts a hash of its contents
+     * before its extension, e.g. "js/app.3f9a1c07d2.js" for "js/app.js", so
+     * that it changes whenever the contents do; pages should link to the
+     * aliases listed by {@link #getFingerprintManifest()}.
+     * The contents of all the resources are hashed once, in parallel, when
+     * this method is called. Aliases that clash with the name of another
+     * resource are shadowed by it.
+     * 
+     * @throws IOException if the contents of a resource cannot be read
+     */
+    public void enableFingerprints() throws IOException {
+        final int resourceCount = this.resourceIndex.size();
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(resourceCount, Runtime.getRuntime().availableProcessors())));
+        try {
+            final List<Future<String>> hashes = new ArrayList<>(resourceCount);
+            for (int row = 0; row < resourceCount; row++) {
+                final JarResource resource = this.resourceIndex.get(row);
+                hashes.add(executor.submit(() -> this.getContentHash(resource)));
             }
+
+            final String[] fingerprintedNames = new String[resourceCount];
+            final Map<String, String> manifest = new HashMap<>(resourceCount * 4 / 3 + 1);
+            for (int row = 0; row < resourceCount; row++) {
+                final String name = this.resourceIndex.getName(row);
+                fingerprintedNames[row] = getFingerprintedName(name, hashes.get(row).get());
+                manifest.put(name, fingerprintedNames[row]);
+            }
+            this.resourceIndex.setFingerprintedNames(fingerprintedNames);
+            this.fingerprintManifest = Collections.unmodifiableMap(manifest);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while hashing resources");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot hash resources", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the fingerprinted alias of a resource.
+     * 
+     * @param name the name of the resource, relative to the base path
+     * @return the fingerprinted alias, or null if the resource does not exist
+     *         or fingerprinting is disabled
+     */
+    public String getFingerprintedName(String name) {
+        final Map<String, String> manifest = this.fingerprintManifest;
+        return manifest != null ? manifest.get(name) : null;
+    }
+
+    /**
+     * Returns the fingerprinted aliases of all the resources, by their names
+     * relative to the base path, e.g. for templates to rewrite their links.
+     * 
+     * @return an unmodifiable map of fingerprinted aliases, which is empty if
+     *         fingerprinting is disabled
+     */
+    public Map<String, String> getFingerprintManifest() {
+        final Map<String, String> manifest = this.fingerprintManifest;
+        return manifest != null ? manifest : Collections.<String, String>emptyMap();
+    }
+
+    /**
+     * Returns the hexadecimal SHA-256 hash of the decompressed contents of a
+     * resource.
+     */
+    private String getContentHash(JarResource resource) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available", e);
+        }
+
+        final byte[] buffer = this.streamPool.acquireBuffer();
+        try (InputStream in = this.getInputStream(resource, 0)) {
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                digest.update(buffer, 0, count);
+            }
+        } finally {
+            this.streamPool.releaseBuffer(buffer);
+        }
+
+        final StringBuilder hash = new StringBuilder(FINGERPRINT_LENGTH);
+        for (byte b : digest.digest()) {
+            hash.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            if (hash.length() >= FINGERPRINT_LENGTH) {
+                break;
+            }
+        }
+        return hash.toString();
+    }
+
+    /**
+     * Returns the fingerprinted alias of a resource name, which inserts the
+     * hash before the extension of the file name, or appends it to file names
+     * without an extension.
+     */
+    private static String getFingerprintedName(String name, String hash) {
+        final int fileNameStart = name.lastIndexOf('/') + 1;
+        final int extensionStart = name.lastIndexOf('.');
+        if (extensionStart <= fileNameStart) {
+            return name + "." + hash;
+        }
+        return name.substring(0, extensionStart) + "." + hash + name.substring(extensionStart);
+    }
+
+    /**
+     * Sets whether the 200 and 304 responses of small resources are sent with
+     * a single write of their status line and headers, which are serialized
+     * once per resource, followed by their cached contents. Only the Date and
+     * Connection headers are added on each request. This applies to GET
+     * requests for whole resources that are sent without a content encoding,
+     * when the cache is enabled for 200 responses and the whole response fits
+     * in a transfer buffer of the stream pool.
+     * This is enabled by default.
+     * 
+     * @param singleWriteResponses whether small responses are sent with a
+     *                             single write
+     */
+    public void setSingleWriteResponses(boolean singleWriteResponses) {
+        this.singleWriteResponses = singleWriteResponses;
+    }
+
+    /**
+     * Sets the policy that decides the Cache-Control header sent with each
+     * resource. The policy is evaluated once for every resource when it is
+     * set, so later changes to it require setting it again. Precompressed
+     * variants get the header of the resource they stand for.
+     * No Cache-Control header is sent by default, except for fingerprinted
+     * aliases.
+     * 
+     * @param policy the policy, or null to send no Cache-Control header
+     */
+    public void setCacheControlPolicy(CacheControlPolicy policy) {
+        this.resourceIndex.setCacheControlPolicy(policy);
+    }
+
+    /**
+     * Sets the pool of inflaters and transfer buffers used to stream the
+     * resources that are decompressed on each request. Each handler has its
+     * own pool by default, with the limits of {@link JarStreamPool#JarStreamPool()}.
+     * 
+     * @param streamPool the pool to use, which may be shared with other
+     *                   handlers
+     */
+    public void setStreamPool(JarStreamPool streamPool) {
+        if (streamPool == null) {
+            throw new IllegalArgumentException("Stream pool must not be null");
         }
+        this.streamPool = streamPool;
+    }
+
+    /**
+     * Returns the pool of inflaters and transfer buffers used to stream the
+     * resources, whose metrics show how much they are contended.
+     * 
+     * @return the pool in use
+     */
+    public JarStreamPool getStreamPool() {
+        return this.streamPool;
+    }
+
+    /**
+     * Sets the cache used to keep the decompressed contents of the served
+     * resources in memory. Caching is disabled by default.
+     * The cache must not be shared with other context handlers.
+     * 
+     * @param cache the cache to use, or null to disable caching
+     */
+    public void setCache(JarResourceCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Returns the cache used to keep the decompressed contents of the served
+     * resources in memory.
+     * 
+     * @return the cache in use, or null if caching is disabled
+     */
+    public JarResourceCache getCache() {
+        return this.cache;
     }
 
     /**
@@ -123,7 +661,7 @@ public class JarResourceContextHandler implements ContextHandler {
      * @param rawBasePath
      * @return the sanitized base path in the format "path/to/"
      */
-    private String getSanitizedBasePath(String rawBasePath) {
+    static String getSanitizedBasePath(String rawBasePath) {
         String sanitizedBasePath = rawBasePath;
 
         // Paths in jar files never start with a slash
@@ -143,16 +681,56 @@ public class JarResourceContextHandler implements ContextHandler {
 
     @Override
     public int serve(Request request, Response response) throws IOException {
+        return this.serveResource(getRequestResourcePath(request), request, response);
+    }
+
+    /**
+     * Closes the channel through which this handler reads the jar file. The
+     * jar file itself is shared with other users of the same URL and is left
+     * open. Requests served after the handler is closed fail.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        this.jarChannel.close();
+    }
+
+    /**
+     * Returns the path of the requested resource, which is the value of the
+     * "*" path parameter of the context, or the whole request path if there
+     * is none.
+     * For contexts whose only path parameter is a trailing "{*}", the value is
+     * cut from the request path after the literal prefix of the context path,
+     * instead of through {@link Request#getParams()}, which also parses the
+     * query string and reads the body of form submissions.
+     * 
+     * @param request the request
+     * @return the path of the requested resource
+     * @throws IOException
+     */
+    static String getRequestResourcePath(Request request) throws IOException {
         final String requestPath = request.getPath();
+        final String contextPath = request.getContext().getPath();
+        if (contextPath != null) {
+            final int paramStart = contextPath.indexOf('{');
+            if (paramStart < 0) {
+                return requestPath;
+            }
+            if (paramStart == contextPath.length() - 3 && contextPath.endsWith("{*}")
+                    && requestPath.regionMatches(0, contextPath, 0, paramStart)) {
+                return requestPath.substring(paramStart);
+            }
+        }
+
         final String requestPathParam = request.getParams().get("*");
-        final String requestResourcePath = requestPathParam != null ? requestPathParam : requestPath;
-        return this.serveResource(requestResourcePath, request, response);
+        return requestPathParam != null ? requestPathParam : requestPath;
     }
 
     /**
      * Serves the resource at the given path.
      * If the resource is not found, or is not located under the base path,
-     * a 404 status code is returned.
+     * a 404 response is sent.
      * Note that folders are never served as a directory listing, but as a 404.
      * 
      * @param requestResourcePath the path of the resource to serve
@@ -162,48 +740,118 @@ public class JarResourceContextHandler implements ContextHandler {
      * @throws IOException
      */
     private int serveResource(String requestResourcePath, Request request, Response response) throws IOException {
-        final JarEntry jarEntry = this.jarEntriesByName.get(requestResourcePath);
-        if (jarEntry == null) {
+        final JarResource resource = this.resourceIndex.get(requestResourcePath);
+        if (resource == null) {
+            return this.sendNotFound(request, response);
+        }
+
+        this.serveResourceContent(this.selectRepresentation(resource, request), request, response);
+        return 0;
+    }
+
+    /**
+     * Sends a 404 response for a resource that does not exist, with a
+     * preformatted body, and counts it.
+     * Requests for the directory index that jlhttp tries before the requested
+     * directory are left to jlhttp, which may still serve the directory from
+     * another context, and are not counted: jlhttp then requests the directory
+     * itself, which is counted if it is served by this handler.
+     * 
+     * @param request  the request
+     * @param response the response into which the error is written
+     * @return the status code left for jlhttp to send, if any
+     * @throws IOException
+     */
+    private int sendNotFound(Request request, Response response) throws IOException {
+        final String directoryIndex = request.getVirtualHost().getDirectoryIndex();
+        if (directoryIndex != null && request.getPath().endsWith("/" + directoryIndex)) {
             return 404;
         }
 
-        this.serveResourceContent(jarEntry, request, response);
+        this.notFoundCount.increment();
+        response.sendHeaders(404, NOT_FOUND_BODY.length, -1, NOT_FOUND_ETAG, "text/html; charset=utf-8", null);
+        final OutputStream out = response.getBody();
+        if (out != null) {
+            out.write(NOT_FOUND_BODY);
+        }
         return 0;
     }
 
+    /**
+     * Returns the number of requests for resources that do not exist since the
+     * handler was created, e.g. to alert on scans of the served context.
+     * Requests for a directory are counted once, although jlhttp first looks
+     * for its directory index.
+     * 
+     * @return the number of 404 responses
+     */
+    public long getNotFoundCount() {
+        return this.notFoundCount.sum();
+    }
+
+    /**
+     * Selects the representation of a resource to send in response to a
+     * request, which is the precompressed variant with the content encoding
+     * preferred by the client, if any, or the resource itself otherwise.
+     * 
+     * @param resource the requested resource
+     * @param request  the request
+     * @return the representation to send
+     */
+    private JarResource selectRepresentation(JarResource resource, Request request) {
+        final String[] variantEncodings = resource.getVariantEncodings();
+        if (variantEncodings.length == 0) {
+            return resource;
+        }
+
+        final String contentEncoding = HTTPServer.getHighestQValue(
+                request.getHeaders().get("Accept-Encoding"), "identity", variantEncodings);
+        final JarResource variant = contentEncoding != null ? resource.getVariant(contentEncoding) : null;
+        return variant != null ? variant : resource;
+    }
+
     /**
      * Serves the contents of a resource, with its corresponding content type,
      * last modification time, etc. Conditional and partial retrievals are
      * handled according to the RFC.
      * 
-     * @param jarEntry    the jar entry of the resource
-     * @param resourceUrl the URL of the resource
-     * @param request     the request
-     * @param response    the response into which the content is written
+     * @param resource the resource to serve
+     * @param request  the request
+     * @param response the response into which the content is written
      * @throws IOException
      */
-    private void serveResourceContent(JarEntry jarEntry, Request request, Response response)
+    private void serveResourceContent(JarResource resource, Request request, Response response)
             throws IOException {
-        final String fileName = jarEntry.getName();
-        final long fileLength = jarEntry.getSize();
-        final long fileLastModified = jarEntry.getLastModifiedTime().toMillis();
-        final long fileLastModifiedInSeconds = fileLastModified - fileLastModified % 1000;
-        final String fileETag = "W/\"" + fileLastModified + "\"";
-
-        long[] range = request.getRange(fileLength);
-        int status = HTTPServer.getConditionalStatus(request, fileLastModifiedInSeconds, fileETag, range != null);
+        final long fileLength = resource.getLength();
+        final boolean gzip = resource.getContentEncoding() == null && this.isGzipPassthrough(resource, request);
+        final String fileETag = gzip ? resource.getGzipETag() : resource.getETag();
+
+        long[][] ranges = gzip ? null
+                : ByteRanges.parse(request.getHeaders().get("Range"), fileLength, this.maxRanges);
+        int status = HTTPServer.getConditionalStatus(request, resource.getLastModifiedInSeconds(), fileETag,
+                ranges != null);
         if (status == 206) {
-            status = range[0] >= fileLength ? 416 : 200;
+            status = ranges.length == 0 ? 416 : 200;
         } else {
-            range = null;
+            ranges = null;
+        }
+        final long[] range = ranges != null && ranges.length == 1 ? ranges[0] : null;
+
+        if (ranges == null && !gzip && resource.getContentEncoding() == null && (status == 200 || status == 304)
+                && this.sendPreparedResponse(resource, status, fileETag, request, response)) {
+            return;
         }
 
         Headers responseHeaders = response.getHeaders();
+        final String cacheControl = resource.getCacheControl();
+        if (cacheControl != null && (status == 200 || status == 304)) {
+            responseHeaders.add("Cache-Control", cacheControl);
+        }
         switch (status) {
             case 304:
                 responseHeaders.add("ETag", fileETag);
                 responseHeaders.add("Vary", "Accept-Encoding");
-                responseHeaders.add("Last-Modified", HTTPServer.formatDate(fileLastModified));
+                responseHeaders.add("Last-Modified", resource.getLastModifiedHeader());
                 response.sendHeaders(304);
                 break;
             case 412:
@@ -214,11 +862,62 @@ public class JarResourceContextHandler implements ContextHandler {
                 response.sendError(416);
                 break;
             case 200:
-                response.sendHeaders(200, fileLength, fileLastModified, fileETag,
-                        HTTPServer.getContentType(fileName, "application/octet-stream"), range);
+                if (gzip) {
+                    // The body stream must be obtained before the Content-Encoding header is set,
+                    // otherwise jlhttp would compress the already compressed contents again
+                    final OutputStream out = response.getBody();
+                    final long gzipLength = resource.getCompressedSize() + GZIP_OVERHEAD;
+                    responseHeaders.add("Content-Encoding", "gzip");
+                    responseHeaders.add("Content-Length", Long.toString(gzipLength));
+                    responseHeaders.add("Last-Modified", resource.getLastModifiedHeader());
+                    response.sendHeaders(200, gzipLength, resource.getLastModified(), fileETag,
+                            resource.getContentType(), null);
+                    this.sendGzipBody(resource, request, response, out);
+                    break;
+                }
 
-                try (InputStream in = this.jarFile.getInputStream(jarEntry)) {
-                    response.sendBody(in, fileLength, range);
+                final boolean multipart = ranges != null && ranges.length > 1;
+                final String boundary = multipart ? Long.toHexString(ThreadLocalRandom.current().nextLong()) : null;
+                final byte[][] partHeaders = multipart ? this.getPartHeaders(resource, ranges, boundary) : null;
+                final long bodyLength = multipart ? getMultipartLength(ranges, partHeaders, boundary)
+                        : range != null ? range[1] - range[0] + 1 : fileLength;
+                if (resource.getContentEncoding() != null) {
+                    // Same as above, precompressed contents must be sent as they are
+                    response.getBody();
+                    responseHeaders.add("Content-Encoding", resource.getContentEncoding());
+                    responseHeaders.add("Content-Length", Long.toString(bodyLength));
+                }
+
+                final JarResourceCache.Contents cachedContents = this.getCachedContents(resource);
+                try {
+                    responseHeaders.add("Last-Modified", resource.getLastModifiedHeader());
+                    if (multipart) {
+                        if (!responseHeaders.contains("Content-Length")) {
+                            responseHeaders.add("Content-Length", Long.toString(bodyLength));
+                        }
+                        response.sendHeaders(206, bodyLength, resource.getLastModified(), fileETag,
+                                "multipart/byteranges; boundary=" + boundary, null);
+                        this.sendMultipartBody(resource, cachedContents, response, ranges, partHeaders, boundary);
+                        break;
+                    }
+
+                    response.sendHeaders(200, fileLength, resource.getLastModified(), fileETag,
+                            resource.getContentType(), range);
+
+                    if (cachedContents != null) {
+                        this.sendCachedBody(cachedContents, response, range);
+                    } else if (resource.isStored() && this.positionalReads) {
+                        this.sendStoredBody(resource, request, response, range);
+                    } else {
+                        try (InputStream in = this.getInputStream(resource, range != null ? range[0] : 0)) {
+                            this.sendStreamBody(in, response,
+                                    range != null ? range[1] - range[0] + 1 : fileLength);
+                        }
+                    }
+                } finally {
+                    if (cachedContents != null) {
+                        cachedContents.release();
+                    }
                 }
                 break;
             default:
@@ -226,4 +925,576 @@ public class JarResourceContextHandler implements ContextHandler {
                 break;
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the headers that end the responses sent with a single write,
+     * which are the Server header added by {@link Response#sendHeaders(int)}
+     * in the jlhttp version on the class path, if any, and the empty line.
+     * The header is taken from a response whose headers are written to
+     * memory, so that it does not have to be kept in sync with jlhttp.
+     * 
+     * @return the encoded headers
+     */
+    private static byte[] getPreparedHeadersEnd() {
+        final Response response = new HTTPServer().new Response(new ByteArrayOutputStream());
+        try {
+            response.sendHeaders(200);
+        } catch (IOException e) {
+            throw new IllegalStateException("Headers could not be written to memory", e);
+        }
+        final String server = response.getHeaders().get("Server");
+        return ((server != null ? "Server: " + server + "\r\n" : "") + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Sends a 200 or 304 response for a whole resource, without a content
+     * encoding, with a single write of its pre-serialized headers, the Date
+     * and Connection headers and, for 200 responses, its cached contents.
+     * The response is the same that would be sent otherwise; responses that
+     * jlhttp would compress on the fly are not sent this way, and responses
+     * to HEAD requests are sent without their contents.
+     * 
+     * @param resource the resource to serve
+     * @param status   the status of the response, either 200 or 304
+     * @param eTag     the ETag of the resource
+     * @param request  the request
+     * @param response the response into which the content is written
+     * @return true if the response was sent, or false if it does not qualify,
+     *         in which case nothing was sent
+     * @throws IOException
+     */
+    private boolean sendPreparedResponse(JarResource resource, int status, String eTag, Request request,
+            Response response) throws IOException {
+        if (!this.singleWriteResponses || !"GET".equals(request.getMethod()) || response.getHeaders().size() > 0) {
+            return false;
+        }
+
+        final long bodyLength = status == 200 ? resource.getLength() : 0;
+        final boolean close = status == 200 && "close".equalsIgnoreCase(request.getHeaders().get("Connection"));
+        if (status == 200 && (this.cache == null || this.isCompressedOnTheFly(resource, bodyLength, request))) {
+            return false;
+        }
+
+        final String cacheControl = resource.getCacheControl();
+        final ConcurrentHashMap<String, PreparedHeaders> preparedHeaders = resource.isImmutable()
+                ? this.immutablePreparedHeaders
+                : this.preparedHeaders;
+        PreparedHeaders prepared = preparedHeaders.get(resource.getName());
+        if (prepared == null || prepared.eTag != eTag || prepared.cacheControl != cacheControl) {
+            prepared = new PreparedHeaders(resource, eTag, cacheControl);
+            preparedHeaders.put(resource.getName(), prepared);
+        }
+
+        final byte[] headers = status == 200 ? prepared.okHeaders : prepared.notModifiedHeaders;
+        final byte[] date = getDateHeader();
+        final int headersLength = headers.length + (close ? CONNECTION_CLOSE_HEADER.length : 0) + date.length
+                + PREPARED_HEADERS_END.length;
+        final JarStreamPool streamPool = this.streamPool;
+        if (headersLength + bodyLength > streamPool.getBufferSize()) {
+            return false;
+        }
+
+        final JarResourceCache.Contents contents = status == 200 ? this.getCachedContents(resource) : null;
+        if (status == 200 && contents == null) {
+            return false;
+        }
+        // jlhttp serves HEAD requests as GET requests whose body is discarded, which only shows here.
+        // The body stream is only obtained now, as jlhttp sets up its encodings when it is first obtained
+        final boolean discardBody = response.getBody() == null;
+        final byte[] buffer = streamPool.acquireBuffer();
+        try {
+            int length = put(buffer, 0, headers);
+            if (close) {
+                length = put(buffer, length, CONNECTION_CLOSE_HEADER);
+            }
+            length = put(buffer, length, date);
+            length = put(buffer, length, PREPARED_HEADERS_END);
+            if (contents != null && !discardBody) {
+                contents.copyTo(buffer, length);
+                length += contents.getLength();
+            }
+            try {
+                response.getOutputStream().write(buffer, 0, length);
+            } catch (IOException e) {
+                // jlhttp does not know that the headers were sent, and would send a 500 response after whatever part
+                // of this one was written, so the connection is closed first
+                try {
+                    request.getSocket().close();
+                } catch (IOException closeException) {
+                    e.addSuppressed(closeException);
+                }
+                throw e;
+            }
+        } finally {
+            streamPool.releaseBuffer(buffer);
+            if (contents != null) {
+                contents.release();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether jlhttp would compress a response body on the fly, which
+     * it does for compressible content types bigger than 300 bytes when the
+     * client accepts it.
+     */
+    private boolean isCompressedOnTheFly(JarResource resource, long length, Request request) {
+        if (length <= 300 || request.getVersion() != 11 || !HTTPServer.isCompressible(resource.getContentType())) {
+            return false;
+        }
+        final String compression = HTTPServer.getHighestQValue(request.getHeaders().get("Accept-Encoding"),
+                "identity", "identity", "gzip", "deflate");
+        return compression != null && !compression.equals("identity");
+    }
+
+    private static int put(byte[] buffer, int offset, byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+        return offset + bytes.length;
+    }
+
+    /**
+     * Returns the Date header of the current second, formatting it only once
+     * per second.
+     */
+    private static byte[] getDateHeader() {
+        final long second = System.currentTimeMillis() / 1000;
+        DateHeader header = dateHeader;
+        if (header.second != second) {
+            header = new DateHeader(second);
+            dateHeader = header;
+        }
+        return header.bytes;
+    }
+
+    /**
+     * The {@code DateHeader} class holds the serialized Date header of a
+     * second.
+     */
+    private static final class DateHeader {
+        final long second;
+        final byte[] bytes;
+
+        DateHeader(long second) {
+            this.second = second;
+            this.bytes = ("Date: " + HTTPServer.formatDate(second * 1000) + "\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * The {@code PreparedHeaders} class holds the status line and headers of
+     * the 200 and 304 responses of a resource, serialized in the same order
+     * as jlhttp does, up to the Connection and Date headers.
+     */
+    private static final class PreparedHeaders {
+        /**
+         * The ETag and Cache-Control header values the headers were serialized
+         * with, which are compared by reference to detect that they changed.
+         */
+        final String eTag;
+        final String cacheControl;
+        final byte[] okHeaders;
+        final byte[] notModifiedHeaders;
+
+        PreparedHeaders(JarResource resource, String eTag, String cacheControl) {
+            this.eTag = eTag;
+            this.cacheControl = cacheControl;
+            final String cacheControlHeader = cacheControl != null ? "Cache-Control: " + cacheControl + "\r\n" : "";
+            this.okHeaders = ("HTTP/1.1 200 OK\r\n" + cacheControlHeader
+                    + "Last-Modified: " + resource.getLastModifiedHeader() + "\r\n"
+                    + "Content-Type: " + resource.getContentType() + "\r\n"
+                    + "Content-Length: " + resource.getLength() + "\r\n"
+                    + "Vary: Accept-Encoding\r\n"
+                    + "ETag: " + eTag + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+            this.notModifiedHeaders = ("HTTP/1.1 304 Not Modified\r\n" + cacheControlHeader
+                    + "ETag: " + eTag + "\r\n"
+                    + "Vary: Accept-Encoding\r\n"
+                    + "Last-Modified: " + resource.getLastModifiedHeader() + "\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * Returns the headers that precede each part of a multipart/byteranges
+     * response, starting with the boundary delimiter.
+     * 
+     * @param resource the resource
+     * @param ranges   the ranges sent
+     * @param boundary the multipart boundary
+     * @return the part headers, matching the ranges
+     */
+    private byte[][] getPartHeaders(JarResource resource, long[][] ranges, String boundary) {
+        final byte[][] partHeaders = new byte[ranges.length][];
+        for (int i = 0; i < ranges.length; i++) {
+            final String partHeader = "\r\n--" + boundary + "\r\nContent-Type: " + resource.getContentType()
+                    + "\r\nContent-Range: bytes " + ranges[i][0] + "-" + ranges[i][1] + "/" + resource.getLength()
+                    + "\r\n\r\n";
+            partHeaders[i] = partHeader.getBytes(StandardCharsets.ISO_8859_1);
+        }
+        return partHeaders;
+    }
+
+    /**
+     * Returns the length of a multipart/byteranges response body.
+     * 
+     * @param ranges      the ranges sent
+     * @param partHeaders the headers of the parts
+     * @param boundary    the multipart boundary
+     * @return the length of the body, in bytes
+     */
+    private static long getMultipartLength(long[][] ranges, byte[][] partHeaders, String boundary) {
+        long length = getClosingDelimiter(boundary).length;
+        for (int i = 0; i < ranges.length; i++) {
+            length += partHeaders[i].length + ranges[i][1] - ranges[i][0] + 1;
+        }
+        return length;
+    }
+
+    private static byte[] getClosingDelimiter(String boundary) {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the decompressed contents of a resource from the cache, loading
+     * them into the cache first if they are not there yet.
+     * 
+     * @param resource the resource
+     * @return the decompressed contents, which must be released after use, or
+     *         null if caching is disabled or the resource could not be cached
+     * @throws IOException
+     */
+    private JarResourceCache.Contents getCachedContents(JarResource resource) throws IOException {
+        final JarResourceCache cache = this.cache;
+        if (cache == null || !cache.accepts(resource.getLength())) {
+            return null;
+        }
+
+        JarResourceCache.Contents contents = cache.get(resource.getName());
+        if (contents == null) {
+            try (InputStream in = this.getInputStream(resource, 0)) {
+                contents = cache.put(resource.getName(), in, resource.getLength());
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Opens a stream over the decompressed contents of a resource, either with
+     * positional reads on the jar file or through the jar entry of the
+     * resource, starting at the given offset.
+     * 
+     * @param resource the resource
+     * @param offset   the offset of the first byte to read
+     * @return the stream
+     * @throws IOException if the jar entry does not exist
+     */
+    private InputStream getInputStream(JarResource resource, long offset) throws IOException {
+        if (this.positionalReads && (resource.isStored() || resource.isDeflated())) {
+            final InflateCheckpoints checkpoints = offset > 0 ? this.getInflateCheckpoints(resource) : null;
+            return new JarEntryInputStream(this.jarChannel, this.streamPool, resource, offset,
+                    checkpoints != null ? checkpoints.find(offset) : null);
+        }
+
+        final JarEntry entry = this.jarFile.getJarEntry(resource.getEntryName());
+        if (entry == null) {
+            throw new IOException("Missing jar entry " + resource.getEntryName());
+        }
+        final InputStream in = this.jarFile.getInputStream(entry);
+        long skipped = 0;
+        while (skipped < offset) {
+            final long count = in.skip(offset - skipped);
+            if (count <= 0) {
+                in.close();
+                throw new IOException("Unexpected end of resource");
+            }
+            skipped += count;
+        }
+        return in;
+    }
+
+    /**
+     * Returns the inflate checkpoints of a resource, building them if they
+     * have not been built yet. Concurrent callers wait for the same build.
+     * 
+     * @param resource the resource
+     * @return the checkpoints, or null if checkpoints are disabled or do not
+     *         apply to the resource
+     * @throws IOException if the contents of the resource are invalid
+     */
+    private InflateCheckpoints getInflateCheckpoints(final JarResource resource) throws IOException {
+        final int spacing = this.inflateCheckpointSpacing;
+        if (spacing <= 0 || !this.positionalReads || !resource.isDeflated() || resource.getLength() <= spacing) {
+            return null;
+        }
+
+        FutureTask<InflateCheckpoints> build = this.inflateCheckpoints.get(resource.getName());
+        if (build == null) {
+            final FutureTask<InflateCheckpoints> newBuild = new FutureTask<>(
+                    () -> InflateCheckpoints.build(this.jarChannel, resource, spacing));
+            build = this.inflateCheckpoints.putIfAbsent(resource.getName(), newBuild);
+            if (build == null) {
+                build = newBuild;
+                build.run();
+            }
+        }
+
+        try {
+            return build.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building inflate checkpoints");
+        } catch (ExecutionException e) {
+            this.inflateCheckpoints.remove(resource.getName(), build);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Cannot build inflate checkpoints", e.getCause());
+        }
+    }
+
+    /**
+     * Sends the response body from the cached contents of a resource.
+     * 
+     * @param contents the decompressed contents of the resource
+     * @param response the response into which the content is written
+     * @param range    the range of the contents to send, or null to send them
+     *                 entirely
+     * @throws IOException
+     */
+    private void sendCachedBody(JarResourceCache.Contents contents, Response response, long[] range)
+            throws IOException {
+        final OutputStream out = response.getBody();
+        if (out == null) {
+            return;
+        }
+
+        if (range != null) {
+            contents.writeTo(out, range[0], range[1] - range[0] + 1);
+        } else {
+            contents.writeTo(out, 0, contents.getLength());
+        }
+    }
+
+    /**
+     * Sends the response body from a stream over the decompressed contents of
+     * a resource, copying them through a pooled transfer buffer.
+     * 
+     * @param in       the stream over the decompressed contents, starting at
+     *                 the first byte to send
+     * @param response the response into which the content is written
+     * @param length   the number of bytes to send
+     * @throws IOException
+     */
+    private void sendStreamBody(InputStream in, Response response, long length) throws IOException {
+        final OutputStream out = response.getBody();
+        if (out == null) {
+            return;
+        }
+
+        final JarStreamPool pool = this.streamPool;
+        final byte[] buffer = pool.acquireBuffer();
+        try {
+            copyStream(in, out, length, buffer);
+        } finally {
+            pool.releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Sends a multipart/byteranges response body, with one part per range.
+     * Parts are read in a single pass over the resource where possible: the
+     * stream over a decompressed resource is only reopened to start from an
+     * inflate checkpoint past its current position.
+     * 
+     * @param resource       the resource
+     * @param cachedContents the cached contents of the resource, or null
+     * @param response       the response into which the content is written
+     * @param ranges         the ranges to send, in ascending order
+     * @param partHeaders    the headers of the parts
+     * @param boundary       the multipart boundary
+     * @throws IOException
+     */
+    private void sendMultipartBody(JarResource resource, JarResourceCache.Contents cachedContents,
+            Response response, long[][] ranges, byte[][] partHeaders, String boundary) throws IOException {
+        final OutputStream out = response.getBody();
+        if (out == null) {
+            return;
+        }
+
+        final JarStreamPool pool = this.streamPool;
+        final byte[] buffer = pool.acquireBuffer();
+        InputStream in = null;
+        try {
+            final InflateCheckpoints checkpoints = this.getInflateCheckpoints(resource);
+            long position = 0;
+            for (int i = 0; i < ranges.length; i++) {
+                final long start = ranges[i][0];
+                final long length = ranges[i][1] - start + 1;
+                out.write(partHeaders[i]);
+                if (cachedContents != null) {
+                    cachedContents.writeTo(out, start, length);
+                } else if (resource.isStored() && this.positionalReads) {
+                    this.transferFromJar(resource.getDataOffset() + start, length, Channels.newChannel(out));
+                } else {
+                    final InflateCheckpoints.Checkpoint checkpoint = checkpoints != null ? checkpoints.find(start)
+                            : null;
+                    if (in == null || (checkpoint != null && checkpoint.outputOffset > position)) {
+                        if (in != null) {
+                            in.close();
+                        }
+                        in = this.getInputStream(resource, start);
+                    } else {
+                        copyStream(in, null, start - position, buffer);
+                    }
+                    copyStream(in, out, length, buffer);
+                    position = start + length;
+                }
+            }
+            out.write(getClosingDelimiter(boundary));
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+            pool.releaseBuffer(buffer);
+        }
+    }
+
+    /**
+     * Copies bytes from a stream to another through the given buffer.
+     * 
+     * @param in     the stream to read from
+     * @param out    the stream to write to, or null to discard the bytes
+     * @param length the number of bytes to copy
+     * @param buffer the buffer
+     * @throws IOException if the input ends before all the bytes are copied
+     */
+    private static void copyStream(InputStream in, OutputStream out, long length, byte[] buffer)
+            throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            final int count = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (count < 0) {
+                throw new IOException("Unexpected end of resource");
+            }
+            if (out != null) {
+                out.write(buffer, 0, count);
+            }
+            remaining -= count;
+        }
+    }
+
+    /**
+     * Sends the response body of a resource stored without compression, by
+     * transferring its bytes straight from the jar file. Ranges are served by
+     * starting the transfer at their offset, without reading the bytes before
+     * them.
+     * 
+     * @param resource the resource, which must be stored without compression
+     * @param request  the request
+     * @param response the response into which the content is written
+     * @param range    the range of the contents to send, or null to send them
+     *                 entirely
+     * @throws IOException
+     */
+    private void sendStoredBody(JarResource resource, Request request, Response response, long[] range)
+            throws IOException {
+        final OutputStream out = response.getBody();
+        if (out == null) {
+            return;
+        }
+
+        final long position = resource.getDataOffset() + (range != null ? range[0] : 0);
+        final long length = range != null ? range[1] - range[0] + 1 : resource.getLength();
+        this.transferFromJar(position, length, getTransferTarget(request, response, out));
+    }
+
+    /**
+     * Sends the gzip encoded response body of a deflated resource. The
+     * compressed contents are sent as they are in the jar file, between a gzip
+     * header and a trailer made from the CRC-32 and size of the resource.
+     * 
+     * @param resource the resource, which must be deflated
+     * @param request  the request
+     * @param response the response into which the content is written
+     * @param out      the raw response body stream, or null if the body is
+     *                 discarded
+     * @throws IOException
+     */
+    private void sendGzipBody(JarResource resource, Request request, Response response, OutputStream out)
+            throws IOException {
+        if (out == null) {
+            return;
+        }
+
+        out.write(GZIP_HEADER);
+        this.transferFromJar(resource.getDataOffset(), resource.getCompressedSize(),
+                getTransferTarget(request, response, out));
+
+        final int crc = resource.getCrc();
+        final long size = resource.getLength();
+        out.write(new byte[] {
+                (byte) crc, (byte) (crc >>> 8), (byte) (crc >>> 16), (byte) (crc >>> 24),
+                (byte) size, (byte) (size >>> 8), (byte) (size >>> 16), (byte) (size >>> 24) });
+    }
+
+    /**
+     * Returns whether a resource is sent gzip encoded in response to the given
+     * request, which is the case when it is deflated in the jar file, gzip is
+     * accepted by the client, no range is requested, and the compressed
+     * contents can be read with positional reads.
+     * 
+     * @param resource the resource
+     * @param request  the request
+     * @return true if the resource is sent gzip encoded
+     */
+    private boolean isGzipPassthrough(JarResource resource, Request request) {
+        if (!this.gzipPassthrough || !this.positionalReads || !resource.isDeflated()
+                || resource.getCompressedSize() + GZIP_OVERHEAD >= resource.getLength()) {
+            return false;
+        }
+
+        final Headers requestHeaders = request.getHeaders();
+        return !requestHeaders.contains("Range") && "gzip".equals(HTTPServer.getHighestQValue(
+                requestHeaders.get("Accept-Encoding"), "identity", "identity", "gzip"));
+    }
+
+    /**
+     * Returns the channel into which bytes are transferred from the jar file
+     * to the body of a response: the socket channel of the connection, if it
+     * has one and the body is sent as it is, so that the kernel sends the
+     * bytes without copying them to user space, or a channel writing to the
+     * body stream otherwise.
+     * 
+     * @param request  the request
+     * @param response the response, whose headers must have been sent
+     * @param out      the raw response body stream
+     * @return the channel
+     * @throws IOException
+     */
+    private static WritableByteChannel getTransferTarget(Request request, Response response, OutputStream out)
+            throws IOException {
+        final SocketChannel channel = ResponseChannels.getSocketChannel(request, response, out);
+        return channel != null ? channel : Channels.newChannel(out);
+    }
+
+    /**
+     * Transfers bytes straight from the jar file to the given channel.
+     * 
+     * @param position the position in the jar file of the first byte to send
+     * @param length   the number of bytes to send
+     * @param target   the channel into which the bytes are written
+     * @throws IOException
+     */
+    private void transferFromJar(long position, long length, WritableByteChannel target) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            final long count = this.jarChannel.transferTo(position, remaining, target);
+            if (count <= 0) {
+                throw new IOException("Unexpected end of jar file");
+            }
+            position += count;
+            remaining -= count;
+        }
+    }
+}
@@ -0,0 +1,809 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.freeutils.httpserver.HTTPServer;
+
+/**
+ * The {@code JarResourceIndex} class holds the resources served by a
+ * {@link JarResourceContextHandler} in a compact form, suitable for jar files
+ * with tens of thousands of resources.
+ * <p>
+ * Instead of one object per resource, the index keeps an open-addressed table
+ * of resource names backed by parallel primitive arrays, one per attribute.
+ * Lookups of names that do not exist, as in scans for other applications,
+ * are mostly rejected by a {@link NameFilter} before hashing the whole name.
+ * The response metadata derived from the last modification times, such as the
+ * Last-Modified and ETag header values, is computed once per distinct time and
+ * shared by all the resources with that time, which are usually most of them.
+ * Resources are accessed through {@link JarResource} flyweight views.
+ */
+final class JarResourceIndex {
+    /**
+     * The content encodings of the precompressed siblings that are looked for,
+     * in order of preference when a client accepts several of them equally.
+     */
+    static final String[] PRECOMPRESSED_ENCODINGS = { "gzip", "br" };
+    /**
+     * The name suffixes of the precompressed siblings, matching
+     * {@link #PRECOMPRESSED_ENCODINGS}.
+     */
+    static final String[] PRECOMPRESSED_SUFFIXES = { ".gz", ".br" };
+    /**
+     * The content encodings of the variants available for each bit mask of
+     * {@link #PRECOMPRESSED_ENCODINGS} indexes.
+     */
+    private static final String[][] VARIANT_ENCODINGS_BY_MASK = { {}, { "gzip" }, { "br" }, { "gzip", "br" } };
+    /**
+     * The value of {@link #headerLengths} for local file headers that have not
+     * been read yet.
+     */
+    private static final int UNREAD_HEADER = -1;
+    /**
+     * The value of {@link #headerLengths} for local file headers that could not
+     * be read.
+     */
+    private static final int INVALID_HEADER = -2;
+
+    /**
+     * The base path of the resources, which prefixes their names to form the
+     * names of their jar entries.
+     */
+    private final String basePath;
+    /**
+     * The names of the resources, by row.
+     */
+    private final String[] names;
+    /**
+     * The open-addressed hash table of names, holding row + 1 in each used
+     * slot and 0 in the empty ones.
+     */
+    private final int[] slots;
+    /**
+     * The lengths of the shortest and the longest names, which let most
+     * lookups of names that do not exist fail without hashing them.
+     */
+    private final int minNameLength;
+    private final int maxNameLength;
+    private final NameFilter nameFilter;
+    private final byte[] methods;
+    /**
+     * The offsets within the jar file of the (possibly compressed) contents of
+     * the resources, or of their local file headers if they are followed by
+     * {@link #headerLengths}, or -1 if unknown.
+     */
+    private final long[] dataOffsets;
+    /**
+     * The lengths of the local file headers at {@link #dataOffsets}, which
+     * are read on first use, or 0 for resources whose contents offset is
+     * already known.
+     */
+    private final int[] headerLengths;
+    /**
+     * The channel over the jar file from which the local file headers are
+     * read, or null if there are none to read.
+     */
+    private final FileChannel channel;
+    private final long[] compressedSizes;
+    private final long[] lengths;
+    private final int[] crcs;
+    private final long[] lastModifieds;
+    private final int[] contentTypeIndexes;
+    private final String[] contentTypes;
+    /**
+     * The index of the last modification time of each row in the tables of
+     * values derived from it.
+     */
+    private final int[] timeIndexes;
+    private final String[] lastModifiedHeaders;
+    private final String[] eTags;
+    private final String[] gzipETags;
+    /**
+     * The ETags of the resources when sent as a precompressed variant of
+     * another resource, by encoding and time index.
+     */
+    private final String[][] variantETags;
+    /**
+     * The bit mask of the precompressed variants available for each row.
+     */
+    private final byte[] variantMasks;
+    /**
+     * The row of the precompressed variant of each row, by encoding, or null
+     * if no resource has a variant with the encoding.
+     */
+    private final int[][] variantRows;
+    /**
+     * The content-based ETags used instead of the ones derived from the last
+     * modification times, or null if they are disabled.
+     */
+    private volatile StrongETags strongETags;
+    /**
+     * The fingerprinted aliases of the resources, or null if fingerprinting is
+     * disabled.
+     */
+    private volatile Fingerprints fingerprints;
+    /**
+     * The Cache-Control header values of the resources, or null if no policy
+     * is set.
+     */
+    private volatile CacheControls cacheControls;
+
+    /**
+     * Creates a new {@code JarResourceIndex} from the rows collected by a
+     * builder.
+     *
+     * @param builder the builder
+     * @param now     the current time, used to avoid announcing last
+     *                modification times in the future
+     */
+    private JarResourceIndex(Builder builder, long now) {
+        final int size = builder.size;
+        this.basePath = builder.basePath;
+        this.names = Arrays.copyOf(builder.names, size);
+        this.methods = Arrays.copyOf(builder.methods, size);
+        this.dataOffsets = Arrays.copyOf(builder.dataOffsets, size);
+        this.headerLengths = Arrays.copyOf(builder.headerLengths, size);
+        this.channel = builder.channel;
+        this.compressedSizes = Arrays.copyOf(builder.compressedSizes, size);
+        this.lengths = Arrays.copyOf(builder.lengths, size);
+        this.crcs = Arrays.copyOf(builder.crcs, size);
+        this.lastModifieds = Arrays.copyOf(builder.lastModifieds, size);
+        this.contentTypeIndexes = Arrays.copyOf(builder.contentTypeIndexes, size);
+        this.contentTypes = new String[builder.contentTypes.size()];
+        for (Map.Entry<String, Integer> contentType : builder.contentTypes.entrySet()) {
+            this.contentTypes[contentType.getValue()] = contentType.getKey();
+        }
+
+        this.slots = createSlots(this.names);
+        this.minNameLength = getMinLength(this.names);
+        this.maxNameLength = getMaxLength(this.names);
+        this.nameFilter = new NameFilter(this.names);
+
+        final Map<Long, Integer> timeIndexesByTime = new HashMap<>();
+        this.timeIndexes = new int[size];
+        for (int row = 0; row < size; row++) {
+            Integer timeIndex = timeIndexesByTime.get(this.lastModifieds[row]);
+            if (timeIndex == null) {
+                timeIndex = timeIndexesByTime.size();
+                timeIndexesByTime.put(this.lastModifieds[row], timeIndex);
+            }
+            this.timeIndexes[row] = timeIndex;
+        }
+        this.lastModifiedHeaders = new String[timeIndexesByTime.size()];
+        this.eTags = new String[timeIndexesByTime.size()];
+        this.gzipETags = new String[timeIndexesByTime.size()];
+        this.variantETags = new String[PRECOMPRESSED_ENCODINGS.length][timeIndexesByTime.size()];
+        for (Map.Entry<Long, Integer> time : timeIndexesByTime.entrySet()) {
+            final long lastModified = time.getKey();
+            final int timeIndex = time.getValue();
+            this.lastModifiedHeaders[timeIndex] = HTTPServer.formatDate(Math.min(lastModified, now));
+            this.eTags[timeIndex] = "W/\"" + lastModified + "\"";
+            this.gzipETags[timeIndex] = "W/\"" + lastModified + "-gzip\"";
+            for (int i = 0; i < PRECOMPRESSED_ENCODINGS.length; i++) {
+                this.variantETags[i][timeIndex] = "W/\"" + lastModified + "-" + PRECOMPRESSED_ENCODINGS[i] + "\"";
+            }
+        }
+
+        this.variantMasks = new byte[size];
+        this.variantRows = new int[PRECOMPRESSED_ENCODINGS.length][];
+        for (int row = 0; row < size; row++) {
+            for (int i = 0; i < PRECOMPRESSED_ENCODINGS.length; i++) {
+                final int variantRow = this.findRow(this.names[row] + PRECOMPRESSED_SUFFIXES[i]);
+                if (variantRow >= 0) {
+                    if (this.variantRows[i] == null) {
+                        this.variantRows[i] = new int[size];
+                        Arrays.fill(this.variantRows[i], -1);
+                    }
+                    this.variantRows[i][row] = variantRow;
+                    this.variantMasks[row] |= 1 << i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of resources in the index.
+     *
+     * @return the number of resources
+     */
+    int size() {
+        return this.names.length;
+    }
+
+    /**
+     * Returns a view of the resource with the given name.
+     *
+     * @param name the name of the resource, relative to the base path
+     * @return the resource, or null if there is no resource with the name
+     */
+    JarResource get(String name) {
+        final int length = name.length();
+        if (length >= this.minNameLength && length <= this.maxNameLength && this.nameFilter.mightContain(name)) {
+            final int row = this.findRow(name);
+            if (row >= 0) {
+                return new JarResource(this, row, row, -1, false);
+            }
+        }
+
+        final Fingerprints fingerprints = this.fingerprints;
+        if (fingerprints != null && length >= fingerprints.minLength && length <= fingerprints.maxLength
+                && fingerprints.filter.mightContain(name)) {
+            final int aliasedRow = fingerprints.slots[findSlot(fingerprints.names, fingerprints.slots, name)] - 1;
+            if (aliasedRow >= 0) {
+                return new JarResource(this, aliasedRow, aliasedRow, -1, true);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a view of the resource in the given row.
+     *
+     * @param row the row, from 0 to {@link #size()} - 1
+     * @return the resource
+     */
+    JarResource get(int row) {
+        return new JarResource(this, row, row, -1, false);
+    }
+
+    /**
+     * Returns the row of the resource with the given name.
+     *
+     * @param name the name of the resource, relative to the base path
+     * @return the row, or -1 if there is no resource with the name
+     */
+    int findRow(String name) {
+        return this.slots[findSlot(this.names, this.slots, name)] - 1;
+    }
+
+    /**
+     * Creates the open-addressed hash table of the given names, which holds
+     * row + 1 in each used slot and 0 in the empty ones. Null names are left
+     * out.
+     */
+    private static int[] createSlots(String[] names) {
+        final int[] slots = new int[Integer.highestOneBit(Math.max(names.length, 1) * 2 - 1) << 1];
+        for (int row = 0; row < names.length; row++) {
+            if (names[row] != null) {
+                slots[findSlot(names, slots, names[row])] = row + 1;
+            }
+        }
+        return slots;
+    }
+
+    private static int getMinLength(String[] names) {
+        int minLength = Integer.MAX_VALUE;
+        for (String name : names) {
+            if (name != null) {
+                minLength = Math.min(minLength, name.length());
+            }
+        }
+        return minLength;
+    }
+
+    private static int getMaxLength(String[] names) {
+        int maxLength = -1;
+        for (String name : names) {
+            if (name != null) {
+                maxLength = Math.max(maxLength, name.length());
+            }
+        }
+        return maxLength;
+    }
+
+    /**
+     * Returns the slot of a hash table of names that holds the given name, or
+     * the empty slot where it would be inserted.
+     */
+    private static int findSlot(String[] names, int[] slots, String name) {
+        final int mask = slots.length - 1;
+        final int hash = name.hashCode();
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (true) {
+            final int row = slots[slot] - 1;
+            if (row < 0 || names[row].equals(name)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Sets the fingerprinted aliases under which the resources are also
+     * served. Aliases that clash with the name of a resource are shadowed by
+     * it.
+     *
+     * @param fingerprintedNames the alias of each row, or null to remove them
+     */
+    void setFingerprintedNames(String[] fingerprintedNames) {
+        this.fingerprints = fingerprintedNames != null ? new Fingerprints(fingerprintedNames) : null;
+    }
+
+    /**
+     * Returns the fingerprinted alias of a row.
+     *
+     * @param row the row
+     * @return the alias, or null if fingerprinting is disabled
+     */
+    String getFingerprintedName(int row) {
+        final Fingerprints fingerprints = this.fingerprints;
+        return fingerprints != null ? fingerprints.names[row] : null;
+    }
+
+    /**
+     * The {@code Fingerprints} class holds the fingerprinted aliases of the
+     * resources of an index, by row, along with their hash table.
+     */
+    private static final class Fingerprints {
+        final String[] names;
+        final int[] slots;
+        final int minLength;
+        final int maxLength;
+        final NameFilter filter;
+
+        Fingerprints(String[] names) {
+            this.names = names;
+            this.slots = createSlots(names);
+            this.minLength = getMinLength(names);
+            this.maxLength = getMaxLength(names);
+            this.filter = new NameFilter(names);
+        }
+    }
+
+    /**
+     * The {@code NameFilter} class is a Bloom filter of names, keyed by their
+     * length and the characters at their start, middle and end instead of by
+     * their whole contents, so that it rejects most names that do not exist in
+     * constant time, e.g. those ending in ".php" in an index of ".js" files.
+     * Names that exist are never rejected.
+     */
+    static final class NameFilter {
+        /**
+         * The number of bits of the filter per name, before rounding up to a
+         * power of two, which leaves about 5% of false positives.
+         */
+        private static final int BITS_PER_NAME = 8;
+
+        private final long[] bits;
+        private final int mask;
+
+        /**
+         * Creates a new {@code NameFilter} of the given names.
+         *
+         * @param names the names, among which null ones are left out
+         */
+        NameFilter(String[] names) {
+            int count = 0;
+            for (String name : names) {
+                if (name != null) {
+                    count++;
+                }
+            }
+            final int bitCount = Integer.highestOneBit(Math.max(count * BITS_PER_NAME, 64) - 1) << 1;
+            this.bits = new long[bitCount >>> 6];
+            this.mask = bitCount - 1;
+            for (String name : names) {
+                if (name != null) {
+                    final int hash = hash(name);
+                    this.set(hash);
+                    this.set(rehash(hash));
+                }
+            }
+        }
+
+        /**
+         * Returns whether a name may be one of the names of the filter.
+         *
+         * @param name the name
+         * @return false if the name is certainly not one of the names, true if
+         *         it may be
+         */
+        boolean mightContain(String name) {
+            final int hash = hash(name);
+            return this.isSet(hash) && this.isSet(rehash(hash));
+        }
+
+        private void set(int hash) {
+            final int bit = hash & this.mask;
+            this.bits[bit >>> 6] |= 1L << bit;
+        }
+
+        private boolean isSet(int hash) {
+            final int bit = hash & this.mask;
+            return (this.bits[bit >>> 6] & (1L << bit)) != 0;
+        }
+
+        private static int hash(String name) {
+            final int length = name.length();
+            int hash = length;
+            if (length > 0) {
+                hash = hash * 31 + name.charAt(0);
+                hash = hash * 31 + name.charAt(length >>> 1);
+                hash = hash * 31 + name.charAt(Math.max(length - 2, 0));
+                hash = hash * 31 + name.charAt(length - 1);
+            }
+            hash *= 0x9e3779b9;
+            return hash ^ (hash >>> 16);
+        }
+
+        private static int rehash(int hash) {
+            final int rehash = hash * 0x85ebca6b;
+            return rehash ^ (rehash >>> 13);
+        }
+    }
+
+    String getName(int row) {
+        return this.names[row];
+    }
+
+    String getEntryName(int row) {
+        return this.basePath + this.names[row];
+    }
+
+    int getMethod(int row) {
+        return this.methods[row] & 0xff;
+    }
+
+    /**
+     * Returns the offset of the (possibly compressed) contents of a resource
+     * within the jar file, reading its local file header the first time if
+     * needed.
+     *
+     * @param row the row
+     * @return the offset, or -1 if unknown or if the local file header cannot
+     *         be read, in which case the resource must be read through the jar
+     *         file
+     */
+    long getDataOffset(int row) {
+        final long offset = this.dataOffsets[row];
+        int headerLength = this.headerLengths[row];
+        if (offset < 0 || headerLength == INVALID_HEADER) {
+            return -1;
+        }
+        if (headerLength == UNREAD_HEADER) {
+            // Concurrent first uses may both read the header, but they store the same length
+            try {
+                headerLength = JarCentralDirectory.readLocalHeaderLength(this.channel, offset,
+                        this.getEntryName(row));
+            } catch (IOException e) {
+                headerLength = INVALID_HEADER;
+            }
+            this.headerLengths[row] = headerLength;
+            if (headerLength == INVALID_HEADER) {
+                return -1;
+            }
+        }
+        return offset + headerLength;
+    }
+
+    long getCompressedSize(int row) {
+        return this.compressedSizes[row];
+    }
+
+    long getLength(int row) {
+        return this.lengths[row];
+    }
+
+    int getCrc(int row) {
+        return this.crcs[row];
+    }
+
+    long getLastModified(int row) {
+        return this.lastModifieds[row];
+    }
+
+    String getLastModifiedHeader(int row) {
+        return this.lastModifiedHeaders[this.timeIndexes[row]];
+    }
+
+    String getETag(int row) {
+        final StrongETags strongETags = this.strongETags;
+        return strongETags != null ? strongETags.eTags[row] : this.eTags[this.timeIndexes[row]];
+    }
+
+    String getGzipETag(int row) {
+        final StrongETags strongETags = this.strongETags;
+        return strongETags != null ? strongETags.gzipETags[row] : this.gzipETags[this.timeIndexes[row]];
+    }
+
+    String getVariantETag(int row, int encodingIndex) {
+        final StrongETags strongETags = this.strongETags;
+        return strongETags != null ? strongETags.variantETags[encodingIndex][row]
+                : this.variantETags[encodingIndex][this.timeIndexes[row]];
+    }
+
+    /**
+     * Sets whether the ETags of the resources are strong ones derived from
+     * their contents, as identified by their CRC-32 and size, instead of weak
+     * ones derived from their last modification times. Strong ETags are
+     * computed once, the first time they are enabled.
+     *
+     * @param enabled whether strong ETags are used
+     */
+    void setStrongETags(boolean enabled) {
+        if (!enabled) {
+            this.strongETags = null;
+        } else if (this.strongETags == null) {
+            this.strongETags = new StrongETags(this);
+        }
+    }
+
+    /**
+     * The {@code StrongETags} class holds the content-based ETags of the
+     * resources of an index, by row.
+     */
+    private static final class StrongETags {
+        /**
+         * The strong ETags of the resources, sent as they are.
+         */
+        final String[] eTags;
+        /**
+         * The ETags of the gzip encoded representations of deflated resources,
+         * which are weak since the compressed bytes depend on the compressor
+         * that built the jar file, and not only on the contents.
+         */
+        final String[] gzipETags;
+        /**
+         * The strong ETags of the resources when sent as a precompressed
+         * variant of another resource, by encoding, or null if no resource has
+         * a variant with the encoding.
+         */
+        final String[][] variantETags;
+
+        StrongETags(JarResourceIndex index) {
+            final int size = index.size();
+            this.eTags = new String[size];
+            this.gzipETags = new String[size];
+            this.variantETags = new String[PRECOMPRESSED_ENCODINGS.length][];
+            for (int row = 0; row < size; row++) {
+                final String contentId = Integer.toHexString(index.crcs[row]) + "-"
+                        + Long.toHexString(index.lengths[row]);
+                this.eTags[row] = "\"" + contentId + "\"";
+                if (index.getMethod(row) == JarCentralDirectory.METHOD_DEFLATED) {
+                    this.gzipETags[row] = "W/\"" + contentId + "-gzip\"";
+                }
+            }
+
+            for (int i = 0; i < PRECOMPRESSED_ENCODINGS.length; i++) {
+                final int[] rows = index.variantRows[i];
+                if (rows == null) {
+                    continue;
+                }
+                this.variantETags[i] = new String[size];
+                for (int variantRow : rows) {
+                    if (variantRow >= 0) {
+                        this.variantETags[i][variantRow] = this.eTags[variantRow].substring(0,
+                                this.eTags[variantRow].length() - 1) + "-" + PRECOMPRESSED_ENCODINGS[i] + "\"";
+                    }
+                }
+            }
+        }
+    }
+
+    String getContentType(int row) {
+        return this.contentTypes[this.contentTypeIndexes[row]];
+    }
+
+    /**
+     * Returns the value of the Cache-Control header of a row.
+     *
+     * @param row the row
+     * @return the Cache-Control header value, or null if none is sent
+     */
+    String getCacheControl(int row) {
+        final CacheControls cacheControls = this.cacheControls;
+        return cacheControls != null ? cacheControls.values[cacheControls.valueIndexes[row]] : null;
+    }
+
+    /**
+     * Evaluates a Cache-Control policy for every row, so that serving a
+     * resource only has to look its header value up.
+     *
+     * @param policy the policy, or null to send no Cache-Control header
+     */
+    void setCacheControlPolicy(CacheControlPolicy policy) {
+        this.cacheControls = policy != null ? new CacheControls(this, policy) : null;
+    }
+
+    /**
+     * The {@code CacheControls} class holds the Cache-Control header values of
+     * the resources of an index, which are shared by the rows that have the
+     * same value.
+     */
+    private static final class CacheControls {
+        final String[] values;
+        final int[] valueIndexes;
+
+        CacheControls(JarResourceIndex index, CacheControlPolicy policy) {
+            final int size = index.size();
+            final Map<String, Integer> indexesByValue = new HashMap<>();
+            final List<String> values = new ArrayList<>();
+            this.valueIndexes = new int[size];
+            for (int row = 0; row < size; row++) {
+                final String value = policy.getCacheControl(index.names[row], index.getContentType(row));
+                Integer valueIndex = indexesByValue.get(value);
+                if (valueIndex == null) {
+                    valueIndex = values.size();
+                    indexesByValue.put(value, valueIndex);
+                    values.add(value);
+                }
+                this.valueIndexes[row] = valueIndex;
+            }
+            this.values = values.toArray(new String[Math.max(values.size(), 1)]);
+        }
+    }
+
+    /**
+     * Returns the content encodings of the precompressed variants of a row.
+     *
+     * @param row the row
+     * @return the content encodings, which must not be modified
+     */
+    String[] getVariantEncodings(int row) {
+        return VARIANT_ENCODINGS_BY_MASK[this.variantMasks[row]];
+    }
+
+    /**
+     * Returns the row of the precompressed variant of a row.
+     *
+     * @param row           the row
+     * @param encodingIndex the index of the content encoding in
+     *                      {@link #PRECOMPRESSED_ENCODINGS}
+     * @return the row of the variant, or -1 if there is none
+     */
+    int getVariantRow(int row, int encodingIndex) {
+        final int[] rows = this.variantRows[encodingIndex];
+        return rows != null ? rows[row] : -1;
+    }
+
+    /**
+     * The {@code Builder} class collects the resources of a
+     * {@link JarResourceIndex}.
+     */
+    static final class Builder {
+        private final String basePath;
+        private final FileChannel channel;
+        private final Map<String, Integer> contentTypes = new HashMap<>();
+        private int size;
+        private String[] names = new String[16];
+        private byte[] methods = new byte[16];
+        private long[] dataOffsets = new long[16];
+        private int[] headerLengths = new int[16];
+        private long[] compressedSizes = new long[16];
+        private long[] lengths = new long[16];
+        private int[] crcs = new int[16];
+        private long[] lastModifieds = new long[16];
+        private int[] contentTypeIndexes = new int[16];
+
+        /**
+         * Creates a new {@code Builder} for resources under the given base path.
+         *
+         * @param basePath the sanitized base path of the resources
+         */
+        Builder(String basePath) {
+            this(basePath, null);
+        }
+
+        /**
+         * Creates a new {@code Builder} for resources under the given base
+         * path, whose local file headers can be read from the given channel.
+         *
+         * @param basePath the sanitized base path of the resources
+         * @param channel  the channel over the jar file from which the local
+         *                 file headers of the resources added by
+         *                 {@link #addAtLocalHeader} are read on first use
+         */
+        Builder(String basePath, FileChannel channel) {
+            this.basePath = basePath;
+            this.channel = channel;
+        }
+
+        /**
+         * Adds a resource to the index. Names must be unique.
+         *
+         * @param name           the name of the resource, relative to the base
+         *                       path
+         * @param method         the compression method of the jar entry
+         * @param dataOffset     the offset of the (possibly compressed) contents
+         *                       within the jar file, or -1 if unknown
+         * @param compressedSize the size of the compressed contents
+         * @param length         the size of the decompressed contents
+         * @param crc            the CRC-32 of the decompressed contents
+         * @param lastModified   the last modification time, in milliseconds
+         * @param contentType    the value of the Content-Type header
+         * @return this builder
+         */
+        Builder add(String name, int method, long dataOffset, long compressedSize, long length, int crc,
+                long lastModified, String contentType) {
+            return this.add(name, method, dataOffset, 0, compressedSize, length, crc, lastModified, contentType);
+        }
+
+        /**
+         * Adds a resource to the index, whose contents follow the local file
+         * header at the given offset. The header is only read when the
+         * contents are first read, so that building the index does not read
+         * every header. Names must be unique.
+         *
+         * @param name              the name of the resource, relative to the
+         *                          base path
+         * @param method            the compression method of the jar entry
+         * @param localHeaderOffset the offset of the local file header within
+         *                          the jar file
+         * @param compressedSize    the size of the compressed contents
+         * @param length            the size of the decompressed contents
+         * @param crc               the CRC-32 of the decompressed contents
+         * @param lastModified      the last modification time, in milliseconds
+         * @param contentType       the value of the Content-Type header
+         * @return this builder
+         */
+        Builder addAtLocalHeader(String name, int method, long localHeaderOffset, long compressedSize, long length,
+                int crc, long lastModified, String contentType) {
+            if (this.channel == null) {
+                throw new IllegalStateException("No channel to read local file headers from");
+            }
+            return this.add(name, method, localHeaderOffset, UNREAD_HEADER, compressedSize, length, crc,
+                    lastModified, contentType);
+        }
+
+        private Builder add(String name, int method, long offset, int headerLength, long compressedSize,
+                long length, int crc, long lastModified, String contentType) {
+            if (this.size == this.names.length) {
+                final int capacity = this.size * 2;
+                this.names = Arrays.copyOf(this.names, capacity);
+                this.methods = Arrays.copyOf(this.methods, capacity);
+                this.dataOffsets = Arrays.copyOf(this.dataOffsets, capacity);
+                this.headerLengths = Arrays.copyOf(this.headerLengths, capacity);
+                this.compressedSizes = Arrays.copyOf(this.compressedSizes, capacity);
+                this.lengths = Arrays.copyOf(this.lengths, capacity);
+                this.crcs = Arrays.copyOf(this.crcs, capacity);
+                this.lastModifieds = Arrays.copyOf(this.lastModifieds, capacity);
+                this.contentTypeIndexes = Arrays.copyOf(this.contentTypeIndexes, capacity);
+            }
+
+            Integer contentTypeIndex = this.contentTypes.get(contentType);
+            if (contentTypeIndex == null) {
+                contentTypeIndex = this.contentTypes.size();
+                this.contentTypes.put(contentType, contentTypeIndex);
+            }
+
+            final int row = this.size++;
+            this.names[row] = name;
+            this.methods[row] = (byte) method;
+            this.dataOffsets[row] = offset;
+            this.headerLengths[row] = headerLength;
+            this.compressedSizes[row] = compressedSize;
+            this.lengths[row] = length;
+            this.crcs[row] = crc;
+            this.lastModifieds[row] = lastModified;
+            this.contentTypeIndexes[row] = contentTypeIndex;
+            return this;
+        }
+
+        /**
+         * Returns the number of resources added so far.
+         *
+         * @return the number of resources
+         */
+        int size() {
+            return this.size;
+        }
+
+        /**
+         * Builds the index, linking every resource with its precompressed
+         * siblings.
+         *
+         * @param now the current time, used to avoid announcing last
+         *            modification times in the future
+         * @return the index
+         */
+        JarResourceIndex build(long now) {
+            return new JarResourceIndex(this, now);
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import net.freeutils.httpserver.HTTPServer;
+
+/**
+ * The {@code JarResourceIndexer} writes a resource index into a jar file at
+ * build time, so that a {@link JarResourceContextHandler} serving it can load
+ * the metadata of all its resources in a single read, instead of scanning
+ * every entry of the jar file when it is created.
+ * <p>
+ * The index holds the name, data offset, sizes, CRC-32, last modification time
+ * and content type of every file under a base path. It is appended to the jar
+ * file as an uncompressed entry named {@value #INDEX_ENTRY_NAME}, after the
+ * existing entries, so their offsets are not changed. The index ends with a
+ * trailer holding its size, and the entry ends right where the central
+ * directory starts, so handlers find it from the end of central directory
+ * record without reading the central directory. If the jar file is rebuilt
+ * or modified afterwards, the index no longer matches the jar file and
+ * handlers ignore it.
+ * <p>
+ * The indexer can be run from the command line, e.g. in the {@code package}
+ * phase of a Maven build through the {@code exec-maven-plugin}:
+ *
+ * <pre>
+ * java -cp jlhttp-extras.jar:jlhttp.jar io.github.guillex7.jlhttp_extras.JarResourceIndexer app.jar static
+ * </pre>
+ */
+public final class JarResourceIndexer {
+    /**
+     * The name of the jar entry holding the resource index.
+     */
+    public static final String INDEX_ENTRY_NAME = "META-INF/jlhttp-extras/resources.idx";
+
+    private static final int INDEX_MAGIC = 0x4a4c5849;
+    private static final int INDEX_VERSION = 2;
+    private static final int INDEX_TRAILER_MAGIC = 0x4a4c5854;
+    /**
+     * The size of the trailer that ends the index, made of the size of the
+     * whole index and {@link #INDEX_TRAILER_MAGIC}.
+     */
+    private static final int INDEX_TRAILER_SIZE = 8;
+
+    private JarResourceIndexer() {
+    }
+
+    /**
+     * Writes a resource index of the files under the given base path into a
+     * jar file, replacing any existing index.
+     *
+     * @param pathToJar the path to the jar file
+     * @param basePath  the base path whose files are indexed, which must be the
+     *                  base path served by the handlers or one of its parents
+     * @return the number of indexed files
+     * @throws IOException if the jar file cannot be read or written
+     */
+    public static int index(Path pathToJar, String basePath) throws IOException {
+        final String prefix = JarResourceContextHandler.getSanitizedBasePath(basePath);
+        final long indexOffset;
+        final byte[] index;
+        final int resourceCount;
+
+        try (JarFile jarFile = new JarFile(pathToJar.toFile());
+                FileChannel channel = FileChannel.open(pathToJar, StandardOpenOption.READ)) {
+            final JarResourceIndex.Builder resources = new JarResourceIndex.Builder("", channel);
+            final Map<String, JarCentralDirectory.Entry> layoutsByName = JarCentralDirectory.read(channel, prefix);
+            for (JarCentralDirectory.Entry layout : layoutsByName.values()) {
+                if (layout.name.endsWith("/") || layout.name.equals(INDEX_ENTRY_NAME)) {
+                    continue;
+                }
+
+                final JarEntry entry = jarFile.getJarEntry(layout.name);
+                final String contentType = HTTPServer.getContentType(layout.name, "application/octet-stream");
+                if (layout.method == JarCentralDirectory.METHOD_STORED
+                        || layout.method == JarCentralDirectory.METHOD_DEFLATED) {
+                    resources.addAtLocalHeader(layout.name, layout.method, layout.localHeaderOffset,
+                            layout.compressedSize, layout.size, layout.crc, entry.getLastModifiedTime().toMillis(),
+                            contentType);
+                } else {
+                    resources.add(layout.name, layout.method, -1, layout.compressedSize, layout.size, layout.crc,
+                            entry.getLastModifiedTime().toMillis(), contentType);
+                }
+            }
+
+            // The local file headers are read while writing the index, and entries whose header cannot be read
+            // are indexed to be read through the jar file
+            indexOffset = JarCentralDirectory.getAppendOffset(channel, INDEX_ENTRY_NAME);
+            index = writeIndex(prefix, indexOffset, resources.build(0));
+            resourceCount = resources.size();
+        }
+
+        try (FileChannel channel = FileChannel.open(pathToJar, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            JarCentralDirectory.appendStoredEntry(channel, INDEX_ENTRY_NAME, index, System.currentTimeMillis());
+        }
+        return resourceCount;
+    }
+
+    /**
+     * Serializes a resource index.
+     *
+     * @param prefix      the base path of the indexed files
+     * @param indexOffset the offset of the local file header of the index entry
+     * @param resources   the indexed files, named by their full names
+     * @return the serialized index
+     * @throws IOException
+     */
+    private static byte[] writeIndex(String prefix, long indexOffset, JarResourceIndex resources)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(INDEX_VERSION);
+        out.writeLong(indexOffset);
+        out.writeUTF(prefix);
+
+        final Map<String, Integer> contentTypeIndexes = new HashMap<>();
+        final List<String> contentTypes = new ArrayList<>();
+        for (int row = 0; row < resources.size(); row++) {
+            if (!contentTypeIndexes.containsKey(resources.getContentType(row))) {
+                contentTypeIndexes.put(resources.getContentType(row), contentTypes.size());
+                contentTypes.add(resources.getContentType(row));
+            }
+        }
+        out.writeInt(contentTypes.size());
+        for (String contentType : contentTypes) {
+            out.writeUTF(contentType);
+        }
+
+        out.writeInt(resources.size());
+        for (int row = 0; row < resources.size(); row++) {
+            out.writeUTF(resources.getEntryName(row));
+            out.writeShort(resources.getMethod(row));
+            out.writeLong(resources.getDataOffset(row));
+            out.writeLong(resources.getCompressedSize(row));
+            out.writeLong(resources.getLength(row));
+            out.writeInt(resources.getCrc(row));
+            out.writeLong(resources.getLastModified(row));
+            out.writeInt(contentTypeIndexes.get(resources.getContentType(row)));
+        }
+        out.writeInt(out.size() + INDEX_TRAILER_SIZE);
+        out.writeInt(INDEX_TRAILER_MAGIC);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Finds the index entry of a jar file from the trailer of the index, which
+     * ends right before the central directory. The central directory itself is
+     * not read, so a jar file whose index was not the last entry written, such
+     * as one modified after it was indexed, has no index found.
+     *
+     * @param channel  the channel of the jar file
+     * @param location the location of the central directory
+     * @return the layout of the index entry, or null if there is none right
+     *         before the central directory
+     * @throws IOException if the jar file cannot be read
+     */
+    static JarCentralDirectory.Entry locateIndex(FileChannel channel, JarCentralDirectory.Location location)
+            throws IOException {
+        if (location.offset < INDEX_TRAILER_SIZE) {
+            return null;
+        }
+
+        final ByteBuffer trailer = ByteBuffer.allocate(INDEX_TRAILER_SIZE);
+        JarCentralDirectory.readFully(channel, trailer, location.offset - INDEX_TRAILER_SIZE);
+        final long size = trailer.getInt(0) & 0xffffffffL;
+        if (trailer.getInt(4) != INDEX_TRAILER_MAGIC || size < INDEX_TRAILER_SIZE) {
+            return null;
+        }
+        return JarCentralDirectory.readStoredEntryBefore(channel, location.offset, size, INDEX_ENTRY_NAME);
+    }
+
+    /**
+     * Reads a resource index, adding the indexed files under the given base
+     * path to an index of resources.
+     *
+     * @param index               the serialized index
+     * @param expectedIndexOffset the actual offset of the local file header of
+     *                            the index entry, which must match the recorded
+     *                            one for the index to be valid
+     * @param basePath            the sanitized base path served by the handler
+     * @param resources           the builder to which resources are added, by
+     *                            their names relative to the base path
+     * @return true if the index was valid and covers the base path, false if it
+     *         must be ignored
+     * @throws IOException if the index is corrupt
+     */
+    static boolean readIndex(byte[] index, long expectedIndexOffset, String basePath,
+            JarResourceIndex.Builder resources) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+        if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION || in.readLong() != expectedIndexOffset
+                || !basePath.startsWith(in.readUTF())) {
+            return false;
+        }
+
+        final String[] contentTypes = new String[in.readInt()];
+        for (int i = 0; i < contentTypes.length; i++) {
+            contentTypes[i] = in.readUTF();
+        }
+
+        final int resourceCount = in.readInt();
+        for (int i = 0; i < resourceCount; i++) {
+            final String entryName = in.readUTF();
+            final int method = in.readShort() & 0xffff;
+            final long dataOffset = in.readLong();
+            final long compressedSize = in.readLong();
+            final long length = in.readLong();
+            final int crc = in.readInt();
+            final long lastModified = in.readLong();
+            final String contentType = contentTypes[in.readInt()];
+            if (entryName.startsWith(basePath)) {
+                final String name = entryName.substring(basePath.length());
+                resources.add(name, method, dataOffset, compressedSize, length, crc, lastModified, contentType);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a resource index into a jar file.
+     * Usage: {@code JarResourceIndexer <path to jar> [base path]}
+     *
+     * @param args the path to the jar file and, optionally, the base path to
+     *             index, which defaults to the whole jar file
+     * @throws IOException if the jar file cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: JarResourceIndexer <path to jar> [base path]");
+            System.exit(2);
+        }
+
+        final int count = index(Paths.get(args[0]), args.length > 1 ? args[1] : "");
+        System.out.println("Indexed " + count + " resources into " + args[0]);
+    }
+}
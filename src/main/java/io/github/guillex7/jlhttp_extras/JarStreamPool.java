@@ -0,0 +1,291 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+
+/**
+ * The {@code JarStreamPool} keeps the raw deflate {@link Inflater}s and the
+ * transfer buffers used by {@link JarResourceContextHandler} to stream jar
+ * entries, so that requests reuse them instead of allocating new ones, along
+ * with the native resources of the inflaters, every time.
+ * <p>
+ * The number of pooled inflaters is bounded: when all of them are in use,
+ * requests wait for one to be released for up to a maximum wait time, and the
+ * time spent waiting is recorded. Since inflaters are held while responses are
+ * written, a few slow clients can keep them all busy, so requests that are
+ * still waiting after that time go on with an inflater of their own, which is
+ * ended instead of pooled afterwards. Buffers are never waited for; the pool
+ * only bounds how many idle buffers it keeps. Requests wait on a
+ * {@link Semaphore} rather than a monitor, so that virtual threads release
+ * their carrier thread while they wait.
+ * <p>
+ * Pools are thread-safe and can be shared between handlers.
+ */
+public class JarStreamPool {
+    /**
+     * The default size of the transfer buffers.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * The default maximum time to wait for a pooled inflater, in milliseconds.
+     */
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 50;
+
+    /**
+     * The inflaters that are not in use.
+     */
+    private final ArrayDeque<Inflater> idleInflaters = new ArrayDeque<>();
+    /**
+     * The buffers that are not in use.
+     */
+    private final ArrayDeque<byte[]> idleBuffers = new ArrayDeque<>();
+    /**
+     * The permits to use an inflater, one per inflater that can be created.
+     */
+    private final Semaphore inflaterPermits;
+    /**
+     * The maximum number of inflaters, in use or idle.
+     */
+    private final int maxInflaters;
+    /**
+     * The size of each transfer buffer.
+     */
+    private final int bufferSize;
+    /**
+     * The maximum time to wait for a pooled inflater, in milliseconds.
+     */
+    private volatile long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+    /**
+     * The number of inflaters created so far and not ended.
+     */
+    private int inflaterCount;
+    /**
+     * The number of times a request had to wait for an inflater.
+     */
+    private long waitCount;
+    /**
+     * The total time spent waiting for inflaters, in nanoseconds.
+     */
+    private long totalWaitNanos;
+    /**
+     * The number of times a request gave up waiting and used an inflater of
+     * its own.
+     */
+    private long unpooledCount;
+
+    /**
+     * Creates a new {@code JarStreamPool} with up to four inflaters per
+     * available processor (and at least 16), and buffers of
+     * {@link #DEFAULT_BUFFER_SIZE} bytes.
+     */
+    public JarStreamPool() {
+        this(Math.max(16, 4 * Runtime.getRuntime().availableProcessors()), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new {@code JarStreamPool} with the given limits.
+     *
+     * @param maxInflaters the maximum number of inflaters, which is also the
+     *                     maximum number of idle buffers kept
+     * @param bufferSize   the size of each transfer buffer
+     */
+    public JarStreamPool(int maxInflaters, int bufferSize) {
+        if (maxInflaters <= 0) {
+            throw new IllegalArgumentException("Maximum number of inflaters must be positive");
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+
+        this.maxInflaters = maxInflaters;
+        this.bufferSize = bufferSize;
+        this.inflaterPermits = new Semaphore(maxInflaters);
+    }
+
+    /**
+     * Takes an inflater from the pool, creating one if there is no idle
+     * inflater and the limit has not been reached, or waiting for one to be
+     * released otherwise.
+     *
+     * @return an inflater for raw deflate data, which must be returned to the
+     *         pool with {@link #releaseInflater(Inflater)} after use, or null
+     *         if none was released within the maximum wait time
+     * @throws InterruptedIOException if the thread is interrupted while waiting
+     */
+    Inflater acquireInflater() throws InterruptedIOException {
+        if (!this.inflaterPermits.tryAcquire()) {
+            final long start = System.nanoTime();
+            final boolean acquired;
+            try {
+                acquired = this.inflaterPermits.tryAcquire(this.maxWaitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for an inflater");
+            } finally {
+                synchronized (this) {
+                    this.waitCount++;
+                    this.totalWaitNanos += System.nanoTime() - start;
+                }
+            }
+            if (!acquired) {
+                synchronized (this) {
+                    this.unpooledCount++;
+                }
+                return null;
+            }
+        }
+
+        synchronized (this) {
+            final Inflater idle = this.idleInflaters.poll();
+            if (idle != null) {
+                return idle;
+            }
+            this.inflaterCount++;
+        }
+        return new Inflater(true);
+    }
+
+    /**
+     * Returns an inflater to the pool, resetting it for the next use.
+     *
+     * @param inflater the inflater, as returned by {@link #acquireInflater()}
+     */
+    void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        synchronized (this) {
+            this.idleInflaters.push(inflater);
+        }
+        this.inflaterPermits.release();
+    }
+
+    /**
+     * Takes a transfer buffer from the pool, allocating one if there is no
+     * idle buffer.
+     *
+     * @return a buffer of {@link #getBufferSize()} bytes, which should be
+     *         returned to the pool with {@link #releaseBuffer(byte[])} after use
+     */
+    byte[] acquireBuffer() {
+        final byte[] buffer;
+        synchronized (this) {
+            buffer = this.idleBuffers.poll();
+        }
+        return buffer != null ? buffer : new byte[this.bufferSize];
+    }
+
+    /**
+     * Returns a transfer buffer to the pool, unless the pool already keeps as
+     * many idle buffers as its maximum number of inflaters.
+     *
+     * @param buffer the buffer, as returned by {@link #acquireBuffer()}
+     */
+    void releaseBuffer(byte[] buffer) {
+        synchronized (this) {
+            if (this.idleBuffers.size() < this.maxInflaters) {
+                this.idleBuffers.push(buffer);
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum time that requests wait for a pooled inflater when all
+     * of them are in use, after which they use an inflater of their own. The
+     * default is {@link #DEFAULT_MAX_WAIT_MILLIS}.
+     *
+     * @param maxWaitMillis the maximum wait time, in milliseconds, or 0 not to
+     *                      wait at all
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        if (maxWaitMillis < 0) {
+            throw new IllegalArgumentException("Maximum wait time cannot be negative");
+        }
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Returns the maximum time that requests wait for a pooled inflater.
+     *
+     * @return the maximum wait time, in milliseconds
+     */
+    public long getMaxWaitMillis() {
+        return this.maxWaitMillis;
+    }
+
+    /**
+     * Returns the maximum number of inflaters of the pool.
+     *
+     * @return the maximum number of inflaters
+     */
+    public int getMaxInflaters() {
+        return this.maxInflaters;
+    }
+
+    /**
+     * Returns the size of the transfer buffers of the pool.
+     *
+     * @return the buffer size, in bytes
+     */
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * Returns the number of inflaters created by the pool, either in use or
+     * idle.
+     *
+     * @return the number of inflaters
+     */
+    public synchronized int getInflaterCount() {
+        return this.inflaterCount;
+    }
+
+    /**
+     * Returns the number of inflaters currently in use.
+     *
+     * @return the number of inflaters in use
+     */
+    public synchronized int getActiveInflaterCount() {
+        return this.inflaterCount - this.idleInflaters.size();
+    }
+
+    /**
+     * Returns the number of idle transfer buffers kept by the pool.
+     *
+     * @return the number of idle buffers
+     */
+    public synchronized int getIdleBufferCount() {
+        return this.idleBuffers.size();
+    }
+
+    /**
+     * Returns the number of times a request had to wait for an inflater
+     * because all of them were in use.
+     *
+     * @return the number of waits
+     */
+    public synchronized long getWaitCount() {
+        return this.waitCount;
+    }
+
+    /**
+     * Returns the total time that requests spent waiting for inflaters.
+     *
+     * @return the total wait time, in nanoseconds
+     */
+    public synchronized long getTotalWaitNanos() {
+        return this.totalWaitNanos;
+    }
+
+    /**
+     * Returns the number of times a request gave up waiting for a pooled
+     * inflater and used an inflater of its own.
+     *
+     * @return the number of unpooled inflaters used
+     */
+    public synchronized long getUnpooledCount() {
+        return this.unpooledCount;
+    }
+}
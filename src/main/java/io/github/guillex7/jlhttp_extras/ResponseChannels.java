@@ -0,0 +1,57 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+import net.freeutils.httpserver.HTTPServer.Request;
+import net.freeutils.httpserver.HTTPServer.Response;
+import net.freeutils.httpserver.HTTPServer.ResponseOutputStream;
+
+/**
+ * The {@code ResponseChannels} class finds the socket channel into which the
+ * body of a response can be written directly, bypassing the streams of
+ * jlhttp, so that files can be transferred to it with
+ * {@link java.nio.channels.FileChannel#transferTo}, which the kernel does
+ * without copying them to user space.
+ * <p>
+ * Only connections accepted by a server socket created through a channel,
+ * such as the ones of a {@link TunedServerSocketFactory} with
+ * {@link TunedServerSocketFactory#setChannelSockets channel sockets}, have
+ * one.
+ */
+final class ResponseChannels {
+    private ResponseChannels() {
+    }
+
+    /**
+     * Returns the socket channel into which the body of a response can be
+     * written directly, after writing out the headers buffered by jlhttp.
+     * This is only possible when the body is sent as it is, without transfer
+     * or content encodings applied by jlhttp, and the connection has a
+     * channel in blocking mode.
+     *
+     * @param request  the request
+     * @param response the response, whose headers must have been sent
+     * @param body     the body stream of the response, as returned by
+     *                 {@link Response#getBody()}
+     * @return the socket channel, or null if the body must be written to its
+     *         stream
+     * @throws IOException if the headers cannot be written out
+     */
+    static SocketChannel getSocketChannel(Request request, Response response, OutputStream body)
+            throws IOException {
+        if (!(body instanceof ResponseOutputStream)) {
+            return null;
+        }
+        final Socket socket = request.getSocket();
+        final SocketChannel channel = socket != null ? socket.getChannel() : null;
+        if (channel == null || !channel.isBlocking()) {
+            return null;
+        }
+
+        response.getOutputStream().flush();
+        return channel;
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+import net.freeutils.httpserver.HTTPServer;
+
+/**
+ * The {@code ServerBootstrap} sets up an {@link HTTPServer} with the best
+ * executor available in the running JVM for its connections, which jlhttp
+ * handles with one blocking thread each: on Java 21 and later, a virtual
+ * thread per connection, so that thousands of idle keep-alive connections are
+ * cheap; before that, a cached pool of platform threads, as jlhttp uses by
+ * default.
+ * <p>
+ * The right executor is picked by the multi-release jar of jlhttp-extras, so
+ * the same code runs on Java 8 and takes advantage of virtual threads on newer
+ * runtimes.
+ */
+public class ServerBootstrap {
+    /**
+     * The server.
+     */
+    private final HTTPServer server;
+    /**
+     * The executor that runs the connections of the server, which must be
+     * shut down when the server stops.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new {@code ServerBootstrap} for a new server listening on the
+     * given port.
+     * 
+     * @param port the port the server listens on
+     */
+    public ServerBootstrap(int port) {
+        this(new HTTPServer(port));
+    }
+
+    /**
+     * Creates a new {@code ServerBootstrap} for the given server, replacing
+     * its executor.
+     * 
+     * @param server the server, which must not be started yet
+     */
+    public ServerBootstrap(HTTPServer server) {
+        this(server, ConnectionExecutors.newExecutor());
+    }
+
+    /**
+     * Creates a new {@code ServerBootstrap} for the given server, with the
+     * given executor for its connections.
+     * 
+     * @param server   the server, which must not be started yet
+     * @param executor the executor that runs the connections
+     */
+    public ServerBootstrap(HTTPServer server, ExecutorService executor) {
+        this.server = server;
+        this.executor = executor;
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Returns whether the executors created by default run each connection in
+     * its own virtual thread, which is the case on Java 21 and later.
+     * 
+     * @return true if connections run in virtual threads by default
+     */
+    public static boolean isVirtualThreadPerConnection() {
+        return ConnectionExecutors.isVirtualThreads();
+    }
+
+    /**
+     * Returns the server, to add its contexts and virtual hosts.
+     * 
+     * @return the server
+     */
+    public HTTPServer getServer() {
+        return this.server;
+    }
+
+    /**
+     * Returns the executor that runs the connections of the server.
+     * 
+     * @return the executor
+     */
+    public ExecutorService getExecutor() {
+        return this.executor;
+    }
+
+    /**
+     * Starts the server.
+     * 
+     * @throws IOException if the server cannot listen on its port
+     */
+    public void start() throws IOException {
+        this.server.start();
+    }
+
+    /**
+     * Stops the server, and shuts down the executor of its connections once
+     * they end.
+     */
+    public void stop() {
+        this.server.stop();
+        this.executor.shutdown();
+    }
+}
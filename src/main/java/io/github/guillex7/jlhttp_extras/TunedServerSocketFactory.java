@@ -0,0 +1,326 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
+
+import javax.net.ServerSocketFactory;
+
+import net.freeutils.httpserver.HTTPServer;
+
+/**
+ * The {@code TunedServerSocketFactory} creates server sockets with a larger
+ * accept backlog than the default of 50 used by
+ * {@link HTTPServer#setServerSocketFactory jlhttp}, and sets the buffer sizes
+ * of the sockets they accept. TCP_NODELAY is not configurable, as jlhttp
+ * always sets it on accepted sockets.
+ * <p>
+ * Server sockets can also be created through a {@link ServerSocketChannel},
+ * so that accepted sockets have a {@link Socket#getChannel() channel} to which
+ * {@link JarResourceContextHandler} can transfer resources straight from the
+ * jar file, which the kernel does without copying them to user space.
+ * <p>
+ * It also lets a {@link BoundedExecutor} answer the connections it rejects
+ * with a 503 response, instead of leaving them to the thread that accepts
+ * connections.
+ */
+public class TunedServerSocketFactory extends ServerSocketFactory {
+    /**
+     * The default accept backlog.
+     */
+    public static final int DEFAULT_BACKLOG = 1024;
+
+    /**
+     * The last socket accepted by each thread, until it is taken by
+     * {@link #takeAcceptedSocket()}. It is weakly referenced, so that it does
+     * not stay reachable once closed when it is never taken, e.g. when the
+     * executor of the server is not a {@link BoundedExecutor}.
+     */
+    private static final ThreadLocal<WeakReference<Socket>> acceptedSockets = new ThreadLocal<>();
+
+    /**
+     * The accept backlog of the server sockets.
+     */
+    private volatile int backlog = DEFAULT_BACKLOG;
+    /**
+     * The receive buffer size of the sockets, or 0 for the system default.
+     */
+    private volatile int receiveBufferSize;
+    /**
+     * The send buffer size of the accepted sockets, or 0 for the system
+     * default.
+     */
+    private volatile int sendBufferSize;
+    /**
+     * Whether server sockets are created through a server socket channel.
+     */
+    private volatile boolean channelSockets;
+
+    /**
+     * Sets the accept backlog of the server sockets created from now on,
+     * which is {@link #DEFAULT_BACKLOG} by default. The operating system may
+     * cap it, e.g. to net.core.somaxconn on Linux.
+     *
+     * @param backlog the maximum number of pending connections
+     */
+    public void setBacklog(int backlog) {
+        if (backlog <= 0) {
+            throw new IllegalArgumentException("Backlog must be positive");
+        }
+        this.backlog = backlog;
+    }
+
+    /**
+     * Sets the receive buffer size of the server sockets created from now on,
+     * which is inherited by the sockets they accept.
+     *
+     * @param receiveBufferSize the buffer size, in bytes, or 0 for the system
+     *                          default
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("Receive buffer size cannot be negative");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Sets the send buffer size of the accepted sockets.
+     *
+     * @param sendBufferSize the buffer size, in bytes, or 0 for the system
+     *                       default
+     */
+    public void setSendBufferSize(int sendBufferSize) {
+        if (sendBufferSize < 0) {
+            throw new IllegalArgumentException("Send buffer size cannot be negative");
+        }
+        this.sendBufferSize = sendBufferSize;
+    }
+
+    /**
+     * Sets whether the server sockets created from now on are backed by a
+     * {@link ServerSocketChannel}, so that the sockets they accept have a
+     * channel, which they do not by default.
+     *
+     * @param channelSockets true to create server sockets through channels
+     */
+    public void setChannelSockets(boolean channelSockets) {
+        this.channelSockets = channelSockets;
+    }
+
+    @Override
+    public ServerSocket createServerSocket() throws IOException {
+        return this.channelSockets ? new ChannelServerSocket() : new TunedServerSocket();
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return this.createServerSocket(port, this.backlog, null);
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port, int backlog) throws IOException {
+        return this.createServerSocket(port, backlog, null);
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port, int backlog, InetAddress address) throws IOException {
+        final ServerSocket serverSocket = this.createServerSocket();
+        try {
+            serverSocket.bind(new InetSocketAddress(address, port), backlog);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+        return serverSocket;
+    }
+
+    /**
+     * Takes the last socket accepted by the current thread, if it has not
+     * been taken yet. As jlhttp accepts a connection and hands it to its
+     * executor in the same thread, this is the socket of the connection being
+     * handed over while it is handed over, and it should be taken afterwards
+     * so as not to be kept.
+     *
+     * @return the socket, or null if there is none
+     */
+    static Socket takeAcceptedSocket() {
+        final WeakReference<Socket> socket = acceptedSockets.get();
+        if (socket == null) {
+            return null;
+        }
+        acceptedSockets.remove();
+        return socket.get();
+    }
+
+    /**
+     * Sets the options of an accepted socket, and makes it the last socket
+     * accepted by the current thread.
+     *
+     * @param socket the accepted socket
+     * @return true if the socket was set up, or false if its connection is
+     *         broken and it was closed
+     * @throws IOException if the socket cannot be closed
+     */
+    private boolean setUpAcceptedSocket(Socket socket) throws IOException {
+        final int sendBufferSize = this.sendBufferSize;
+        try {
+            if (sendBufferSize > 0) {
+                socket.setSendBufferSize(sendBufferSize);
+            }
+        } catch (SocketException e) {
+            // An exception would stop jlhttp from accepting connections
+            socket.close();
+            return false;
+        }
+        acceptedSockets.set(new WeakReference<>(socket));
+        return true;
+    }
+
+    /**
+     * The {@code TunedServerSocket} class is a server socket that applies the
+     * options of its factory.
+     */
+    private final class TunedServerSocket extends ServerSocket {
+        TunedServerSocket() throws IOException {
+            super();
+            final int receiveBufferSize = TunedServerSocketFactory.this.receiveBufferSize;
+            if (receiveBufferSize > 0) {
+                this.setReceiveBufferSize(receiveBufferSize);
+            }
+        }
+
+        @Override
+        public void bind(SocketAddress endpoint) throws IOException {
+            this.bind(endpoint, TunedServerSocketFactory.this.backlog);
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            while (true) {
+                final Socket socket = new Socket();
+                this.implAccept(socket);
+                if (TunedServerSocketFactory.this.setUpAcceptedSocket(socket)) {
+                    return socket;
+                }
+            }
+        }
+    }
+
+    /**
+     * The {@code ChannelServerSocket} class is a server socket that delegates
+     * to the socket of a {@link ServerSocketChannel} in blocking mode, and
+     * applies the options of its factory. The channel socket itself cannot be
+     * used, as it binds with the default backlog.
+     */
+    private final class ChannelServerSocket extends ServerSocket {
+        private final ServerSocketChannel channel;
+        private final ServerSocket socket;
+
+        ChannelServerSocket() throws IOException {
+            super();
+            this.channel = ServerSocketChannel.open();
+            this.socket = this.channel.socket();
+            final int receiveBufferSize = TunedServerSocketFactory.this.receiveBufferSize;
+            if (receiveBufferSize > 0) {
+                this.socket.setReceiveBufferSize(receiveBufferSize);
+            }
+        }
+
+        @Override
+        public void bind(SocketAddress endpoint) throws IOException {
+            this.socket.bind(endpoint, TunedServerSocketFactory.this.backlog);
+        }
+
+        @Override
+        public void bind(SocketAddress endpoint, int backlog) throws IOException {
+            this.socket.bind(endpoint, backlog);
+        }
+
+        @Override
+        public Socket accept() throws IOException {
+            while (true) {
+                final Socket socket = this.socket.accept();
+                if (TunedServerSocketFactory.this.setUpAcceptedSocket(socket)) {
+                    return socket;
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+
+        @Override
+        public ServerSocketChannel getChannel() {
+            return this.channel;
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return this.socket.getInetAddress();
+        }
+
+        @Override
+        public int getLocalPort() {
+            return this.socket.getLocalPort();
+        }
+
+        @Override
+        public SocketAddress getLocalSocketAddress() {
+            return this.socket.getLocalSocketAddress();
+        }
+
+        @Override
+        public boolean isBound() {
+            return this.socket.isBound();
+        }
+
+        @Override
+        public boolean isClosed() {
+            return this.socket.isClosed();
+        }
+
+        @Override
+        public void setReuseAddress(boolean on) throws SocketException {
+            this.socket.setReuseAddress(on);
+        }
+
+        @Override
+        public boolean getReuseAddress() throws SocketException {
+            return this.socket.getReuseAddress();
+        }
+
+        @Override
+        public void setReceiveBufferSize(int size) throws SocketException {
+            this.socket.setReceiveBufferSize(size);
+        }
+
+        @Override
+        public int getReceiveBufferSize() throws SocketException {
+            return this.socket.getReceiveBufferSize();
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) throws SocketException {
+            this.socket.setSoTimeout(timeout);
+        }
+
+        @Override
+        public int getSoTimeout() throws IOException {
+            return this.socket.getSoTimeout();
+        }
+
+        @Override
+        public String toString() {
+            return this.socket.toString();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The {@code ConnectionExecutors} class creates the executors that run the
+ * connections of the servers created by {@link ServerBootstrap}.
+ * <p>
+ * This version, used from Java 21 on, runs each connection in its own virtual
+ * thread, so that idle keep-alive connections only take a few kilobytes of
+ * heap instead of a platform thread and its stack.
+ */
+final class ConnectionExecutors {
+    private ConnectionExecutors() {
+    }
+
+    /**
+     * Returns whether the executors run each connection in its own virtual
+     * thread.
+     *
+     * @return true if connections run in virtual threads
+     */
+    static boolean isVirtualThreads() {
+        return true;
+    }
+
+    /**
+     * Creates an executor that runs each connection in its own thread.
+     *
+     * @return the executor
+     */
+    static ExecutorService newExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("jlhttp-connection-", 0).factory());
+    }
+}
@@ -0,0 +1,165 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.Test;
+
+import net.freeutils.httpserver.HTTPServer;
+
+class AdaptiveConcurrencyLimitHandlerTest {
+    /**
+     * The number of threads calling the handler at once, more than its limit
+     * ever reaches in these tests.
+     */
+    private static final int CLIENTS = 32;
+
+    private final HTTPServer server = new HTTPServer();
+    /**
+     * The time that the wrapped handler takes to serve a request.
+     */
+    private volatile long latencyMillis = 1;
+
+    @Test
+    void limitShrinksWhenLatencyGrowsAndRecoversAfterwards() throws Exception {
+        final AdaptiveConcurrencyLimitHandler handler = new AdaptiveConcurrencyLimitHandler((request, response) -> {
+            try {
+                Thread.sleep(this.latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 0;
+        }, 10, 2, 40);
+
+        // The baseline is measured at the initial limit, which then grows as the latency stays the same
+        this.runUntil(handler, () -> handler.getLimit() >= 14);
+        final long baselineLatency = handler.getBaselineLatencyNanos();
+        assertTrue(baselineLatency > 0);
+        assertTrue(handler.getRejectedCount() > 0);
+
+        // A slower backend makes the requests queue, so the limit shrinks
+        this.latencyMillis = 10;
+        final int grownLimit = handler.getLimit();
+        this.runUntil(handler, () -> handler.getLimit() <= grownLimit - 4);
+        final int shrunkLimit = handler.getLimit();
+        assertTrue(shrunkLimit >= 2);
+        assertTrue(handler.getWindowLatencyNanos() > baselineLatency * 2);
+
+        // The baseline only follows the higher latency slowly, so the limit grows again once the latency is back
+        this.latencyMillis = 1;
+        this.runUntil(handler, () -> handler.getLimit() >= shrunkLimit + 4);
+        assertEquals(0, handler.getInFlightCount());
+    }
+
+    @Test
+    void limitDoesNotGrowWhileMostOfItIsUnused() throws Exception {
+        final AdaptiveConcurrencyLimitHandler handler = new AdaptiveConcurrencyLimitHandler((request, response) -> 0,
+                10, 1, 100);
+        // A single client never uses more than one of the requests that the limit allows
+        for (int i = 0; i < AdaptiveConcurrencyLimitHandler.WINDOW_SIZE * 10; i++) {
+            this.serve(handler);
+        }
+        assertEquals(10, handler.getLimit());
+        assertEquals(0, handler.getRejectedCount());
+        assertTrue(handler.getBaselineLatencyNanos() > 0);
+    }
+
+    @Test
+    void limitGrowsWhenBurstsUseAllOfIt() throws Exception {
+        final int limit = 8;
+        final CyclicBarrier burst = new CyclicBarrier(limit);
+        final AdaptiveConcurrencyLimitHandler handler = new AdaptiveConcurrencyLimitHandler((request, response) -> {
+            try {
+                // Each burst uses the whole limit, and its requests end one after the other, so the request that
+                // completes a window is the only one left in flight
+                final int arrival = burst.await(5, TimeUnit.SECONDS);
+                Thread.sleep(2L * arrival);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (BrokenBarrierException | TimeoutException e) {
+                throw new IllegalStateException(e);
+            }
+            return 0;
+        }, limit, 1, 100);
+
+        // The clients wait for the whole burst to end before starting the next one
+        final CyclicBarrier burstEnd = new CyclicBarrier(limit);
+        final int requestsPerClient = AdaptiveConcurrencyLimitHandler.WINDOW_SIZE * 3 / limit;
+        final ExecutorService clients = Executors.newFixedThreadPool(limit);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < limit; i++) {
+                futures.add(clients.submit(() -> {
+                    for (int request = 0; request < requestsPerClient; request++) {
+                        this.serve(handler);
+                        burstEnd.await(5, TimeUnit.SECONDS);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(20, TimeUnit.SECONDS);
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        assertEquals(0, handler.getRejectedCount());
+        assertTrue(handler.getLimit() > limit, "Limit " + handler.getLimit());
+    }
+
+    @Test
+    void invalidLimitsAreRejected() {
+        final HTTPServer.ContextHandler ok = (request, response) -> 200;
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimitHandler(null));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimitHandler(ok, 1, 0, 10));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimitHandler(ok, 5, 6, 5));
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveConcurrencyLimitHandler(ok, 11, 1, 10));
+    }
+
+    /**
+     * Calls the handler from {@link #CLIENTS} threads until the given
+     * condition holds, failing after 20 seconds.
+     */
+    private void runUntil(AdaptiveConcurrencyLimitHandler handler, BooleanSupplier condition) throws Exception {
+        final ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        final List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < CLIENTS; i++) {
+                futures.add(clients.submit(() -> {
+                    while (!condition.getAsBoolean() && !Thread.currentThread().isInterrupted()) {
+                        this.serve(handler);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(20, TimeUnit.SECONDS);
+            }
+        } finally {
+            clients.shutdownNow();
+            assertTrue(clients.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private void serve(AdaptiveConcurrencyLimitHandler handler) throws Exception {
+        final HTTPServer.Response response = this.server.new Response(new ByteArrayOutputStream());
+        handler.serve(null, response);
+        if (response.headersSent()) {
+            // Rejected clients back off, as they would when retrying
+            Thread.sleep(1);
+        }
+    }
+}
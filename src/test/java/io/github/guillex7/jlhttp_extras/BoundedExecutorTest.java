@@ -0,0 +1,144 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.freeutils.httpserver.HTTPServer;
+
+class BoundedExecutorTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch started = new CountDownLatch(1);
+    private BoundedExecutor executor;
+    private ServerBootstrap bootstrap;
+    private int port;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            this.port = socket.getLocalPort();
+        }
+        final HTTPServer server = new HTTPServer(this.port);
+        server.setServerSocketFactory(new TunedServerSocketFactory());
+        server.getVirtualHost(null).addContext("/slow", (request, response) -> {
+            this.started.countDown();
+            try {
+                this.release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            response.send(200, "ok");
+            return 0;
+        }, "GET", "POST");
+        this.executor = new BoundedExecutor(1, 0);
+        this.bootstrap = new ServerBootstrap(server, this.executor);
+        this.bootstrap.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.release.countDown();
+        this.bootstrap.stop();
+    }
+
+    @Test
+    void rejectedConnectionWithUnreadRequestBodyReceives503() throws Exception {
+        try (Socket busy = this.connect()) {
+            busy.getOutputStream().write("GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(this.started.await(5, TimeUnit.SECONDS));
+
+            try (Socket rejected = this.connect()) {
+                final byte[] body = new byte[16 * 1024];
+                final OutputStream out = rejected.getOutputStream();
+                out.write(("POST /slow HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + body.length + "\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                out.write(body);
+                out.flush();
+
+                final String response = readAll(rejected.getInputStream());
+                assertTrue(response.startsWith("HTTP/1.1 503 Service Unavailable\r\n"), response);
+                assertTrue(response.contains("\r\nRetry-After: 1\r\n"), response);
+            }
+        }
+        assertEquals(1, this.executor.getRejectedCount());
+    }
+
+    @Test
+    void rejectedConnectionsDoNotHoldUpAcceptingConnections() throws Exception {
+        final List<Socket> rejected = new ArrayList<>();
+        try (Socket busy = this.connect()) {
+            busy.getOutputStream().write("GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            assertTrue(this.started.await(5, TimeUnit.SECONDS));
+
+            // Each of them keeps its connection open, so draining its input lasts until the drain timeout
+            for (int i = 0; i < 20; i++) {
+                final Socket socket = this.connect();
+                rejected.add(socket);
+                socket.getOutputStream().write("GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                        .getBytes(StandardCharsets.ISO_8859_1));
+            }
+            final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1000);
+            while (this.executor.getRejectedCount() < rejected.size() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(rejected.size(), this.executor.getRejectedCount());
+
+            final Map<String, String> headers = new HashMap<>();
+            assertEquals("HTTP/1.1 503 Service Unavailable",
+                    TestHttp.readResponseHead(rejected.get(0).getInputStream(), headers));
+        } finally {
+            for (Socket socket : rejected) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    void connectionAfterShutdownIsClosed() throws Exception {
+        this.executor.shutdown();
+        try (Socket socket = this.connect()) {
+            socket.getOutputStream().write("GET /slow HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            assertEquals("", readAll(socket.getInputStream()));
+        }
+        assertEquals(1, this.executor.getRejectedCount());
+        assertEquals(1, this.started.getCount());
+    }
+
+    private Socket connect() throws IOException {
+        final Socket socket = new Socket();
+        socket.connect(new InetSocketAddress("localhost", this.port));
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static String readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, count);
+        }
+        return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+    }
+}
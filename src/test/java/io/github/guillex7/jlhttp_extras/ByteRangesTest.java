@@ -0,0 +1,73 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class ByteRangesTest {
+    @Test
+    void singleRangesAreParsed() {
+        assertRanges(ByteRanges.parse("bytes=0-9", 1000, 16), 0, 9);
+        assertRanges(ByteRanges.parse("bytes=990-", 1000, 16), 990, 999);
+        assertRanges(ByteRanges.parse("bytes=-10", 1000, 16), 990, 999);
+        assertRanges(ByteRanges.parse("bytes=-2000", 1000, 16), 0, 999);
+        assertRanges(ByteRanges.parse("bytes=900-5000", 1000, 16), 900, 999);
+        assertRanges(ByteRanges.parse("Bytes= 5-6 ", 1000, 16), 5, 6);
+    }
+
+    @Test
+    void separateRangesAreKeptInAscendingOrder() {
+        assertRanges(ByteRanges.parse("bytes=500-509,0-9", 1000, 16), 0, 9, 500, 509);
+        assertRanges(ByteRanges.parse("bytes=0-9,-10", 1000, 16), 0, 9, 990, 999);
+    }
+
+    @Test
+    void overlappingAndCloseRangesAreCoalesced() {
+        assertRanges(ByteRanges.parse("bytes=0-9,5-20", 1000, 16), 0, 20);
+        assertRanges(ByteRanges.parse("bytes=0-9,10-19", 1000, 16), 0, 19);
+        // Separated by fewer bytes than a part header takes
+        assertRanges(ByteRanges.parse("bytes=0-9," + (10 + ByteRanges.COALESCE_GAP) + "-200", 1000, 16), 0, 200);
+        assertRanges(ByteRanges.parse("bytes=0-9," + (11 + ByteRanges.COALESCE_GAP) + "-200", 1000, 16),
+                0, 9, 11 + ByteRanges.COALESCE_GAP, 200);
+        assertRanges(ByteRanges.parse("bytes=0-999,100-199,500-", 1000, 16), 0, 999);
+    }
+
+    @Test
+    void tooManyRangesAreMergedIntoOne() {
+        assertRanges(ByteRanges.parse("bytes=0-9,200-209,400-409", 1000, 3), 0, 9, 200, 209, 400, 409);
+        assertRanges(ByteRanges.parse("bytes=0-9,200-209,400-409", 1000, 2), 0, 409);
+        assertRanges(ByteRanges.parse("bytes=0-9,200-209", 1000, 1), 0, 209);
+    }
+
+    @Test
+    void unsatisfiableRangesAreLeftOut() {
+        assertRanges(ByteRanges.parse("bytes=1000-", 1000, 16));
+        assertRanges(ByteRanges.parse("bytes=-0", 1000, 16));
+        assertRanges(ByteRanges.parse("bytes=1000-1010,0-9", 1000, 16), 0, 9);
+    }
+
+    @Test
+    void invalidHeadersAreIgnored() {
+        assertNull(ByteRanges.parse(null, 1000, 16));
+        assertNull(ByteRanges.parse("items=0-9", 1000, 16));
+        assertNull(ByteRanges.parse("bytes=", 1000, 16));
+        assertNull(ByteRanges.parse("bytes=9-5", 1000, 16));
+        assertNull(ByteRanges.parse("bytes=a-b", 1000, 16));
+        assertNull(ByteRanges.parse("bytes=0-9,x", 1000, 16));
+        assertNull(ByteRanges.parse("bytes=+1-2", 1000, 16));
+        assertNull(ByteRanges.parse("bytes=--1", 1000, 16));
+    }
+
+    /**
+     * Asserts that the given ranges are the expected {start, end} pairs.
+     */
+    private static void assertRanges(long[][] ranges, long... expected) {
+        final long[] flattened = new long[ranges.length * 2];
+        for (int i = 0; i < ranges.length; i++) {
+            flattened[i * 2] = ranges[i][0];
+            flattened[i * 2 + 1] = ranges[i][1];
+        }
+        assertArrayEquals(expected, flattened);
+    }
+}
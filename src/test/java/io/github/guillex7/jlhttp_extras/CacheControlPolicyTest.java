@@ -0,0 +1,76 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+class CacheControlPolicyTest {
+    @Test
+    void globsMatchWholeNames() {
+        final CacheControlPolicy policy = new CacheControlPolicy();
+        policy.addGlobRule("assets/**", "assets");
+        policy.addGlobRule("*.html", "html");
+        policy.addGlobRule("img/?.png", "icon");
+
+        assertEquals("assets", policy.getCacheControl("assets/js/app.js", "application/javascript"));
+        assertEquals("html", policy.getCacheControl("index.html", "text/html"));
+        // "*" does not match slashes
+        assertNull(policy.getCacheControl("docs/index.html", "text/html"));
+        assertEquals("icon", policy.getCacheControl("img/a.png", "image/png"));
+        assertNull(policy.getCacheControl("img/ab.png", "image/png"));
+        // Glob characters other than wildcards are literal
+        policy.addGlobRule("(a+).txt", "literal");
+        assertEquals("literal", policy.getCacheControl("(a+).txt", "text/plain"));
+        assertNull(policy.getCacheControl("aa.txt", "text/plain"));
+    }
+
+    @Test
+    void extensionsMatchIgnoringCase() {
+        final CacheControlPolicy policy = new CacheControlPolicy();
+        policy.addExtensionRule("js", "js");
+        policy.addExtensionRule(".CSS", "css");
+
+        assertEquals("js", policy.getCacheControl("app.JS", "application/javascript"));
+        assertEquals("css", policy.getCacheControl("style/site.css", "text/css"));
+        // The extension must follow a file name
+        assertNull(policy.getCacheControl("dir/.js", "application/javascript"));
+        assertNull(policy.getCacheControl("app.json", "application/json"));
+    }
+
+    @Test
+    void contentTypesMatchIgnoringParameters() {
+        final CacheControlPolicy policy = new CacheControlPolicy();
+        policy.addContentTypeRule("text/html", "html");
+        policy.addContentTypeRule("Image/*", "image");
+
+        assertEquals("html", policy.getCacheControl("a", "text/html; charset=utf-8"));
+        assertEquals("image", policy.getCacheControl("a", "image/svg+xml"));
+        assertNull(policy.getCacheControl("a", "text/plain"));
+        assertNull(policy.getCacheControl("a", "imagery/x"));
+    }
+
+    @Test
+    void firstMatchingRuleWins() {
+        final CacheControlPolicy policy = new CacheControlPolicy();
+        policy.addGlobRule("index.html", null);
+        policy.addExtensionRule("html", "html");
+        policy.setDefault("default");
+
+        assertNull(policy.getCacheControl("index.html", "text/html"));
+        assertEquals("html", policy.getCacheControl("about.html", "text/html"));
+        assertEquals("default", policy.getCacheControl("app.js", "application/javascript"));
+    }
+
+    @Test
+    void directivesAreJoined() {
+        assertEquals("public, max-age=60", CacheControlPolicy.directives(60, -1, -1, false));
+        assertEquals("public, max-age=31536000, immutable", CacheControlPolicy.directives(31536000, -1, -1, true));
+        assertEquals("private, max-age=0, stale-while-revalidate=30",
+                CacheControlPolicy.directives(CacheControlPolicy.Visibility.PRIVATE, 0, -1, 30, false));
+        assertEquals("public, max-age=60, s-maxage=600",
+                CacheControlPolicy.directives(CacheControlPolicy.Visibility.PUBLIC, 60, 600, -1, false));
+        assertEquals("no-cache", CacheControlPolicy.directives(CacheControlPolicy.Visibility.NO_CACHE, -1, -1, -1,
+                false));
+    }
+}
@@ -0,0 +1,109 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import net.freeutils.httpserver.HTTPServer;
+
+class ConcurrencyLimitHandlerTest {
+    /**
+     * The permits of the requests to the slow handler to end, one per
+     * request.
+     */
+    private final Semaphore release = new Semaphore(0);
+    private final Semaphore started = new Semaphore(0);
+    private final ExecutorService clients = Executors.newCachedThreadPool();
+    private ConcurrencyLimitHandler handler;
+    private HTTPServer server;
+    private int port;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.handler = new ConcurrencyLimitHandler((request, response) -> {
+            this.started.release();
+            try {
+                if (!this.release.tryAcquire(10, TimeUnit.SECONDS)) {
+                    return 500;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 500;
+            }
+            response.send(200, "done");
+            return 0;
+        }, 1);
+        this.port = TestHttp.findFreePort();
+        this.server = new HTTPServer(this.port);
+        this.server.getVirtualHost(null).addContext("/slow", this.handler);
+        this.server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.release.release(100);
+        this.clients.shutdownNow();
+        this.server.stop();
+    }
+
+    @Test
+    void requestBeyondTheLimitIsRejectedWhileAnotherIsServed() throws Exception {
+        this.handler.setRetryAfterSeconds(3);
+        final Future<TestHttp.Response> blocked = this.clients.submit(() -> TestHttp.get(this.port, "/slow"));
+        assertTrue(this.started.tryAcquire(5, TimeUnit.SECONDS));
+        assertEquals(1, this.handler.getInFlightCount());
+
+        final TestHttp.Response rejected = TestHttp.get(this.port, "/slow");
+        assertEquals(503, rejected.status);
+        assertEquals("3", rejected.header("Retry-After"));
+        assertEquals("text/html; charset=utf-8", rejected.header("Content-Type"));
+        assertTrue(rejected.bodyText().contains("503 Service Unavailable"), rejected.bodyText());
+        assertEquals(1, this.handler.getRejectedCount());
+
+        this.release.release();
+        assertEquals("done", blocked.get(5, TimeUnit.SECONDS).bodyText());
+        assertEquals(0, this.handler.getInFlightCount());
+
+        // The permit was given back
+        this.release.release();
+        assertEquals("done", TestHttp.get(this.port, "/slow").bodyText());
+        assertEquals(1, this.handler.getRejectedCount());
+    }
+
+    @Test
+    void requestWaitsForThePermitUpToTheQueueTimeout() throws Exception {
+        this.handler.setQueueTimeout(5, TimeUnit.SECONDS);
+        final Future<TestHttp.Response> first = this.clients.submit(() -> TestHttp.get(this.port, "/slow"));
+        assertTrue(this.started.tryAcquire(5, TimeUnit.SECONDS));
+
+        final Future<TestHttp.Response> queued = this.clients.submit(() -> TestHttp.get(this.port, "/slow"));
+        // Leaves the second request time to find the limit reached, which would reject it without a queue timeout
+        Thread.sleep(300);
+        assertEquals(1, this.handler.getInFlightCount());
+        this.release.release(2);
+
+        assertEquals("done", first.get(5, TimeUnit.SECONDS).bodyText());
+        assertEquals("done", queued.get(5, TimeUnit.SECONDS).bodyText());
+        assertEquals(0, this.handler.getRejectedCount());
+    }
+
+    @Test
+    void invalidArgumentsAreRejected() {
+        final HTTPServer.ContextHandler ok = (request, response) -> 200;
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimitHandler(null, 1));
+        assertThrows(IllegalArgumentException.class, () -> new ConcurrencyLimitHandler(ok, 0));
+        assertThrows(IllegalArgumentException.class, () -> this.handler.setQueueTimeout(-1, TimeUnit.SECONDS));
+        assertThrows(IllegalArgumentException.class, () -> this.handler.setRetryAfterSeconds(-1));
+    }
+}
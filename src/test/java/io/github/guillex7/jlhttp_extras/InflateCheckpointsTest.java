@@ -0,0 +1,235 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class InflateCheckpointsTest {
+    /**
+     * The bytes before the compressed contents in the test file, so that the
+     * contents do not start at offset 0.
+     */
+    private static final int DATA_OFFSET = 7;
+    private static final String[] WORDS = { "jar", "resource", "context", "handler", "inflate", "checkpoint",
+            "window", "block", "huffman", "stored", "deflate", "server" };
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void inflationFromEveryCheckpointMatchesTheOriginal() throws IOException {
+        final Random random = new Random(42);
+        final ByteArrayOutputStream original = new ByteArrayOutputStream();
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        final byte[] buffer = new byte[8192];
+        for (int segment = 0; segment < 300; segment++) {
+            final int level;
+            final byte[] data;
+            final int flush;
+            switch (random.nextInt(3)) {
+                case 0:
+                    // Incompressible bytes without compression end up in stored blocks
+                    level = Deflater.NO_COMPRESSION;
+                    data = new byte[1 + random.nextInt(600)];
+                    random.nextBytes(data);
+                    flush = Deflater.NO_FLUSH;
+                    break;
+                case 1:
+                    // Enough text ends up in dynamic Huffman blocks
+                    level = Deflater.BEST_SPEED;
+                    data = createText(random, 50 + random.nextInt(400));
+                    flush = Deflater.NO_FLUSH;
+                    break;
+                default:
+                    // A few words on their own end up in a fixed Huffman block
+                    level = Deflater.BEST_COMPRESSION;
+                    data = createText(random, 1 + random.nextInt(4));
+                    flush = random.nextBoolean() ? Deflater.SYNC_FLUSH : Deflater.NO_FLUSH;
+                    break;
+            }
+            // These levels use different algorithms in zlib, so changing between them ends the current block
+            // wherever it is. The change is applied before setting the input, or it would be deflated with the
+            // previous level
+            deflater.setLevel(level);
+            deflate(deflater, buffer, Deflater.NO_FLUSH, compressed);
+            original.write(data);
+            deflater.setInput(data);
+            deflate(deflater, buffer, flush, compressed);
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+
+        final byte[] contents = original.toByteArray();
+        final byte[] deflated = compressed.toByteArray();
+        final byte[] file = new byte[DATA_OFFSET + deflated.length];
+        System.arraycopy(deflated, 0, file, DATA_OFFSET, deflated.length);
+        final Path path = this.tempDir.resolve("deflated.bin");
+        Files.write(path, file);
+
+        final CRC32 crc = new CRC32();
+        crc.update(contents, 0, contents.length);
+        final JarResource resource = new JarResourceIndex.Builder("")
+                .add("deflated.bin", JarEntry.DEFLATED, DATA_OFFSET, deflated.length, contents.length,
+                        (int) crc.getValue(), 0, "application/octet-stream")
+                .build(System.currentTimeMillis()).get(0);
+
+        // The block types (0 stored, 1 fixed and 2 dynamic Huffman codes) by bit offset within a byte
+        final Set<Integer> covered = new TreeSet<>();
+        final JarStreamPool pool = new JarStreamPool();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final InflateCheckpoints checkpoints = InflateCheckpoints.build(channel, resource, 1);
+            InflateCheckpoints.Checkpoint previous = null;
+            for (long offset = 1; offset < contents.length; offset++) {
+                final InflateCheckpoints.Checkpoint checkpoint = checkpoints.find(offset);
+                if (checkpoint == null || checkpoint == previous) {
+                    continue;
+                }
+                previous = checkpoint;
+                assertSame(checkpoint, checkpoints.find(checkpoint.outputOffset));
+
+                final long bitOffset = DATA_OFFSET * 8L + checkpoint.bitOffset;
+                final int blockType = readBit(file, bitOffset + 1) | readBit(file, bitOffset + 2) << 1;
+                covered.add(blockType * 8 + (int) (checkpoint.bitOffset & 7));
+
+                // Start both at the checkpoint and past it, reading beyond the window of the checkpoint
+                for (long start : new long[] { checkpoint.outputOffset, checkpoint.outputOffset + 1 }) {
+                    final int length = (int) Math.min(contents.length - start, 40000);
+                    final byte[] read = readFully(new JarEntryInputStream(channel, pool, resource, start,
+                            checkpoint), length);
+                    assertArrayEquals(Arrays.copyOfRange(contents, (int) start, (int) start + length), read,
+                            "Inflating from offset " + start + " at bit " + checkpoint.bitOffset);
+                }
+            }
+        }
+
+        for (int blockType = 0; blockType < 3; blockType++) {
+            for (int bitShift = 0; bitShift < 8; bitShift++) {
+                assertTrue(covered.contains(blockType * 8 + bitShift),
+                        "No checkpoint of block type " + blockType + " at bit offset " + bitShift);
+            }
+        }
+    }
+
+    @Test
+    void checkpointsAreSpacedAndFoundByOffset() throws IOException {
+        final byte[] contents = createText(new Random(7), 200000);
+        final JarResource resource = this.writeDeflated(contents);
+        final int spacing = 64 * 1024;
+        try (FileChannel channel = FileChannel.open(this.tempDir.resolve("deflated.bin"), StandardOpenOption.READ)) {
+            final InflateCheckpoints checkpoints = InflateCheckpoints.build(channel, resource, spacing);
+            assertTrue(checkpoints.size() > 1);
+
+            long previousOffset = -spacing;
+            for (long offset = 0; offset < contents.length; offset += 997) {
+                final InflateCheckpoints.Checkpoint checkpoint = checkpoints.find(offset);
+                if (checkpoint == null) {
+                    continue;
+                }
+                assertTrue(checkpoint.outputOffset <= offset);
+                if (checkpoint.outputOffset != previousOffset) {
+                    assertTrue(checkpoint.outputOffset - previousOffset >= spacing);
+                    previousOffset = checkpoint.outputOffset;
+                }
+            }
+            assertNull(checkpoints.find(0));
+        }
+    }
+
+    @Test
+    void contentsOfTheWrongSizeAreRejected() throws IOException {
+        final byte[] contents = createText(new Random(8), 1000);
+        final JarResource resource = this.writeDeflated(contents);
+        final JarResource truncated = new JarResourceIndex.Builder("")
+                .add("deflated.bin", JarEntry.DEFLATED, resource.getDataOffset(), resource.getCompressedSize(),
+                        contents.length + 1, resource.getCrc(), 0, "application/octet-stream")
+                .build(0).get(0);
+        try (FileChannel channel = FileChannel.open(this.tempDir.resolve("deflated.bin"), StandardOpenOption.READ)) {
+            assertThrows(ZipException.class, () -> InflateCheckpoints.build(channel, truncated, 1024));
+        }
+    }
+
+    /**
+     * Writes the given contents deflated into "deflated.bin", after
+     * {@link #DATA_OFFSET} bytes, and returns a resource for them.
+     */
+    private JarResource writeDeflated(byte[] contents) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        compressed.write(new byte[DATA_OFFSET]);
+        final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(contents);
+        deflater.finish();
+        final byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        Files.write(this.tempDir.resolve("deflated.bin"), compressed.toByteArray());
+
+        final CRC32 crc = new CRC32();
+        crc.update(contents, 0, contents.length);
+        return new JarResourceIndex.Builder("")
+                .add("deflated.bin", JarEntry.DEFLATED, DATA_OFFSET, compressed.size() - DATA_OFFSET,
+                        contents.length, (int) crc.getValue(), 0, "application/octet-stream")
+                .build(0).get(0);
+    }
+
+    private static void deflate(Deflater deflater, byte[] buffer, int flush, ByteArrayOutputStream out) {
+        int count;
+        while ((count = deflater.deflate(buffer, 0, buffer.length, flush)) > 0) {
+            out.write(buffer, 0, count);
+        }
+    }
+
+    private static byte[] createText(Random random, int wordCount) {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(8) == 0 ? '\n' : ' ');
+        }
+        return text.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static int readBit(byte[] bytes, long bitOffset) {
+        return (bytes[(int) (bitOffset >>> 3)] >>> (bitOffset & 7)) & 1;
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        try (InputStream stream = in) {
+            final byte[] read = new byte[length];
+            int total = 0;
+            while (total < length) {
+                final int count = stream.read(read, total, length - total);
+                if (count < 0) {
+                    break;
+                }
+                total += count;
+            }
+            return total == length ? read : Arrays.copyOf(read, total);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class JarResourceCacheTest {
+    private static final int KIB = 1024;
+
+    @Test
+    void offHeapEntryLargerThanBudgetInSlabsIsRejectedWithoutEvicting() throws IOException {
+        final JarResourceCache cache = new JarResourceCache(100 * KIB, 100 * KIB, JarResourceCache.Storage.OFF_HEAP,
+                64 * KIB);
+        assertTrue(cache.accepts(64 * KIB));
+        // 90 KiB take two slabs of 64 KiB, more than the 100 KiB budget
+        assertFalse(cache.accepts(90 * KIB));
+
+        cache.put("small", new ByteArrayInputStream(new byte[30 * KIB]), 30 * KIB).release();
+        assertNull(cache.put("big", new ByteArrayInputStream(new byte[90 * KIB]), 90 * KIB));
+
+        final JarResourceCache.Contents small = cache.get("small");
+        assertNotNull(small);
+        small.release();
+        assertEquals(64 * KIB, cache.getTotalBytes());
+    }
+
+    @Test
+    void offHeapMissThatOnlyFitsByEvictingPinnedEntriesKeepsTheCache() throws IOException {
+        final JarResourceCache cache = new JarResourceCache(256 * KIB, 256 * KIB, JarResourceCache.Storage.OFF_HEAP,
+                64 * KIB);
+        // Pinned, as while it is being sent
+        final JarResourceCache.Contents pinned = cache.put("pinned", new ByteArrayInputStream(new byte[128 * KIB]),
+                128 * KIB);
+        assertNotNull(pinned);
+        cache.put("a", new ByteArrayInputStream(new byte[64 * KIB]), 64 * KIB).release();
+        cache.put("b", new ByteArrayInputStream(new byte[64 * KIB]), 64 * KIB).release();
+
+        // Evicting "a" and "b" would only free two of the three slabs needed
+        assertNull(cache.put("big", new ByteArrayInputStream(new byte[192 * KIB]), 192 * KIB));
+        for (String name : new String[] { "pinned", "a", "b" }) {
+            final JarResourceCache.Contents contents = cache.get(name);
+            assertNotNull(contents, name);
+            contents.release();
+        }
+
+        // A miss that fits by evicting the unpinned entries keeps the pinned one
+        final JarResourceCache.Contents fitting = cache.put("fitting",
+                new ByteArrayInputStream(new byte[100 * KIB]), 100 * KIB);
+        assertNotNull(fitting);
+        fitting.release();
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        final JarResourceCache.Contents stillPinned = cache.get("pinned");
+        assertNotNull(stillPinned);
+        stillPinned.release();
+        pinned.release();
+        assertEquals(256 * KIB, cache.getTotalBytes());
+    }
+
+    @Test
+    void heapEvictionSkipsPinnedEntries() throws IOException {
+        final JarResourceCache cache = new JarResourceCache(100 * KIB, 100 * KIB);
+        final JarResourceCache.Contents pinned = cache.put("pinned", new ByteArrayInputStream(new byte[40 * KIB]),
+                40 * KIB);
+        cache.put("a", new ByteArrayInputStream(new byte[30 * KIB]), 30 * KIB).release();
+        cache.put("b", new ByteArrayInputStream(new byte[30 * KIB]), 30 * KIB).release();
+
+        cache.put("c", new ByteArrayInputStream(new byte[30 * KIB]), 30 * KIB).release();
+        assertNull(cache.get("a"));
+        for (String name : new String[] { "pinned", "b", "c" }) {
+            final JarResourceCache.Contents contents = cache.get(name);
+            assertNotNull(contents, name);
+            contents.release();
+        }
+        pinned.release();
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvictedFirst() throws IOException {
+        final JarResourceCache cache = new JarResourceCache(100 * KIB, 100 * KIB);
+        cache.put("a", new ByteArrayInputStream(new byte[40 * KIB]), 40 * KIB).release();
+        cache.put("b", new ByteArrayInputStream(new byte[40 * KIB]), 40 * KIB).release();
+        // Reading "a" makes "b" the least recently used entry
+        cache.get("a").release();
+
+        cache.put("c", new ByteArrayInputStream(new byte[40 * KIB]), 40 * KIB).release();
+        assertNull(cache.get("b"));
+        for (String name : new String[] { "a", "c" }) {
+            final JarResourceCache.Contents contents = cache.get(name);
+            assertNotNull(contents, name);
+            contents.release();
+        }
+        assertEquals(80 * KIB, cache.getTotalBytes());
+    }
+
+    @Test
+    void cachedContentsAreReadBack() throws IOException {
+        final byte[] bytes = new byte[3 * 64 * KIB + 123];
+        new Random(1).nextBytes(bytes);
+        for (JarResourceCache.Storage storage : JarResourceCache.Storage.values()) {
+            final JarResourceCache cache = new JarResourceCache(1024 * KIB, 1024 * KIB, storage, 64 * KIB);
+            final JarResourceCache.Contents contents = cache.put("a", new ByteArrayInputStream(bytes), bytes.length);
+            try {
+                final ByteArrayOutputStream whole = new ByteArrayOutputStream();
+                contents.writeTo(whole, 0, bytes.length);
+                assertArrayEquals(bytes, whole.toByteArray(), storage.name());
+
+                // A range across slab boundaries
+                final ByteArrayOutputStream range = new ByteArrayOutputStream();
+                contents.writeTo(range, 64 * KIB - 10, 64 * KIB + 20);
+                assertArrayEquals(Arrays.copyOfRange(bytes, 64 * KIB - 10, 2 * 64 * KIB + 10), range.toByteArray(),
+                        storage.name());
+            } finally {
+                contents.release();
+            }
+        }
+    }
+
+    @Test
+    void heapEntryUpToBudgetIsAccepted() {
+        final JarResourceCache cache = new JarResourceCache(100 * KIB, 100 * KIB);
+        assertTrue(cache.accepts(90 * KIB));
+        assertFalse(cache.accepts(101 * KIB));
+    }
+}
@@ -0,0 +1,706 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.freeutils.httpserver.HTTPServer;
+
+class JarResourceContextHandlerTest {
+    private static final String SMALL_CSS = "body{color:red}";
+
+    @TempDir
+    Path tempDir;
+
+    private JarResourceContextHandler handler;
+    private HTTPServer server;
+    private int port;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        final Path jar = new TestJar().deflated("static/small.css", SMALL_CSS)
+                .write(this.tempDir.resolve("test.jar"));
+        this.handler = new JarResourceContextHandler("static", jar.toString());
+        this.handler.setCache(new JarResourceCache(1024 * 1024, 64 * 1024));
+        this.start(this.handler);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        this.server.stop();
+        this.handler.close();
+    }
+
+    /**
+     * Starts a server on a free port, serving the given handler under "/s/",
+     * after stopping the server and closing the previous handler if any.
+     */
+    private void start(JarResourceContextHandler handler) throws IOException {
+        if (this.server != null) {
+            this.server.stop();
+            this.handler.close();
+        }
+        this.handler = handler;
+        this.port = TestHttp.findFreePort();
+        this.server = new HTTPServer(this.port);
+        this.server.getVirtualHost(null).addContext("/s/{*}", handler);
+        this.server.start();
+    }
+
+    @Test
+    void resourceIsCachedOnFirstRequest() throws IOException {
+        final String text = createText(2000);
+        final Path jar = new TestJar().deflated("static/big.txt", text).write(this.tempDir.resolve("big.jar"));
+        final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+        handler.setCache(new JarResourceCache(1024 * 1024, 64 * 1024));
+        this.start(handler);
+
+        assertNull(handler.getCache().get("big.txt"));
+        assertEquals(text, TestHttp.get(this.port, "/s/big.txt").bodyText());
+        final JarResourceCache.Contents contents = handler.getCache().get("big.txt");
+        assertNotNull(contents);
+        contents.release();
+        assertEquals(text.length(), handler.getCache().getTotalBytes());
+
+        // Served from the cache, both whole and in ranges
+        assertEquals(text, TestHttp.get(this.port, "/s/big.txt").bodyText());
+        final TestHttp.Response range = TestHttp.get(this.port, "/s/big.txt", "Range: bytes=100-199");
+        assertEquals(206, range.status);
+        assertEquals(text.substring(100, 200), range.bodyText());
+    }
+
+    @Test
+    void resourceBiggerThanTheEntryLimitIsNotCached() throws IOException {
+        final String text = createText(2000);
+        final Path jar = new TestJar().deflated("static/big.txt", text).write(this.tempDir.resolve("big.jar"));
+        final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+        handler.setCache(new JarResourceCache(1024 * 1024, text.length() - 1));
+        this.start(handler);
+
+        assertEquals(text, TestHttp.get(this.port, "/s/big.txt").bodyText());
+        assertNull(handler.getCache().get("big.txt"));
+        assertEquals(0, handler.getCache().getTotalBytes());
+    }
+
+    @Test
+    void resourceIsServedFromOffHeapSlabs() throws IOException {
+        final String text = createText(20000);
+        final Path jar = new TestJar().deflated("static/big.txt", text).write(this.tempDir.resolve("big.jar"));
+        final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+        // The resource spans several slabs
+        handler.setCache(new JarResourceCache(1024 * 1024, 1024 * 1024, JarResourceCache.Storage.OFF_HEAP,
+                16 * 1024));
+        this.start(handler);
+
+        assertEquals(text, TestHttp.get(this.port, "/s/big.txt").bodyText());
+        assertEquals(text, TestHttp.get(this.port, "/s/big.txt").bodyText());
+        final TestHttp.Response range = TestHttp.get(this.port, "/s/big.txt", "Range: bytes=16380-16399");
+        assertEquals(text.substring(16380, 16400), range.bodyText());
+        assertEquals((text.length() + 16 * 1024 - 1) / (16 * 1024) * 16 * 1024,
+                handler.getCache().getTotalBytes());
+    }
+
+    @Test
+    void conditionalRequestsAreAnsweredFromTheResourceMetadata() throws IOException {
+        final TestHttp.Response response = TestHttp.get(this.port, "/s/small.css");
+        assertEquals(HTTPServer.formatDate(TestJar.LAST_MODIFIED), response.header("Last-Modified"));
+        assertEquals("W/\"" + TestJar.LAST_MODIFIED + "\"", response.header("ETag"));
+        assertEquals("text/css", response.header("Content-Type"));
+
+        final TestHttp.Response notModified = TestHttp.get(this.port, "/s/small.css",
+                "If-None-Match: " + response.header("ETag"));
+        assertEquals(304, notModified.status);
+        assertEquals(response.header("ETag"), notModified.header("ETag"));
+        assertEquals(304, TestHttp.get(this.port, "/s/small.css",
+                "If-Modified-Since: " + response.header("Last-Modified")).status);
+        assertEquals(200, TestHttp.get(this.port, "/s/small.css", "If-None-Match: \"other\"").status);
+    }
+
+    @Test
+    void storedResourceIsTransferredFromTheJarFile() throws IOException {
+        final byte[] bytes = new byte[1024 * 1024 + 17];
+        new Random(4).nextBytes(bytes);
+        final Path jar = new TestJar().stored("static/image.png", bytes).write(this.tempDir.resolve("stored.jar"));
+        this.start(new JarResourceContextHandler("static", jar.toString()));
+
+        final TestHttp.Response whole = TestHttp.get(this.port, "/s/image.png");
+        assertEquals(Integer.toString(bytes.length), whole.header("Content-Length"));
+        assertArrayEquals(bytes, whole.body);
+
+        final TestHttp.Response range = TestHttp.get(this.port, "/s/image.png", "Range: bytes=500000-500099");
+        assertEquals(206, range.status);
+        assertEquals("bytes 500000-500099/" + bytes.length, range.header("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(bytes, 500000, 500100), range.body);
+
+        final TestHttp.Response suffix = TestHttp.get(this.port, "/s/image.png", "Range: bytes=-10");
+        assertArrayEquals(Arrays.copyOfRange(bytes, bytes.length - 10, bytes.length), suffix.body);
+
+        final TestHttp.Response head = TestHttp.send(this.port, "HEAD", "/s/image.png");
+        assertEquals(Integer.toString(bytes.length), head.header("Content-Length"));
+    }
+
+    @Test
+    void deflatedResourceIsSentAsGzipWithoutRecompressing() throws IOException {
+        final String text = createText(2000);
+        final Path jar = new TestJar().deflated("static/big.txt", text).write(this.tempDir.resolve("big.jar"));
+        this.start(new JarResourceContextHandler("static", jar.toString()));
+
+        final TestHttp.Response gzip = TestHttp.get(this.port, "/s/big.txt", "Accept-Encoding: gzip");
+        assertEquals("gzip", gzip.header("Content-Encoding"));
+        assertEquals(Integer.toString(gzip.body.length), gzip.header("Content-Length"));
+        assertEquals("W/\"" + TestJar.LAST_MODIFIED + "-gzip\"", gzip.header("ETag"));
+        assertTrue(gzip.body.length < text.length());
+        assertEquals(text, gunzip(gzip.body));
+
+        final TestHttp.Response identity = TestHttp.get(this.port, "/s/big.txt");
+        assertNull(identity.header("Content-Encoding"));
+        assertEquals(text, identity.bodyText());
+
+        // Ranges apply to the decompressed contents
+        final TestHttp.Response range = TestHttp.get(this.port, "/s/big.txt", "Accept-Encoding: gzip",
+                "Range: bytes=10-19");
+        assertEquals(206, range.status);
+        assertNull(range.header("Content-Encoding"));
+        assertEquals(text.substring(10, 20), range.bodyText());
+
+        this.handler.setGzipPassthrough(false);
+        final TestHttp.Response disabled = TestHttp.get(this.port, "/s/big.txt", "Accept-Encoding: gzip");
+        assertEquals("W/\"" + TestJar.LAST_MODIFIED + "\"", disabled.header("ETag"));
+    }
+
+    @Test
+    void incompressibleDeflatedResourceIsSentDecompressed() throws IOException {
+        final byte[] bytes = new byte[4096];
+        new Random(5).nextBytes(bytes);
+        final Path jar = new TestJar().deflated("static/random.bin", bytes).write(this.tempDir.resolve("r.jar"));
+        this.start(new JarResourceContextHandler("static", jar.toString()));
+
+        final TestHttp.Response response = TestHttp.get(this.port, "/s/random.bin", "Accept-Encoding: gzip");
+        assertNull(response.header("Content-Encoding"));
+        assertArrayEquals(bytes, response.body);
+    }
+
+    @Test
+    void precompressedVariantIsSelectedByAcceptEncoding() throws IOException {
+        final String text = createText(500);
+        final byte[] gzipped = gzip(text);
+        final byte[] brotli = "not really brotli".getBytes(StandardCharsets.ISO_8859_1);
+        final Path jar = new TestJar().stored("static/app.js", text).stored("static/app.js.gz", gzipped)
+                .stored("static/app.js.br", brotli).write(this.tempDir.resolve("variants.jar"));
+        this.start(new JarResourceContextHandler("static", jar.toString()));
+
+        final TestHttp.Response identity = TestHttp.get(this.port, "/s/app.js");
+        assertNull(identity.header("Content-Encoding"));
+        assertEquals(text, identity.bodyText());
+
+        final TestHttp.Response gzip = TestHttp.get(this.port, "/s/app.js", "Accept-Encoding: gzip, deflate");
+        assertEquals("gzip", gzip.header("Content-Encoding"));
+        assertEquals(identity.header("Content-Type"), gzip.header("Content-Type"));
+        assertEquals("Accept-Encoding", gzip.header("Vary"));
+        assertNotEquals(identity.header("ETag"), gzip.header("ETag"));
+        assertArrayEquals(gzipped, gzip.body);
+
+        final TestHttp.Response br = TestHttp.get(this.port, "/s/app.js", "Accept-Encoding: gzip;q=0.5, br");
+        assertEquals("br", br.header("Content-Encoding"));
+        assertArrayEquals(brotli, br.body);
+
+        // Refused encodings are not sent
+        final TestHttp.Response refused = TestHttp.get(this.port, "/s/app.js", "Accept-Encoding: br;q=0");
+        assertNull(refused.header("Content-Encoding"));
+        assertEquals(text, refused.bodyText());
+
+        // The variants are still resources of their own
+        final TestHttp.Response variant = TestHttp.get(this.port, "/s/app.js.gz");
+        assertNull(variant.header("Content-Encoding"));
+        assertArrayEquals(gzipped, variant.body);
+    }
+
+    @Test
+    void concurrentRequestsReadTheSameContentsWithAndWithoutPositionalReads() throws Exception {
+        final String text = createText(5000);
+        final Path jar = new TestJar().deflated("static/deflated.txt", text).stored("static/stored.txt", text)
+                .write(this.tempDir.resolve("concurrent.jar"));
+        for (boolean positionalReads : new boolean[] { true, false }) {
+            final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+            handler.setPositionalReads(positionalReads);
+            this.start(handler);
+
+            final ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                final List<Future<String>> bodies = new ArrayList<>();
+                for (int i = 0; i < 64; i++) {
+                    final String path = i % 2 == 0 ? "/s/deflated.txt" : "/s/stored.txt";
+                    final String range = "Range: bytes=" + i + "-" + (i + 999);
+                    bodies.add(executor.submit(() -> TestHttp.get(this.port, path).bodyText()));
+                    bodies.add(executor.submit(() -> TestHttp.get(this.port, path, range).bodyText()));
+                }
+                for (int i = 0; i < bodies.size(); i++) {
+                    final int start = i / 2;
+                    assertEquals(i % 2 == 0 ? text : text.substring(start, start + 1000), bodies.get(i).get(),
+                            "Positional reads " + positionalReads + ", request " + i);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            // Without positional reads, deflated resources are inflated by the jar file
+            assertEquals(positionalReads, handler.getStreamPool().getInflaterCount() > 0);
+        }
+    }
+
+    @Test
+    void withoutPositionalReadsResourcesAreReadThroughTheJarFile() throws IOException {
+        final String text = createText(5000);
+        final Path jar = new TestJar().deflated("static/deflated.txt", text).stored("static/stored.txt", text)
+                .write(this.tempDir.resolve("jarfile.jar"));
+        final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+        handler.setPositionalReads(false);
+        this.start(handler);
+
+        for (String path : new String[] { "/s/deflated.txt", "/s/stored.txt" }) {
+            assertEquals(text, TestHttp.get(this.port, path).bodyText());
+            assertEquals(text.substring(10, 20), TestHttp.get(this.port, path, "Range: bytes=10-19").bodyText());
+            final TestHttp.Response multipart = TestHttp.get(this.port, path, "Range: bytes=10-19,20000-20099");
+            assertEquals(206, multipart.status);
+            final String contentType = multipart.header("Content-Type");
+            final String boundary = contentType.substring(contentType.indexOf('=') + 1);
+            final String[] parts = multipart.bodyText().split("\r\n--" + boundary);
+            assertEquals(4, parts.length, path);
+            assertPart(parts[1], 10, 19, text);
+            assertPart(parts[2], 20000, 20099, text);
+        }
+
+        // The compressed contents cannot be sent as they are, so they are inflated and compressed by jlhttp
+        final TestHttp.Response gzip = TestHttp.get(this.port, "/s/deflated.txt", "Accept-Encoding: gzip");
+        assertEquals("gzip", gzip.header("Content-Encoding"));
+        assertNull(gzip.header("Content-Length"));
+        assertEquals(text, gunzip(gzip.body));
+        assertEquals(0, handler.getStreamPool().getInflaterCount());
+    }
+
+    @Test
+    void rangesOfDeflatedResourceAreInflatedFromCheckpoints() throws IOException {
+        final String text = createText(400000);
+        final Path jar = new TestJar().deflated("static/big.txt", text).write(this.tempDir.resolve("big.jar"));
+        final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+        handler.setInflateCheckpointSpacing(256 * 1024);
+        this.start(handler);
+
+        for (int start : new int[] { 0, 300000, 1000000, text.length() - 100 }) {
+            final TestHttp.Response range = TestHttp.get(this.port, "/s/big.txt",
+                    "Range: bytes=" + start + "-" + (start + 99));
+            assertEquals(206, range.status);
+            assertEquals(text.substring(start, start + 100), range.bodyText(), "Range at " + start);
+        }
+        handler.buildInflateCheckpoints();
+        assertEquals(text, TestHttp.get(this.port, "/s/big.txt").bodyText());
+    }
+
+    @Test
+    void multiRangeRequestIsAnsweredWithMultipartByteranges() throws IOException {
+        final String text = createText(20000);
+        final Path jar = new TestJar().deflated("static/deflated.txt", text).stored("static/stored.txt", text)
+                .write(this.tempDir.resolve("ranges.jar"));
+        final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+        this.start(handler);
+
+        for (String path : new String[] { "/s/deflated.txt", "/s/stored.txt" }) {
+            final TestHttp.Response response = TestHttp.get(this.port, path,
+                    "Range: bytes=50000-50099,10-19,-5");
+            assertEquals(206, response.status);
+            final String contentType = response.header("Content-Type");
+            assertTrue(contentType.startsWith("multipart/byteranges; boundary="), contentType);
+            assertEquals(Integer.toString(response.body.length), response.header("Content-Length"));
+
+            final String boundary = contentType.substring(contentType.indexOf('=') + 1);
+            final String[] parts = response.bodyText().split("\r\n--" + boundary);
+            assertEquals(5, parts.length, path);
+            assertEquals("", parts[0]);
+            assertPart(parts[1], 10, 19, text);
+            assertPart(parts[2], 50000, 50099, text);
+            assertPart(parts[3], text.length() - 5, text.length() - 1, text);
+            assertEquals("--\r\n", parts[4]);
+        }
+
+        // A single range spans all of them beyond the maximum number of ranges
+        handler.setMaxRanges(2);
+        final TestHttp.Response merged = TestHttp.get(this.port, "/s/deflated.txt",
+                "Range: bytes=0-9,500-509,1000-1009");
+        assertEquals("bytes 0-1009/" + text.length(), merged.header("Content-Range"));
+        assertEquals(text.substring(0, 1010), merged.bodyText());
+    }
+
+    private static void assertPart(String part, int start, int end, String text) {
+        final String[] headersAndBody = part.split("\r\n\r\n", 2);
+        assertTrue(headersAndBody[0].contains("\r\nContent-Type: text/plain"), headersAndBody[0]);
+        assertTrue(headersAndBody[0].endsWith("\r\nContent-Range: bytes " + start + "-" + end + "/" + text.length()),
+                headersAndBody[0]);
+        assertEquals(text.substring(start, end + 1), headersAndBody[1]);
+    }
+
+    @Test
+    void strongETagsStayTheSameAcrossRebuilds() throws IOException {
+        final String text = createText(2000);
+        final Map<String, String> strongETags = new HashMap<>();
+        final Map<String, String> weakETags = new HashMap<>();
+        for (long lastModified : new long[] { TestJar.LAST_MODIFIED, TestJar.LAST_MODIFIED + 3600000 }) {
+            final Path jar = new TestJar().modifiedAt(lastModified).deflated("static/big.txt", text)
+                    .write(this.tempDir.resolve("build-" + lastModified + ".jar"));
+            final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+            this.start(handler);
+            weakETags.put("build-" + lastModified, TestHttp.get(this.port, "/s/big.txt").header("ETag"));
+            handler.setStrongETags(true);
+            strongETags.put("build-" + lastModified, TestHttp.get(this.port, "/s/big.txt").header("ETag"));
+        }
+        assertEquals(2, new HashSet<>(weakETags.values()).size());
+        assertEquals(1, new HashSet<>(strongETags.values()).size());
+
+        final CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        final String eTag = "\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(text.length()) + "\"";
+        assertEquals(eTag, strongETags.values().iterator().next());
+        // The gzip encoded bytes depend on the compressor, so their ETag stays weak
+        assertEquals("W/" + eTag.substring(0, eTag.length() - 1) + "-gzip\"",
+                TestHttp.get(this.port, "/s/big.txt", "Accept-Encoding: gzip").header("ETag"));
+        assertEquals(304, TestHttp.get(this.port, "/s/big.txt", "If-None-Match: " + eTag).status);
+
+        // Ranges are only sent for a strong ETag that still matches
+        final TestHttp.Response range = TestHttp.get(this.port, "/s/big.txt", "Range: bytes=0-9",
+                "If-Range: " + eTag);
+        assertEquals(206, range.status);
+        assertEquals(text.substring(0, 10), range.bodyText());
+        final TestHttp.Response changed = TestHttp.get(this.port, "/s/big.txt", "Range: bytes=0-9",
+                "If-Range: \"0-0\"");
+        assertEquals(200, changed.status);
+        assertEquals(text, changed.bodyText());
+        this.handler.setStrongETags(false);
+        final String weakETag = TestHttp.get(this.port, "/s/big.txt").header("ETag");
+        assertEquals(200, TestHttp.get(this.port, "/s/big.txt", "Range: bytes=0-9", "If-Range: " + weakETag).status);
+    }
+
+    @Test
+    void fingerprintedAliasesAreServedAsImmutable() throws Exception {
+        final String script = createText(300);
+        final Path jar = new TestJar().deflated("static/js/app.js", script).stored("static/LICENSE", "license")
+                .write(this.tempDir.resolve("fingerprints.jar"));
+        final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+        this.start(handler);
+        assertTrue(handler.getFingerprintManifest().isEmpty());
+        assertNull(handler.getFingerprintedName("js/app.js"));
+
+        handler.enableFingerprints();
+        final String hash = sha256(script).substring(0, 10);
+        assertEquals("js/app." + hash + ".js", handler.getFingerprintedName("js/app.js"));
+        assertEquals("LICENSE." + sha256("license").substring(0, 10), handler.getFingerprintedName("LICENSE"));
+        assertEquals(2, handler.getFingerprintManifest().size());
+        assertNull(handler.getFingerprintedName("missing.js"));
+
+        final TestHttp.Response alias = TestHttp.get(this.port, "/s/js/app." + hash + ".js");
+        assertEquals(200, alias.status);
+        assertEquals(CacheControlPolicy.IMMUTABLE, alias.header("Cache-Control"));
+        assertEquals(script, alias.bodyText());
+        final TestHttp.Response plain = TestHttp.get(this.port, "/s/js/app.js");
+        assertNull(plain.header("Cache-Control"));
+        assertEquals(script, plain.bodyText());
+        assertEquals(404, TestHttp.get(this.port, "/s/js/app.0000000000.js").status);
+    }
+
+    private static String sha256(String text) throws NoSuchAlgorithmException {
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8))) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    @Test
+    void cacheControlPolicyIsAppliedToEveryResponse() throws IOException {
+        final String text = createText(500);
+        final Path jar = new TestJar().stored("static/app.js", text).stored("static/app.js.gz", gzip(text))
+                .stored("static/index.html", "<p>").write(this.tempDir.resolve("policy.jar"));
+        final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+        handler.setCache(new JarResourceCache(1024 * 1024, 64 * 1024));
+        this.start(handler);
+        assertNull(TestHttp.get(this.port, "/s/app.js").header("Cache-Control"));
+
+        final CacheControlPolicy policy = new CacheControlPolicy();
+        policy.addExtensionRule("js", CacheControlPolicy.directives(3600, -1, -1, false));
+        policy.setDefault(CacheControlPolicy.directives(CacheControlPolicy.Visibility.NO_CACHE, -1, -1, -1, false));
+        handler.setCacheControlPolicy(policy);
+
+        // Both through jlhttp and with a single write of the prepared headers
+        for (boolean singleWrite : new boolean[] { false, true }) {
+            handler.setSingleWriteResponses(singleWrite);
+            assertEquals("public, max-age=3600", TestHttp.get(this.port, "/s/app.js").header("Cache-Control"));
+            assertEquals("no-cache", TestHttp.get(this.port, "/s/index.html").header("Cache-Control"));
+        }
+        // The variant gets the header of the resource it stands for
+        final TestHttp.Response gzip = TestHttp.get(this.port, "/s/app.js", "Accept-Encoding: gzip");
+        assertEquals("gzip", gzip.header("Content-Encoding"));
+        assertEquals("public, max-age=3600", gzip.header("Cache-Control"));
+        final TestHttp.Response notModified = TestHttp.get(this.port, "/s/app.js",
+                "If-None-Match: " + gzip.header("ETag"), "Accept-Encoding: gzip");
+        assertEquals(304, notModified.status);
+        assertEquals("public, max-age=3600", notModified.header("Cache-Control"));
+    }
+
+    @Test
+    void requestsForMissingResourcesAreCountedOnce() throws IOException {
+        assertEquals(0, this.handler.getNotFoundCount());
+        final TestHttp.Response missing = TestHttp.get(this.port, "/s/missing.css");
+        assertEquals(404, missing.status);
+        assertEquals("text/html; charset=utf-8", missing.header("Content-Type"));
+        assertNotNull(missing.header("ETag"));
+        assertEquals(Integer.toString(missing.body.length), missing.header("Content-Length"));
+        assertEquals(1, this.handler.getNotFoundCount());
+
+        assertEquals(404, TestHttp.send(this.port, "HEAD", "/s/missing.css").status);
+        assertEquals(2, this.handler.getNotFoundCount());
+
+        // jlhttp looks for the directory index first, then for the directory itself
+        assertEquals(404, TestHttp.get(this.port, "/s/dir/").status);
+        assertEquals(3, this.handler.getNotFoundCount());
+
+        assertEquals(200, TestHttp.get(this.port, "/s/small.css").status);
+        assertEquals(3, this.handler.getNotFoundCount());
+    }
+
+    @Test
+    void resourcePathIsTakenFromTheWildcardParameter() throws IOException {
+        // Each context answers with the resource path and the request body left after resolving it
+        final HTTPServer.ContextHandler echo = (request, response) -> {
+            final String path = JarResourceContextHandler.getRequestResourcePath(request);
+            final String body = new String(TestHttp.readBody(request.getBody(), -1), StandardCharsets.UTF_8);
+            response.send(200, path + "|" + body);
+            return 0;
+        };
+        final int echoPort = TestHttp.findFreePort();
+        final HTTPServer echoServer = new HTTPServer(echoPort);
+        final HTTPServer.VirtualHost host = echoServer.getVirtualHost(null);
+        host.addContext("/slash/{*}", echo, "GET", "POST");
+        host.addContext("/noslash{*}", echo, "GET", "POST");
+        host.addContext("/plain", echo, "GET", "POST");
+        host.addContext("/v/{version}/{*}", echo, "GET", "POST");
+        echoServer.start();
+        try {
+            assertEquals("css/a.css|", TestHttp.get(echoPort, "/slash/css/a.css").bodyText());
+            assertEquals("/css/a.css|", TestHttp.get(echoPort, "/noslash/css/a.css").bodyText());
+            assertEquals("-a.css|", TestHttp.get(echoPort, "/noslash-a.css").bodyText());
+            assertEquals("/plain|", TestHttp.get(echoPort, "/plain").bodyText());
+            assertEquals("css/a.css|", TestHttp.get(echoPort, "/v/2/css/a.css").bodyText());
+
+            // A "*" in the query string does not replace the path
+            assertEquals("a.css|", TestHttp.get(echoPort, "/slash/a.css?*=other.css").bodyText());
+            assertEquals("/a.css|", TestHttp.get(echoPort, "/noslash/a.css?*=other.css").bodyText());
+
+            // The body of a form submission is not read
+            final byte[] form = "*=other.css&a=b".getBytes(StandardCharsets.UTF_8);
+            final String contentType = "Content-Type: application/x-www-form-urlencoded";
+            assertEquals("a.css|*=other.css&a=b",
+                    TestHttp.send(echoPort, "POST", "/slash/a.css", form, contentType).bodyText());
+            assertEquals("/plain|*=other.css&a=b",
+                    TestHttp.send(echoPort, "POST", "/plain", form, contentType).bodyText());
+            // Unless other path parameters have to be parsed
+            assertEquals("a.css|", TestHttp.send(echoPort, "POST", "/v/2/a.css", form, contentType).bodyText());
+        } finally {
+            echoServer.stop();
+        }
+    }
+
+    @Test
+    void headResponseHasNoBodyOnKeepAliveConnection() throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", this.port));
+            socket.setSoTimeout(5000);
+            final OutputStream out = socket.getOutputStream();
+            final InputStream in = new BufferedInputStream(socket.getInputStream());
+
+            // The first GET fills the cache, so that the following requests take the single write path
+            for (String method : new String[] { "GET", "HEAD", "GET" }) {
+                out.write((method + " /s/small.css HTTP/1.1\r\nHost: localhost\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+
+                final Map<String, String> headers = new HashMap<>();
+                assertEquals("HTTP/1.1 200 OK", TestHttp.readResponseHead(in, headers));
+                assertEquals(Integer.toString(SMALL_CSS.length()), headers.get("content-length"));
+                if (method.equals("GET")) {
+                    assertEquals(SMALL_CSS, readText(in, SMALL_CSS.length()));
+                }
+            }
+
+            // Nothing must be left after the last response, e.g. a body sent for the HEAD request
+            socket.setSoTimeout(200);
+            try {
+                fail("Unexpected byte after the last response: " + in.read());
+            } catch (SocketTimeoutException e) {
+                // Nothing was left
+            }
+        }
+    }
+
+    @Test
+    void singleWriteResponseHasTheHeadersSentByJlhttp() throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", this.port));
+            socket.setSoTimeout(5000);
+            final OutputStream out = socket.getOutputStream();
+            final InputStream in = new BufferedInputStream(socket.getInputStream());
+
+            final Map<String, String> sentByJlhttp = new HashMap<>();
+            final Map<String, String> singleWrite = new HashMap<>();
+            for (Map<String, String> headers : Arrays.asList(sentByJlhttp, singleWrite)) {
+                this.handler.setSingleWriteResponses(headers == singleWrite);
+                out.write("GET /s/small.css HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                assertEquals("HTTP/1.1 200 OK", TestHttp.readResponseHead(in, headers));
+                assertEquals(SMALL_CSS, readText(in, SMALL_CSS.length()));
+                headers.remove("date");
+            }
+            assertEquals(sentByJlhttp, singleWrite);
+        }
+    }
+
+    @Test
+    void failedSingleWriteClosesTheConnection() throws IOException {
+        // Fills the cache, so that the next request takes the single write path
+        assertEquals(SMALL_CSS, TestHttp.get(this.port, "/s/small.css").bodyText());
+
+        try (Socket socket = new Socket()) {
+            final HTTPServer.Request request = this.server.new Request(new ByteArrayInputStream(
+                    "GET /s/small.css HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1)),
+                    socket);
+            final HTTPServer.Response response = this.server.new Response(new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("Connection reset");
+                }
+            });
+            response.setClientCapabilities(request);
+            assertThrows(IOException.class, () -> this.handler.serve(request, response));
+            // jlhttp would otherwise send a 500 response after the part of the response that was written
+            assertFalse(response.headersSent());
+            assertTrue(socket.isClosed());
+        }
+    }
+
+    @Test
+    void requestCompletesWhileAllPooledInflatersAreHeld() throws IOException {
+        final JarStreamPool pool = new JarStreamPool(1, JarStreamPool.DEFAULT_BUFFER_SIZE);
+        this.handler.setStreamPool(pool);
+        final Inflater held = pool.acquireInflater();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", this.port));
+            socket.setSoTimeout(5000);
+            final OutputStream out = socket.getOutputStream();
+            final InputStream in = new BufferedInputStream(socket.getInputStream());
+
+            // The entry is deflated in the jar, and is inflated since the request does not accept gzip
+            out.write("GET /s/small.css HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            final Map<String, String> headers = new HashMap<>();
+            assertEquals("HTTP/1.1 200 OK", TestHttp.readResponseHead(in, headers));
+            assertEquals(SMALL_CSS, readText(in, SMALL_CSS.length()));
+            assertEquals(1, pool.getUnpooledCount());
+        } finally {
+            pool.releaseInflater(held);
+        }
+    }
+
+    @Test
+    void jarWithPrependedLauncherScriptIsReadDirectly() throws IOException {
+        final String text = createText(2000);
+        final Path jar = new TestJar().stored("static/stored.txt", "stored contents")
+                .deflated("static/deflated.txt", text)
+                .write(this.tempDir.resolve("launcher.jar"),
+                        "#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n".getBytes(StandardCharsets.ISO_8859_1));
+        this.start(new JarResourceContextHandler("static", jar.toString()));
+
+        assertEquals("stored contents", TestHttp.get(this.port, "/s/stored.txt").bodyText());
+        assertEquals(text, TestHttp.get(this.port, "/s/deflated.txt").bodyText());
+        // The deflated entry was inflated from the jar file directly, with a pooled inflater
+        assertEquals(1, this.handler.getStreamPool().getInflaterCount());
+    }
+
+    @Test
+    void entryWithCorruptLocalHeaderDoesNotPreventServingTheOthers() throws IOException {
+        final Path jar = new TestJar().stored("static/corrupt.txt", "corrupt").stored("static/valid.txt", "valid")
+                .write(this.tempDir.resolve("corrupt.jar"));
+        // The local file header of the first entry is at the start of the file
+        final byte[] bytes = Files.readAllBytes(jar);
+        bytes[0] = 0;
+        Files.write(jar, bytes);
+        this.start(new JarResourceContextHandler("static", jar.toString()));
+
+        assertEquals("valid", TestHttp.get(this.port, "/s/valid.txt").bodyText());
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return new String(TestHttp.readBody(in, -1), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String readText(InputStream in, int length) throws IOException {
+        return new String(TestHttp.readBody(in, length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates a text of the given number of words.
+     */
+    static String createText(int wordCount) {
+        final String[] words = { "jar", "resource", "context", "handler", "range", "cache", "window", "block" };
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < wordCount; i++) {
+            text.append(words[(i * 7 + i / 5) % words.length]).append(i % 12 == 11 ? '\n' : ' ');
+        }
+        return text.toString();
+    }
+}
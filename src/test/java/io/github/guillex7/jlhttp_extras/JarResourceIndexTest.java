@@ -0,0 +1,107 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.jar.JarEntry;
+
+import org.junit.jupiter.api.Test;
+
+import net.freeutils.httpserver.HTTPServer;
+
+class JarResourceIndexTest {
+    private static final long TIME = 1700000000000L;
+
+    @Test
+    void everyResourceIsFoundByName() {
+        final JarResourceIndex.Builder builder = new JarResourceIndex.Builder("static/");
+        for (int i = 0; i < 10000; i++) {
+            builder.add("dir" + (i % 37) + "/file" + i + ".js", JarEntry.DEFLATED, i * 100L, 50, 100 + i, i, TIME,
+                    "application/javascript");
+        }
+        // Names with the same hash code
+        builder.add("Aa", JarEntry.STORED, 1, 1, 1, 0, TIME, "text/plain");
+        builder.add("BB", JarEntry.STORED, 2, 2, 2, 0, TIME, "text/plain");
+        final JarResourceIndex index = builder.build(TIME);
+
+        assertEquals(10002, index.size());
+        for (int i = 0; i < 10000; i++) {
+            final JarResource resource = index.get("dir" + (i % 37) + "/file" + i + ".js");
+            assertEquals(i * 100L, resource.getDataOffset());
+            assertEquals(100 + i, resource.getLength());
+            assertEquals("static/dir" + (i % 37) + "/file" + i + ".js", resource.getEntryName());
+        }
+        assertEquals(1, index.get("Aa").getLength());
+        assertEquals(2, index.get("BB").getLength());
+        assertEquals("BB", index.get(index.findRow("BB")).getName());
+
+        assertNull(index.get("dir0/file1.js"));
+        assertNull(index.get("x"));
+        assertNull(index.get("dir0/a-name-longer-than-any-other-resource-name.js"));
+        assertEquals(-1, index.findRow("AaBB"));
+    }
+
+    @Test
+    void nameFilterKeepsEveryNameAndRejectsMostOthers() {
+        final String[] names = new String[10001];
+        for (int i = 0; i < 10000; i++) {
+            names[i] = "dir" + (i % 37) + "/file" + i + ".js";
+        }
+        final JarResourceIndex.NameFilter filter = new JarResourceIndex.NameFilter(names);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(names[i]));
+        }
+
+        // Names such as those of scans for other applications
+        int accepted = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("wp-admin/" + i + "/setup-config.php")) {
+                accepted++;
+            }
+        }
+        assertTrue(accepted < 1000, accepted + " of 10000 names that do not exist were accepted");
+    }
+
+    @Test
+    void emptyIndexFindsNothing() {
+        final JarResourceIndex index = new JarResourceIndex.Builder("").build(TIME);
+        assertEquals(0, index.size());
+        assertNull(index.get(""));
+        assertNull(index.get("a.css"));
+    }
+
+    @Test
+    void headerValuesAreSharedByResourcesWithTheSameTime() {
+        final JarResourceIndex index = new JarResourceIndex.Builder("static/")
+                .add("a.css", JarEntry.STORED, 0, 10, 10, 1, TIME, "text/css")
+                .add("b.css", JarEntry.STORED, 10, 10, 10, 2, TIME, "text/css")
+                .add("c.css", JarEntry.STORED, 20, 10, 10, 3, TIME + 2000, "text/css")
+                .build(TIME + 10000);
+        final JarResource a = index.get("a.css");
+        final JarResource b = index.get("b.css");
+        final JarResource c = index.get("c.css");
+
+        assertEquals(HTTPServer.formatDate(TIME), a.getLastModifiedHeader());
+        assertEquals("W/\"" + TIME + "\"", a.getETag());
+        assertSame(a.getLastModifiedHeader(), b.getLastModifiedHeader());
+        assertSame(a.getETag(), b.getETag());
+        assertSame(a.getContentType(), c.getContentType());
+        assertNotEquals(a.getLastModifiedHeader(), c.getLastModifiedHeader());
+        assertNotEquals(a.getETag(), c.getETag());
+    }
+
+    @Test
+    void lastModifiedHeaderIsNotInTheFuture() {
+        final JarResourceIndex index = new JarResourceIndex.Builder("")
+                .add("a.css", JarEntry.STORED, 0, 10, 10, 1, TIME, "text/css")
+                .build(TIME - 60000);
+        final JarResource a = index.get("a.css");
+
+        assertEquals(HTTPServer.formatDate(TIME - 60000), a.getLastModifiedHeader());
+        // The ETag still identifies the actual time
+        assertEquals("W/\"" + TIME + "\"", a.getETag());
+    }
+}
@@ -0,0 +1,161 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.jar.JarFile;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.freeutils.httpserver.HTTPServer;
+
+class JarResourceIndexerTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void indexedJarWithPrependedBytesRemainsReadable() throws IOException {
+        final Path jar = new TestJar().stored("static/a.txt", "first").deflated("static/b.txt", "second")
+                .write(this.tempDir.resolve("launcher.jar"), "#!/bin/sh\n".getBytes(StandardCharsets.ISO_8859_1));
+
+        assertEquals(2, JarResourceIndexer.index(jar, "static"));
+
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            assertNotNull(jarFile.getJarEntry(JarResourceIndexer.INDEX_ENTRY_NAME));
+            assertEquals("first", read(jarFile, "static/a.txt"));
+            assertEquals("second", read(jarFile, "static/b.txt"));
+        }
+    }
+
+    @Test
+    void indexedJarIsLoadedWithoutScanning() throws IOException {
+        final String text = JarResourceContextHandlerTest.createText(1000);
+        final Path jar = new TestJar().stored("static/a.txt", "first").deflated("static/sub/b.txt", text)
+                .stored("other.txt", "other").write(this.tempDir.resolve("app.jar"));
+        assertEquals(2, JarResourceIndexer.index(jar, "static"));
+
+        for (String basePath : new String[] { "static", "/static/sub/" }) {
+            try (JarResourceContextHandler handler = new JarResourceContextHandler(basePath, jar.toString())) {
+                assertTrue(handler.isIndexed(), basePath);
+            }
+        }
+        // The index does not cover the files outside of its base path
+        try (JarResourceContextHandler handler = new JarResourceContextHandler("", jar.toString())) {
+            assertFalse(handler.isIndexed());
+        }
+
+        final int port = TestHttp.findFreePort();
+        final HTTPServer server = new HTTPServer(port);
+        try (JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString())) {
+            server.getVirtualHost(null).addContext("/{*}", handler);
+            server.start();
+            assertEquals("first", TestHttp.get(port, "/a.txt").bodyText());
+            assertEquals(text, TestHttp.get(port, "/sub/b.txt").bodyText());
+            assertEquals(404, TestHttp.get(port, "/other.txt").status);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void reindexingReplacesTheIndex() throws IOException {
+        final Path jar = new TestJar().stored("static/a.txt", "first").write(this.tempDir.resolve("app.jar"));
+        JarResourceIndexer.index(jar, "static");
+        final long length = Files.size(jar);
+
+        assertEquals(1, JarResourceIndexer.index(jar, "static"));
+        assertEquals(length, Files.size(jar));
+        try (JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString())) {
+            assertTrue(handler.isIndexed());
+        }
+    }
+
+    @Test
+    void indexIsIgnoredOnceTheJarFileIsModified() throws IOException {
+        final Path jar = new TestJar().stored("static/a.txt", "first").write(this.tempDir.resolve("app.jar"));
+        JarResourceIndexer.index(jar, "static");
+
+        // Prepending bytes moves every entry, so the offsets recorded in the index are stale
+        final byte[] indexed = Files.readAllBytes(jar);
+        final byte[] modified = new byte[indexed.length + 10];
+        Arrays.fill(modified, 0, 10, (byte) '#');
+        System.arraycopy(indexed, 0, modified, 10, indexed.length);
+        Files.write(jar, modified);
+        assertServedWithoutIndex(jar);
+    }
+
+    @Test
+    void indexIsIgnoredOnceAnEntryIsAppendedAfterIt() throws IOException {
+        final Path jar = new TestJar().stored("static/a.txt", "first").write(this.tempDir.resolve("app.jar"));
+        JarResourceIndexer.index(jar, "static");
+
+        // The index no longer ends where the central directory starts, so it is not found
+        try (FileChannel channel = FileChannel.open(jar, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            JarCentralDirectory.appendStoredEntry(channel, "static/late.txt",
+                    "late".getBytes(StandardCharsets.UTF_8), System.currentTimeMillis());
+        }
+        assertServedWithoutIndex(jar);
+
+        final int port = TestHttp.findFreePort();
+        final HTTPServer server = new HTTPServer(port);
+        try (JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString())) {
+            server.getVirtualHost(null).addContext("/{*}", handler);
+            server.start();
+            assertEquals("late", TestHttp.get(port, "/late.txt").bodyText());
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void corruptIndexIsIgnored() throws IOException {
+        final Path jar = new TestJar().stored("static/a.txt", "first").write(this.tempDir.resolve("app.jar"));
+        JarResourceIndexer.index(jar, "static");
+
+        final byte[] bytes = Files.readAllBytes(jar);
+        final int indexStart = indexOf(bytes, JarResourceIndexer.INDEX_ENTRY_NAME.getBytes(StandardCharsets.UTF_8))
+                + JarResourceIndexer.INDEX_ENTRY_NAME.length();
+        bytes[indexStart + 20] ^= 1;
+        Files.write(jar, bytes);
+        assertServedWithoutIndex(jar);
+    }
+
+    private static void assertServedWithoutIndex(Path jar) throws IOException {
+        final int port = TestHttp.findFreePort();
+        final HTTPServer server = new HTTPServer(port);
+        try (JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString())) {
+            assertFalse(handler.isIndexed());
+            server.getVirtualHost(null).addContext("/{*}", handler);
+            server.start();
+            assertEquals("first", TestHttp.get(port, "/a.txt").bodyText());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static int indexOf(byte[] bytes, byte[] sequence) {
+        for (int i = 0; i <= bytes.length - sequence.length; i++) {
+            if (Arrays.equals(Arrays.copyOfRange(bytes, i, i + sequence.length), sequence)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Sequence not found");
+    }
+
+    private static String read(JarFile jarFile, String name) throws IOException {
+        try (InputStream in = jarFile.getInputStream(jarFile.getJarEntry(name))) {
+            return new String(TestHttp.readBody(in, -1), StandardCharsets.UTF_8);
+        }
+    }
+}
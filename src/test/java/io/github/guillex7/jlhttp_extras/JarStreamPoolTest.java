@@ -0,0 +1,83 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+
+import org.junit.jupiter.api.Test;
+
+class JarStreamPoolTest {
+    @Test
+    void releasedInflatersAndBuffersAreReused() throws IOException {
+        final JarStreamPool pool = new JarStreamPool(2, 1024);
+        final Inflater inflater = pool.acquireInflater();
+        pool.releaseInflater(inflater);
+        assertSame(inflater, pool.acquireInflater());
+        assertEquals(1, pool.getInflaterCount());
+        assertEquals(1, pool.getActiveInflaterCount());
+        pool.releaseInflater(inflater);
+        assertEquals(0, pool.getActiveInflaterCount());
+
+        final byte[] buffer = pool.acquireBuffer();
+        assertEquals(1024, buffer.length);
+        pool.releaseBuffer(buffer);
+        assertSame(buffer, pool.acquireBuffer());
+    }
+
+    @Test
+    void idleBuffersAreBoundedByTheMaximumNumberOfInflaters() {
+        final JarStreamPool pool = new JarStreamPool(2, 1024);
+        final byte[][] buffers = { pool.acquireBuffer(), pool.acquireBuffer(), pool.acquireBuffer() };
+        for (byte[] buffer : buffers) {
+            pool.releaseBuffer(buffer);
+        }
+        assertEquals(2, pool.getIdleBufferCount());
+    }
+
+    @Test
+    void waiterGetsTheReleasedInflater() throws Exception {
+        final JarStreamPool pool = new JarStreamPool(1, 1024);
+        pool.setMaxWaitMillis(10000);
+        final Inflater held = pool.acquireInflater();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<Inflater> waiter = executor.submit(pool::acquireInflater);
+            Thread.sleep(50);
+            pool.releaseInflater(held);
+            assertSame(held, waiter.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, pool.getWaitCount());
+        assertTrue(pool.getTotalWaitNanos() > 0);
+        assertEquals(0, pool.getUnpooledCount());
+    }
+
+    @Test
+    void acquiringGivesUpAfterTheMaximumWaitTime() throws IOException {
+        final JarStreamPool pool = new JarStreamPool(1, 1024);
+        pool.setMaxWaitMillis(20);
+        final Inflater held = pool.acquireInflater();
+        assertNotNull(held);
+
+        final long start = System.nanoTime();
+        assertNull(pool.acquireInflater());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(1, pool.getUnpooledCount());
+
+        pool.setMaxWaitMillis(0);
+        assertNull(pool.acquireInflater());
+        assertEquals(2, pool.getUnpooledCount());
+        assertThrows(IllegalArgumentException.class, () -> pool.setMaxWaitMillis(-1));
+    }
+}
@@ -0,0 +1,73 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import net.freeutils.httpserver.HTTPServer;
+
+class ServerBootstrapTest {
+    @Test
+    void serverServesRequestsUntilStopped() throws Exception {
+        final int port = TestHttp.findFreePort();
+        final ServerBootstrap bootstrap = new ServerBootstrap(port);
+        bootstrap.getServer().getVirtualHost(null).addContext("/hello", (request, response) -> {
+            response.send(200, "hello");
+            return 0;
+        });
+        final ExecutorService executor = bootstrap.getExecutor();
+        bootstrap.start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertEquals("hello", TestHttp.get(port, "/hello").bodyText());
+            }
+            assertEquals(404, TestHttp.get(port, "/missing").status);
+        } finally {
+            bootstrap.stop();
+        }
+
+        assertTrue(executor.isShutdown());
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertThrows(IOException.class, () -> {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", port), 1000);
+            }
+        });
+    }
+
+    @Test
+    void givenExecutorRunsTheConnectionsAndIsShutDownOnStop() throws Exception {
+        final int port = TestHttp.findFreePort();
+        final HTTPServer server = new HTTPServer(port);
+        final ExecutorService executor = Executors.newFixedThreadPool(2,
+                runnable -> new Thread(runnable, "bootstrap-test"));
+        server.getVirtualHost(null).addContext("/thread", (request, response) -> {
+            response.send(200, Thread.currentThread().getName());
+            return 0;
+        });
+        final ServerBootstrap bootstrap = new ServerBootstrap(server, executor);
+        assertSame(server, bootstrap.getServer());
+        assertSame(executor, bootstrap.getExecutor());
+        assertFalse(executor.isShutdown());
+
+        bootstrap.start();
+        try {
+            assertEquals("bootstrap-test", TestHttp.get(port, "/thread").bodyText());
+        } finally {
+            bootstrap.stop();
+        }
+        assertTrue(executor.isShutdown());
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
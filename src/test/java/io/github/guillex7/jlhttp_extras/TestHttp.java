@@ -0,0 +1,206 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sends requests to the servers under test and reads their responses from
+ * the raw socket, so that tests see exactly what was sent.
+ */
+final class TestHttp {
+    private TestHttp() {
+    }
+
+    /**
+     * A response read from a socket.
+     */
+    static final class Response {
+        final String statusLine;
+        final int status;
+        /**
+         * The headers, by lower case name.
+         */
+        final Map<String, String> headers;
+        final byte[] body;
+
+        Response(String statusLine, Map<String, String> headers, byte[] body) {
+            this.statusLine = statusLine;
+            this.status = Integer.parseInt(statusLine.split(" ")[1]);
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String header(String name) {
+            return this.headers.get(name.toLowerCase());
+        }
+
+        String bodyText() {
+            return new String(this.body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Returns a port on which nothing is listening.
+     *
+     * @return the port
+     */
+    static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Sends a GET request on a new connection and reads its response.
+     *
+     * @param port    the port of the server on localhost
+     * @param path    the request path
+     * @param headers the extra request headers, as "Name: value" lines
+     * @return the response
+     */
+    static Response get(int port, String path, String... headers) throws IOException {
+        return send(port, "GET", path, headers);
+    }
+
+    /**
+     * Sends a request on a new connection and reads its response.
+     *
+     * @param port    the port of the server on localhost
+     * @param method  the request method
+     * @param path    the request path
+     * @param headers the extra request headers, as "Name: value" lines
+     * @return the response
+     */
+    static Response send(int port, String method, String path, String... headers) throws IOException {
+        return send(port, method, path, new byte[0], headers);
+    }
+
+    /**
+     * Sends a request with a body on a new connection and reads its response.
+     *
+     * @param port    the port of the server on localhost
+     * @param method  the request method
+     * @param path    the request path
+     * @param body    the request body, sent with its Content-Length if not
+     *                empty
+     * @param headers the extra request headers, as "Name: value" lines
+     * @return the response
+     */
+    static Response send(int port, String method, String path, byte[] body, String... headers)
+            throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", port));
+            socket.setSoTimeout(5000);
+            final StringBuilder request = new StringBuilder();
+            request.append(method).append(' ').append(path).append(" HTTP/1.1\r\nHost: localhost\r\n");
+            for (String header : headers) {
+                request.append(header).append("\r\n");
+            }
+            if (body.length > 0) {
+                request.append("Content-Length: ").append(body.length).append("\r\n");
+            }
+            request.append("\r\n");
+            final OutputStream out = socket.getOutputStream();
+            out.write(request.toString().getBytes(StandardCharsets.ISO_8859_1));
+            out.write(body);
+            out.flush();
+            return readResponse(new BufferedInputStream(socket.getInputStream()), method.equals("HEAD"));
+        }
+    }
+
+    /**
+     * Reads a response, with its body delimited by its Content-Length or
+     * chunked transfer encoding.
+     *
+     * @param in   the input stream of the connection
+     * @param head whether the response is to a HEAD request, and has no body
+     * @return the response
+     */
+    static Response readResponse(InputStream in, boolean head) throws IOException {
+        final Map<String, String> headers = new HashMap<>();
+        final String statusLine = readResponseHead(in, headers);
+        final Response response = new Response(statusLine, headers, new byte[0]);
+        if (head || response.status == 304 || response.status == 204) {
+            return response;
+        }
+
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int size;
+            while ((size = Integer.parseInt(readLine(in).split(";")[0].trim(), 16)) > 0) {
+                body.write(readBody(in, size));
+                readLine(in);
+            }
+            while (!readLine(in).isEmpty()) {
+                // Trailers
+            }
+            return new Response(statusLine, headers, body.toByteArray());
+        }
+        final String contentLength = headers.get("content-length");
+        return new Response(statusLine, headers,
+                contentLength != null ? readBody(in, Integer.parseInt(contentLength)) : readBody(in, -1));
+    }
+
+    /**
+     * Reads the status line and headers of a response.
+     *
+     * @param in      the input stream of the connection
+     * @param headers the map to which headers are added, by lower case name
+     * @return the status line
+     */
+    static String readResponseHead(InputStream in, Map<String, String> headers) throws IOException {
+        final String statusLine = readLine(in);
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            final int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+        }
+        return statusLine;
+    }
+
+    /**
+     * Reads the given number of bytes, or up to the end of the stream.
+     *
+     * @param in     the input stream of the connection
+     * @param length the number of bytes, or -1 to read up to the end
+     * @return the bytes
+     */
+    static byte[] readBody(InputStream in, int length) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (int i = 0; length < 0 || i < length; i++) {
+            final int c = in.read();
+            if (c < 0) {
+                if (length < 0) {
+                    break;
+                }
+                throw new EOFException();
+            }
+            body.write(c);
+        }
+        return body.toByteArray();
+    }
+
+    static String readLine(InputStream in) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new EOFException();
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+}
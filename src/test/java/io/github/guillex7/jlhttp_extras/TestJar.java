@@ -0,0 +1,103 @@
+package io.github.guillex7.jlhttp_extras;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Builds the jar files served by the handlers under test, with each entry
+ * either stored or deflated.
+ */
+final class TestJar {
+    /**
+     * The last modification time of the entries, so that the jar files do not
+     * depend on the time at which they are written.
+     */
+    static final long LAST_MODIFIED = 1700000000000L;
+
+    private final List<JarEntry> entries = new ArrayList<>();
+    private final List<byte[]> contents = new ArrayList<>();
+    private long lastModified = LAST_MODIFIED;
+
+    /**
+     * Sets the last modification time of the entries added from now on,
+     * which is {@link #LAST_MODIFIED} by default.
+     *
+     * @param lastModified the time, in milliseconds
+     * @return this builder
+     */
+    TestJar modifiedAt(long lastModified) {
+        this.lastModified = lastModified;
+        return this;
+    }
+
+    TestJar stored(String name, String text) {
+        return this.stored(name, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    TestJar stored(String name, byte[] bytes) {
+        final JarEntry entry = new JarEntry(name);
+        final CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        entry.setMethod(JarEntry.STORED);
+        entry.setSize(bytes.length);
+        entry.setCompressedSize(bytes.length);
+        entry.setCrc(crc.getValue());
+        return this.add(entry, bytes);
+    }
+
+    TestJar deflated(String name, String text) {
+        return this.deflated(name, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    TestJar deflated(String name, byte[] bytes) {
+        final JarEntry entry = new JarEntry(name);
+        entry.setMethod(JarEntry.DEFLATED);
+        return this.add(entry, bytes);
+    }
+
+    private TestJar add(JarEntry entry, byte[] bytes) {
+        entry.setTime(this.lastModified);
+        this.entries.add(entry);
+        this.contents.add(bytes);
+        return this;
+    }
+
+    /**
+     * Writes the jar file.
+     *
+     * @param path the path of the jar file
+     * @return the path
+     */
+    Path write(Path path) throws IOException {
+        return this.write(path, new byte[0]);
+    }
+
+    /**
+     * Writes the jar file after the given bytes, such as a launcher script.
+     *
+     * @param path   the path of the jar file
+     * @param prefix the bytes before the archive
+     * @return the path
+     */
+    Path write(Path path, byte[] prefix) throws IOException {
+        try (OutputStream file = Files.newOutputStream(path)) {
+            file.write(prefix);
+            try (JarOutputStream out = new JarOutputStream(file)) {
+                for (int i = 0; i < this.entries.size(); i++) {
+                    out.putNextEntry(this.entries.get(i));
+                    out.write(this.contents.get(i));
+                    out.closeEntry();
+                }
+            }
+        }
+        return path;
+    }
+}
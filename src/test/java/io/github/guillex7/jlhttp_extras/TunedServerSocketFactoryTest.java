@@ -0,0 +1,146 @@
+package io.github.guillex7.jlhttp_extras;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import net.freeutils.httpserver.HTTPServer;
+
+class TunedServerSocketFactoryTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void acceptedSocketsHaveAChannelOnlyWithChannelSockets() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (boolean channelSockets : new boolean[] { false, true }) {
+                final TunedServerSocketFactory factory = new TunedServerSocketFactory();
+                factory.setChannelSockets(channelSockets);
+                try (ServerSocket serverSocket = factory.createServerSocket(0)) {
+                    assertTrue(serverSocket.isBound());
+                    assertEquals(channelSockets, serverSocket.getChannel() != null);
+
+                    // The accepted socket is taken in the accepting thread, as a BoundedExecutor does
+                    final Future<Socket[]> accepted = executor.submit(() -> new Socket[] { serverSocket.accept(),
+                            TunedServerSocketFactory.takeAcceptedSocket(),
+                            TunedServerSocketFactory.takeAcceptedSocket() });
+                    try (Socket client = new Socket()) {
+                        client.connect(new InetSocketAddress("localhost", serverSocket.getLocalPort()));
+                        final Socket[] sockets = accepted.get();
+                        try (Socket socket = sockets[0]) {
+                            assertSame(socket, sockets[1]);
+                            assertNull(sockets[2]);
+                            if (channelSockets) {
+                                assertNotNull(socket.getChannel());
+                                assertTrue(socket.getChannel().isBlocking());
+                            } else {
+                                assertNull(socket.getChannel());
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void resourcesAreServedIntactOverChannelSockets() throws IOException {
+        final byte[] stored = new byte[3 * 1024 * 1024];
+        new Random(23).nextBytes(stored);
+        final String text = JarResourceContextHandlerTest.createText(400000);
+        final Path jar = new TestJar().stored("static/stored.bin", stored).deflated("static/deflated.txt", text)
+                .write(this.tempDir.resolve("channel.jar"));
+
+        final int port = TestHttp.findFreePort();
+        final HTTPServer server = new HTTPServer(port);
+        final TunedServerSocketFactory factory = new TunedServerSocketFactory();
+        factory.setChannelSockets(true);
+        // A small send buffer makes the transfers to the socket channel partial
+        factory.setSendBufferSize(8 * 1024);
+        server.setServerSocketFactory(factory);
+        final boolean[] hasChannel = new boolean[1];
+        server.getVirtualHost(null).addContext("/channel", (request, response) -> {
+            hasChannel[0] = request.getSocket().getChannel() != null;
+            response.send(200, "ok");
+            return 0;
+        });
+        final JarResourceContextHandler handler = new JarResourceContextHandler("static", jar.toString());
+        server.getVirtualHost(null).addContext("/s/{*}", handler);
+        server.start();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress("localhost", port));
+            socket.setSoTimeout(10000);
+            final OutputStream out = socket.getOutputStream();
+            final InputStream in = new BufferedInputStream(socket.getInputStream());
+
+            // All on the same connection, so that the bodies written to the channel must not overlap with the
+            // headers and bodies written to the streams of jlhttp
+            final String[][] requests = { { "/channel", "" }, { "/s/stored.bin", "" },
+                    { "/s/deflated.txt", "Accept-Encoding: gzip\r\n" },
+                    { "/s/stored.bin", "Range: bytes=1000000-1999999\r\n" }, { "/s/deflated.txt", "" },
+                    { "/s/stored.bin", "" } };
+            for (int i = 0; i < requests.length; i++) {
+                out.write(("GET " + requests[i][0] + " HTTP/1.1\r\nHost: localhost\r\n" + requests[i][1] + "\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+                out.flush();
+                final TestHttp.Response response = TestHttp.readResponse(in, false);
+                switch (i) {
+                    case 0:
+                        assertTrue(hasChannel[0]);
+                        break;
+                    case 2:
+                        // Sent as it is in the jar file, rather than compressed on the fly
+                        assertEquals("gzip", response.header("Content-Encoding"));
+                        assertEquals(Integer.toString(response.body.length), response.header("Content-Length"));
+                        assertEquals(text, gunzip(response.body));
+                        break;
+                    case 3:
+                        assertEquals(206, response.status);
+                        assertArrayEquals(Arrays.copyOfRange(stored, 1000000, 2000000), response.body);
+                        break;
+                    case 4:
+                        assertEquals(text, response.bodyText());
+                        break;
+                    default:
+                        assertArrayEquals(stored, response.body);
+                        break;
+                }
+            }
+        } finally {
+            server.stop();
+            handler.close();
+        }
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return new String(TestHttp.readBody(in, -1), StandardCharsets.UTF_8);
+        }
+    }
+}